@@ -31,7 +31,11 @@
 package at.ameise.coasy;
 
 import android.app.Application;
+import android.content.pm.ApplicationInfo;
 import android.os.StrictMode;
+import at.ameise.coasy.domain.persistence.ContactsSyncScheduler;
+import at.ameise.coasy.domain.persistence.database.QueryPlanChecker;
+import at.ameise.coasy.util.StartupTiming;
 
 /**
  * {@link Application} class of coasy.
@@ -45,9 +49,34 @@ public class CoasyApplication extends Application {
 	public void onCreate() {
 		super.onCreate();
 
+		StartupTiming.start();
+
 		StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder().detectNetwork().penaltyLog().build());
 		StrictMode
 				.setVmPolicy(new StrictMode.VmPolicy.Builder().detectLeakedSqlLiteObjects().detectLeakedClosableObjects().penaltyLog().penaltyDeath().build());
+
+		ContactsSyncScheduler.getInstance(this).startObservingContacts();
+
+		if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0)
+			checkQueryPlans();
+	}
+
+	/**
+	 * Checks the query plans of all query routes once, in the background. The
+	 * check uses its own in-memory database and crashes the app, like the
+	 * {@link StrictMode} penalty, if a statement scans a table it should
+	 * search.
+	 */
+	private void checkQueryPlans() {
+
+		new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+
+				QueryPlanChecker.checkQueryPlans(CoasyApplication.this);
+			}
+		}, "QueryPlanChecker").start();
 	}
 
 }
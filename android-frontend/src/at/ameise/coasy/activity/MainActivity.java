@@ -8,12 +8,17 @@ import android.support.v4.app.FragmentActivity;
 import android.support.v4.widget.DrawerLayout;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.Window;
+import android.widget.Toast;
 import at.ameise.coasy.R;
+import at.ameise.coasy.domain.persistence.ContactsSyncScheduler;
 import at.ameise.coasy.fragment.CourseListFragment;
 import at.ameise.coasy.fragment.NavigationDrawerFragment;
 import at.ameise.coasy.fragment.StudentListFragment;
+import at.ameise.coasy.util.StartupTiming;
 
-public class MainActivity extends FragmentActivity implements NavigationDrawerFragment.NavigationDrawerCallbacks {
+public class MainActivity extends FragmentActivity implements NavigationDrawerFragment.NavigationDrawerCallbacks,
+		ContactsSyncScheduler.IRefreshListener {
 
 	/**
 	 * Fragment managing the behaviors, interactions and presentation of the
@@ -27,16 +32,53 @@ public class MainActivity extends FragmentActivity implements NavigationDrawerFr
 	 */
 	private CharSequence mTitle;
 
+	private ContactsSyncScheduler mSyncScheduler;
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+		requestWindowFeature(Window.FEATURE_INDETERMINATE_PROGRESS);
 		setContentView(R.layout.activity_main);
 
+		mSyncScheduler = ContactsSyncScheduler.getInstance(this);
+
 		mNavigationDrawerFragment = (NavigationDrawerFragment) getFragmentManager().findFragmentById(R.id.navigation_drawer);
 		mTitle = getTitle();
 
 		// Set up the drawer.
 		mNavigationDrawerFragment.setUp(R.id.navigation_drawer, (DrawerLayout) findViewById(R.id.drawer_layout));
+
+		StartupTiming.mark(StartupTiming.STAGE_MAIN_SHOWN);
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+
+		mSyncScheduler.addRefreshListener(this);
+	}
+
+	@Override
+	protected void onPause() {
+		super.onPause();
+
+		mSyncScheduler.removeRefreshListener(this);
+		setProgressBarIndeterminateVisibility(false);
+	}
+
+	@Override
+	public void onRefreshStarted() {
+
+		setProgressBarIndeterminateVisibility(true);
+	}
+
+	@Override
+	public void onRefreshFinished(boolean successful) {
+
+		setProgressBarIndeterminateVisibility(false);
+
+		if (!successful)
+			Toast.makeText(this, "Failed to recreate or update database!", Toast.LENGTH_SHORT).show();
 	}
 
 	@Override
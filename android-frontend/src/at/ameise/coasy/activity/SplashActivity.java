@@ -33,23 +33,21 @@ package at.ameise.coasy.activity;
 import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
-import android.widget.Toast;
 import at.ameise.coasy.IIntent;
 import at.ameise.coasy.R;
-import at.ameise.coasy.domain.persistence.IPersistenceManager;
-import at.ameise.coasy.domain.persistence.ProductionPersistenceManager;
-import at.ameise.coasy.exception.AbstractDatabaseException;
+import at.ameise.coasy.domain.persistence.ContactsSyncScheduler;
 
 /**
- * Shown on app start. During this screen initialization and loading takes
- * place.
+ * Shown on app start. Schedules opening the database and refreshing it from
+ * the contacts in the background and shows the {@link MainActivity}
+ * immediately with the data mirrored so far.
  * 
  * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
  * 
  */
 public final class SplashActivity extends Activity {
 
-	private IPersistenceManager pm;
+	private ContactsSyncScheduler syncScheduler;
 	
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -57,7 +55,7 @@ public final class SplashActivity extends Activity {
 		
 		setContentView(R.layout.activity_splash);
 		
-		pm = ProductionPersistenceManager.getInstance(getApplicationContext());
+		syncScheduler = ContactsSyncScheduler.getInstance(this);
 	}
 
 	@Override
@@ -67,18 +65,10 @@ public final class SplashActivity extends Activity {
 		Intent i = new Intent(this, MainActivity.class);
 		i.setAction(IIntent.ACTION_START_MAIN);
 		
-		try {
-			
-			pm.refreshDatabaseFromContacts();
-			
-		} catch (AbstractDatabaseException e) {
-			
-			Toast.makeText(this, "Failed to recreate or update database!", Toast.LENGTH_SHORT).show();
-			
-		} finally {
-			
-			startActivity(i);
-		}
+		syncScheduler.openDatabase();
+		syncScheduler.refresh();
+		
+		startActivity(i);
 	}
 	
 }
@@ -96,6 +96,41 @@ public final class Course {
 		this.address = address;
 	}
 
+	/**
+	 * Restores a course, which already has an id. This is meant for the
+	 * persistence layer only.
+	 * 
+	 * @param id
+	 *            the id in the {@link ContactsContract.Groups}.
+	 * @param title
+	 * @param description
+	 * @param address
+	 * @return the course.
+	 */
+	public static Course restore(long id, String title, String description, String address) {
+
+		final Course course = new Course(title, description, address);
+		course.id = id;
+
+		return course;
+	}
+
+	/**
+	 * Assigns the id of the contact group, which was created for this course.
+	 * 
+	 * @param id
+	 *            the id in the {@link ContactsContract.Groups}.
+	 * @throws IllegalStateException
+	 *             if the course has already an id.
+	 */
+	public void assignId(long id) {
+
+		if (this.id > -1)
+			throw new IllegalStateException("Course has already an id!");
+
+		this.id = id;
+	}
+
 	/**
 	 * Validates the title. If the text in etTitle does not validate,
 	 * {@link EditText#setError(CharSequence)} is called and the focus is set to
@@ -43,6 +43,7 @@ import lombok.ToString;
 @ToString@AllArgsConstructor
 public final class CourseStudent {
 
+	@Getter
 	private long id;
 	
 	@Getter
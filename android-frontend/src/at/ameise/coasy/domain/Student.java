@@ -114,4 +114,27 @@ public final class Student {
 		this.address = address;
 	}
 
+	/**
+	 * Restores a student, which already has an id. This is meant for the
+	 * persistence layer only.
+	 * 
+	 * @param id
+	 *            the id in the {@link ContactsContract}.
+	 * @param displayName
+	 * @param dayOfBirth
+	 * @param contactName
+	 * @param email
+	 * @param phone
+	 * @param address
+	 * @return the student.
+	 */
+	public static Student restore(long id, String displayName, Date dayOfBirth, String contactName, Map<String, String> email, Map<String, String> phone,
+			String address) {
+
+		final Student student = new Student(displayName, dayOfBirth, contactName, email, phone, address);
+		student.id = id;
+
+		return student;
+	}
+
 }
@@ -0,0 +1,504 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.content;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.provider.ContactsContract;
+import android.text.TextUtils;
+import at.ameise.coasy.util.Logger;
+
+/**
+ * Stands in for the contacts provider where there is none, i.e. in
+ * Robolectric runs on a plain JVM, to measure and regression test the sync
+ * with the contacts. Register it for {@link ContactsContract#AUTHORITY},
+ * i.e. with Robolectric's ShadowContentResolver.registerProvider or a
+ * MockContentResolver, after {@link #onCreate()} has been called. Fill it with
+ * {@link SyntheticContent#fillContacts(android.content.ContentResolver, android.accounts.Account, long)}
+ * .<br>
+ * <br>
+ * The data lives in an in-memory database. Only the parts of
+ * {@link ContactsContract.Groups}, {@link ContactsContract.RawContacts},
+ * {@link ContactsContract.Contacts} and {@link ContactsContract.Data} which
+ * coasy uses are implemented:
+ * <ul>
+ * <li>every raw contact is a contact of its own, named after its structured
+ * name</li>
+ * <li>the versions of groups and raw contacts are raised on every change, a
+ * change of a data row changes its raw contact</li>
+ * <li>groups and raw contacts are only marked as deleted, data rows are
+ * deleted</li>
+ * <li>a batch is applied in a single transaction and notifies its observers
+ * once</li>
+ * </ul>
+ * Every call sleeps for the latency set by {@link #setLatency(long)}, a batch
+ * is a single call.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+public class InMemoryContactsProvider extends ContentProvider {
+
+	private static final String TAG = "InMemoryContactsProvider";
+
+	/**
+	 * The id column, which all tables share.
+	 */
+	private static final String COL_ID = BaseColumns._ID;
+
+	private static final String TABLE_GROUPS = "groups";
+	private static final String TABLE_RAW_CONTACTS = "raw_contacts";
+	private static final String TABLE_CONTACTS = "contacts";
+	private static final String TABLE_DATA = "data";
+	/**
+	 * The data rows of the raw contacts which are not deleted, with the id of
+	 * their contact.
+	 */
+	private static final String VIEW_DATA = "view_data";
+
+	/**
+	 * Data rows have the generic columns data1 to data15, their meaning
+	 * depends on the mimetype.
+	 */
+	private static final int DATA_COLUMNS = 15;
+
+	private static final int GROUPS = 1;
+	private static final int GROUP_ID = 2;
+	private static final int RAW_CONTACTS = 3;
+	private static final int RAW_CONTACT_ID = 4;
+	private static final int CONTACTS = 5;
+	private static final int CONTACT_ID = 6;
+	private static final int DATA = 7;
+	private static final int DATA_ID = 8;
+
+	private static final UriMatcher sURIMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+	static {
+		sURIMatcher.addURI(ContactsContract.AUTHORITY, TABLE_GROUPS, GROUPS);
+		sURIMatcher.addURI(ContactsContract.AUTHORITY, TABLE_GROUPS + "/#", GROUP_ID);
+		sURIMatcher.addURI(ContactsContract.AUTHORITY, TABLE_RAW_CONTACTS, RAW_CONTACTS);
+		sURIMatcher.addURI(ContactsContract.AUTHORITY, TABLE_RAW_CONTACTS + "/#", RAW_CONTACT_ID);
+		sURIMatcher.addURI(ContactsContract.AUTHORITY, TABLE_CONTACTS, CONTACTS);
+		sURIMatcher.addURI(ContactsContract.AUTHORITY, TABLE_CONTACTS + "/#", CONTACT_ID);
+		sURIMatcher.addURI(ContactsContract.AUTHORITY, TABLE_DATA, DATA);
+		sURIMatcher.addURI(ContactsContract.AUTHORITY, TABLE_DATA + "/#", DATA_ID);
+	}
+
+	private SQLiteDatabase mDatabase;
+
+	/**
+	 * The uris changed by the batch the current thread applies, null if it
+	 * does not apply a batch.
+	 */
+	private final ThreadLocal<Set<Uri>> mBatchChanges = new ThreadLocal<Set<Uri>>();
+
+	private volatile long mLatencyMillis = 0;
+
+	@Override
+	public boolean onCreate() {
+
+		mDatabase = SQLiteDatabase.create(null);
+
+		mDatabase.execSQL("CREATE TABLE " + TABLE_GROUPS + " ( "//
+				+ ContactsContract.Groups._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "//
+				+ ContactsContract.Groups.TITLE + " TEXT, "//
+				+ ContactsContract.Groups.NOTES + " TEXT, "//
+				+ ContactsContract.Groups.ACCOUNT_NAME + " TEXT, "//
+				+ ContactsContract.Groups.ACCOUNT_TYPE + " TEXT, "//
+				+ ContactsContract.Groups.SHOULD_SYNC + " INTEGER NOT NULL DEFAULT 1, "//
+				+ ContactsContract.Groups.GROUP_VISIBLE + " INTEGER NOT NULL DEFAULT 0, "//
+				+ ContactsContract.Groups.DELETED + " INTEGER NOT NULL DEFAULT 0, "//
+				+ ContactsContract.Groups.VERSION + " INTEGER NOT NULL DEFAULT 1"//
+				+ " );");
+
+		mDatabase.execSQL("CREATE TABLE " + TABLE_RAW_CONTACTS + " ( "//
+				+ ContactsContract.RawContacts._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "//
+				+ ContactsContract.RawContacts.CONTACT_ID + " INTEGER, "//
+				+ ContactsContract.RawContacts.ACCOUNT_NAME + " TEXT, "//
+				+ ContactsContract.RawContacts.ACCOUNT_TYPE + " TEXT, "//
+				+ ContactsContract.RawContacts.DELETED + " INTEGER NOT NULL DEFAULT 0, "//
+				+ ContactsContract.RawContacts.VERSION + " INTEGER NOT NULL DEFAULT 1"//
+				+ " );");
+
+		mDatabase.execSQL("CREATE TABLE " + TABLE_CONTACTS + " ( "//
+				+ ContactsContract.Contacts._ID + " INTEGER PRIMARY KEY, "//
+				+ ContactsContract.Contacts.DISPLAY_NAME_PRIMARY + " TEXT"//
+				+ " );");
+
+		final StringBuilder dataColumns = new StringBuilder();
+		for (int i = 1; i <= DATA_COLUMNS; i++)
+			dataColumns.append(", data").append(i).append(" TEXT");
+
+		mDatabase.execSQL("CREATE TABLE " + TABLE_DATA + " ( "//
+				+ ContactsContract.Data._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "//
+				+ ContactsContract.Data.RAW_CONTACT_ID + " INTEGER NOT NULL, "//
+				+ ContactsContract.Data.MIMETYPE + " TEXT NOT NULL"//
+				+ dataColumns//
+				+ " );");
+		mDatabase.execSQL("CREATE INDEX " + TABLE_DATA + "_raw_contact ON " + TABLE_DATA + " (" + ContactsContract.Data.RAW_CONTACT_ID + ");");
+		mDatabase.execSQL("CREATE INDEX " + TABLE_DATA + "_mimetype_data1 ON " + TABLE_DATA + " (" + ContactsContract.Data.MIMETYPE + ", "
+				+ ContactsContract.Data.DATA1 + ");");
+
+		mDatabase.execSQL("CREATE VIEW " + VIEW_DATA + " AS SELECT " + TABLE_DATA + ".*, "//
+				+ TABLE_RAW_CONTACTS + "." + ContactsContract.RawContacts.CONTACT_ID + " AS " + ContactsContract.Data.CONTACT_ID//
+				+ " FROM " + TABLE_DATA + " INNER JOIN " + TABLE_RAW_CONTACTS//
+				+ " ON (" + TABLE_DATA + "." + ContactsContract.Data.RAW_CONTACT_ID + " = " + TABLE_RAW_CONTACTS + "." + ContactsContract.RawContacts._ID + ")"//
+				+ " WHERE " + TABLE_RAW_CONTACTS + "." + ContactsContract.RawContacts.DELETED + " = 0;");
+
+		createTriggers();
+
+		return true;
+	}
+
+	/**
+	 * Creates the triggers which aggregate the contacts and raise the
+	 * versions.
+	 */
+	private void createTriggers() {
+
+		// every raw contact is a contact of its own
+		mDatabase.execSQL("CREATE TRIGGER " + TABLE_RAW_CONTACTS + "_insert AFTER INSERT ON " + TABLE_RAW_CONTACTS + " BEGIN "//
+				+ "INSERT INTO " + TABLE_CONTACTS + " (" + ContactsContract.Contacts._ID + ") VALUES (NEW." + ContactsContract.RawContacts._ID + "); "//
+				+ "UPDATE " + TABLE_RAW_CONTACTS + " SET " + ContactsContract.RawContacts.CONTACT_ID + " = NEW." + ContactsContract.RawContacts._ID//
+				+ " WHERE " + ContactsContract.RawContacts._ID + " = NEW." + ContactsContract.RawContacts._ID + "; "//
+				+ "END;");
+
+		// recursive triggers are off, the update of the version does not fire again
+		mDatabase.execSQL("CREATE TRIGGER " + TABLE_GROUPS + "_update AFTER UPDATE ON " + TABLE_GROUPS + " BEGIN "//
+				+ "UPDATE " + TABLE_GROUPS + " SET " + ContactsContract.Groups.VERSION + " = OLD." + ContactsContract.Groups.VERSION + " + 1"//
+				+ " WHERE " + ContactsContract.Groups._ID + " = NEW." + ContactsContract.Groups._ID + "; "//
+				+ "END;");
+
+		mDatabase.execSQL("CREATE TRIGGER " + TABLE_RAW_CONTACTS + "_update AFTER UPDATE OF " + ContactsContract.RawContacts.ACCOUNT_NAME + ", "
+				+ ContactsContract.RawContacts.ACCOUNT_TYPE + ", " + ContactsContract.RawContacts.DELETED + " ON " + TABLE_RAW_CONTACTS + " BEGIN "//
+				+ "UPDATE " + TABLE_RAW_CONTACTS + " SET " + ContactsContract.RawContacts.VERSION + " = OLD." + ContactsContract.RawContacts.VERSION + " + 1"//
+				+ " WHERE " + ContactsContract.RawContacts._ID + " = NEW." + ContactsContract.RawContacts._ID + "; "//
+				+ "END;");
+
+		final String raiseRawContactVersion = "UPDATE " + TABLE_RAW_CONTACTS + " SET " + ContactsContract.RawContacts.VERSION + " = "
+				+ ContactsContract.RawContacts.VERSION + " + 1 WHERE " + ContactsContract.RawContacts._ID + " = %1$s." + ContactsContract.Data.RAW_CONTACT_ID
+				+ "; ";
+		final String nameContact = "UPDATE " + TABLE_CONTACTS + " SET " + ContactsContract.Contacts.DISPLAY_NAME_PRIMARY + " = NEW."
+				+ ContactsContract.CommonDataKinds.StructuredName.DISPLAY_NAME + " WHERE " + ContactsContract.Contacts._ID + " = (SELECT "
+				+ ContactsContract.RawContacts.CONTACT_ID + " FROM " + TABLE_RAW_CONTACTS + " WHERE " + ContactsContract.RawContacts._ID + " = NEW."
+				+ ContactsContract.Data.RAW_CONTACT_ID + ") AND NEW." + ContactsContract.Data.MIMETYPE + " = '"
+				+ ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE + "'; ";
+
+		mDatabase.execSQL("CREATE TRIGGER " + TABLE_DATA + "_insert AFTER INSERT ON " + TABLE_DATA + " BEGIN "//
+				+ String.format(raiseRawContactVersion, "NEW") + nameContact + "END;");
+		mDatabase.execSQL("CREATE TRIGGER " + TABLE_DATA + "_update AFTER UPDATE ON " + TABLE_DATA + " BEGIN "//
+				+ String.format(raiseRawContactVersion, "NEW") + nameContact + "END;");
+		mDatabase.execSQL("CREATE TRIGGER " + TABLE_DATA + "_delete AFTER DELETE ON " + TABLE_DATA + " BEGIN "//
+				+ String.format(raiseRawContactVersion, "OLD") + "END;");
+	}
+
+	/**
+	 * @param latencyMillis
+	 *            the time every call takes additionally, 0 for none.
+	 */
+	public void setLatency(long latencyMillis) {
+
+		mLatencyMillis = latencyMillis;
+	}
+
+	@Override
+	public String getType(Uri uri) {
+		return null;
+	}
+
+	@Override
+	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+
+		delay();
+
+		final int uriType = sURIMatcher.match(uri);
+		final SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+		queryBuilder.setTables(getReadTable(uriType, uri));
+
+		if (isItemUri(uriType))
+			queryBuilder.appendWhere(COL_ID + " = " + ContentUris.parseId(uri));
+
+		final Cursor cursor = queryBuilder.query(mDatabase, projection, selection, selectionArgs, null, null, sortOrder);
+
+		final Context context = getContext();
+		if (context != null)
+			cursor.setNotificationUri(context.getContentResolver(), uri);
+
+		return cursor;
+	}
+
+	@Override
+	public Uri insert(Uri uri, ContentValues values) {
+
+		delay();
+
+		final int uriType = sURIMatcher.match(uri);
+		final String table;
+
+		switch (uriType) {
+
+		case GROUPS:
+			table = TABLE_GROUPS;
+			break;
+
+		case RAW_CONTACTS:
+			table = TABLE_RAW_CONTACTS;
+			break;
+
+		case DATA:
+			table = TABLE_DATA;
+			break;
+
+		default:
+			throw new IllegalArgumentException("URI (" + uri + ") not implemented!");
+		}
+
+		final long id = mDatabase.insertOrThrow(table, null, values);
+		changed(uri);
+
+		return ContentUris.withAppendedId(uri, id);
+	}
+
+	@Override
+	public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+
+		delay();
+
+		final int uriType = sURIMatcher.match(uri);
+		final String where = getWriteSelection(uriType, uri, selection);
+		final int rowsUpdated = mDatabase.update(getWriteTable(uriType, uri), values, where, selectionArgs);
+
+		if (rowsUpdated > 0)
+			changed(uri);
+
+		return rowsUpdated;
+	}
+
+	@Override
+	public int delete(Uri uri, String selection, String[] selectionArgs) {
+
+		delay();
+
+		final int uriType = sURIMatcher.match(uri);
+		final String table = getWriteTable(uriType, uri);
+		final String where = getWriteSelection(uriType, uri, selection);
+		final int rowsDeleted;
+
+		if (TABLE_DATA.equals(table)) {
+
+			rowsDeleted = mDatabase.delete(table, where, selectionArgs);
+
+		} else {
+
+			// like for any caller but a sync adapter, the rows are only marked,
+			// groups and raw contacts name the column alike
+			final ContentValues deleted = new ContentValues();
+			deleted.put(ContactsContract.Groups.DELETED, 1);
+			rowsDeleted = mDatabase.update(table, deleted, where, selectionArgs);
+
+			if (TABLE_RAW_CONTACTS.equals(table))
+				mDatabase.delete(TABLE_CONTACTS, ContactsContract.Contacts._ID + " NOT IN (SELECT " + ContactsContract.RawContacts.CONTACT_ID + " FROM "
+						+ TABLE_RAW_CONTACTS + " WHERE " + ContactsContract.RawContacts.DELETED + " = 0)", null);
+		}
+
+		if (rowsDeleted > 0)
+			changed(uri);
+
+		return rowsDeleted;
+	}
+
+	@Override
+	public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+
+		delay();
+
+		final Set<Uri> changes = new HashSet<Uri>();
+		mBatchChanges.set(changes);
+		mDatabase.beginTransaction();
+		try {
+
+			final ContentProviderResult[] results = super.applyBatch(operations);
+			mDatabase.setTransactionSuccessful();
+
+			return results;
+
+		} finally {
+
+			mDatabase.endTransaction();
+			mBatchChanges.set(null);
+
+			for (Uri uri : changes)
+				notifyChange(uri);
+		}
+	}
+
+	/**
+	 * Sleeps for the latency of a call, unless the call is part of a batch.
+	 */
+	private void delay() {
+
+		if (mLatencyMillis <= 0 || mBatchChanges.get() != null)
+			return;
+
+		try {
+
+			Thread.sleep(mLatencyMillis);
+
+		} catch (InterruptedException e) {
+
+			Logger.warn(TAG, "Interrupted while delaying a call.");
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Notifies the observers of the table of the uri, after the batch if one
+	 * is applied.
+	 * 
+	 * @param uri
+	 */
+	private void changed(Uri uri) {
+
+		final Uri tableUri = new Uri.Builder().scheme(uri.getScheme()).authority(uri.getAuthority()).appendPath(uri.getPathSegments().get(0)).build();
+		final Set<Uri> changes = mBatchChanges.get();
+
+		if (changes != null)
+			changes.add(tableUri);
+		else
+			notifyChange(tableUri);
+	}
+
+	/**
+	 * @param uri
+	 */
+	private void notifyChange(Uri uri) {
+
+		final Context context = getContext();
+		if (context != null)
+			context.getContentResolver().notifyChange(uri, null, false);
+	}
+
+	/**
+	 * @param uriType
+	 * @return true if the uri is the one of a single row.
+	 */
+	private static boolean isItemUri(int uriType) {
+
+		return uriType == GROUP_ID || uriType == RAW_CONTACT_ID || uriType == CONTACT_ID || uriType == DATA_ID;
+	}
+
+	/**
+	 * @param uriType
+	 * @param uri
+	 * @return the table or view to query.
+	 */
+	private static String getReadTable(int uriType, Uri uri) {
+
+		switch (uriType) {
+
+		case GROUPS:
+		case GROUP_ID:
+			return TABLE_GROUPS;
+
+		case RAW_CONTACTS:
+		case RAW_CONTACT_ID:
+			return TABLE_RAW_CONTACTS;
+
+		case CONTACTS:
+		case CONTACT_ID:
+			return TABLE_CONTACTS;
+
+		case DATA:
+		case DATA_ID:
+			return VIEW_DATA;
+
+		default:
+			throw new IllegalArgumentException("Unknown URI: " + uri);
+		}
+	}
+
+	/**
+	 * @param uriType
+	 * @param uri
+	 * @return the table to write.
+	 */
+	private static String getWriteTable(int uriType, Uri uri) {
+
+		switch (uriType) {
+
+		case CONTACTS:
+		case CONTACT_ID:
+			throw new IllegalArgumentException("URI (" + uri + ") not implemented, contacts are written through their raw contacts!");
+
+		default:
+			final String table = getReadTable(uriType, uri);
+			return VIEW_DATA.equals(table) ? TABLE_DATA : table;
+		}
+	}
+
+	/**
+	 * @param uriType
+	 * @param uri
+	 * @param selection
+	 * @return the selection of the rows to write. The selection of data rows
+	 *         may use the columns of the data view, i.e. the contact id.
+	 */
+	private static String getWriteSelection(int uriType, Uri uri, String selection) {
+
+		final String where;
+		if (TABLE_DATA.equals(getWriteTable(uriType, uri)))
+			where = COL_ID + " IN (SELECT " + COL_ID + " FROM " + VIEW_DATA
+					+ (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection) + ")";
+		else
+			where = selection;
+
+		if (!isItemUri(uriType))
+			return where;
+
+		final String itemWhere = COL_ID + " = " + ContentUris.parseId(uri);
+
+		return TextUtils.isEmpty(where) ? itemWhere : itemWhere + " AND (" + where + ")";
+	}
+}
@@ -0,0 +1,523 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.content;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import android.accounts.Account;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.OperationApplicationException;
+import android.os.RemoteException;
+import android.provider.ContactsContract;
+import android.support.v4.util.LongSparseArray;
+import at.ameise.coasy.ICoasySettings;
+import at.ameise.coasy.domain.Course;
+import at.ameise.coasy.domain.Student;
+import at.ameise.coasy.domain.json.CoursePayload;
+import at.ameise.coasy.domain.persistence.ContactsContractHelper;
+import at.ameise.coasy.domain.persistence.database.CoasyDatabaseHelper;
+import at.ameise.coasy.domain.persistence.database.CourseStudentTable;
+import at.ameise.coasy.domain.persistence.database.CourseTable;
+import at.ameise.coasy.domain.persistence.database.GroupMemberTable;
+import at.ameise.coasy.domain.persistence.database.PerformanceDatabaseContentProvider;
+import at.ameise.coasy.domain.persistence.database.StudentTable;
+import at.ameise.coasy.exception.UpdateContactsException;
+import at.ameise.coasy.exception.UpdateDatabaseException;
+import at.ameise.coasy.util.Logger;
+
+/**
+ * Provides a synthetic data set of any size for load tests and benchmarks,
+ * i.e. 50 courses with 40 students each or 1000 courses out of 20000
+ * contacts. The same seed and sizes always generate the same data set.<br>
+ * <br>
+ * Names and addresses are drawn from lists ordered by frequency, with a bias
+ * towards the front, so common names repeat like they do in a real roster.
+ * The course sizes vary around the requested mean.<br>
+ * <br>
+ * The data set is written either to the contacts, where the sync picks it up,
+ * or directly to the performance database.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+public final class SyntheticContent {
+
+	private static final String TAG = "SyntheticContent";
+
+	/**
+	 * Operations per batch. Both providers apply a batch in a single
+	 * transaction, the contacts provider yields after every contact.
+	 */
+	private static final int MAX_OPERATIONS_PER_BATCH = 400;
+
+	/**
+	 * The larger, the more often the front of a list is drawn.
+	 */
+	private static final double FREQUENCY_BIAS = 2.5;
+
+	/**
+	 * Share of the students who are children and have a contact person.
+	 */
+	private static final double CHILDREN_RATIO = 0.6;
+
+	private static final String[] FIRST_NAMES = { "Lukas", "Anna", "David", "Lena", "Tobias", "Sarah", "Maximilian", "Julia", "Elias", "Laura", "Jakob",
+			"Hannah", "Felix", "Sophie", "Paul", "Lea", "Simon", "Katharina", "Jonas", "Marie", "Florian", "Johanna", "Alexander", "Magdalena", "Fabian",
+			"Emma", "Sebastian", "Valentina", "Moritz", "Theresa", "Leon", "Elena", "Noah", "Nina", "Matthias", "Clara", "Raphael", "Amelie", "Dominik",
+			"Vanessa", };
+
+	private static final String[] LAST_NAMES = { "Gruber", "Huber", "Bauer", "Wagner", "M\u00fcller", "Pichler", "Steiner", "Moser", "Mayer", "Hofer",
+			"Leitner", "Berger", "Fuchs", "Eder", "Fischer", "Schmid", "Winkler", "Weber", "Schwarz", "Maier", "Schneider", "Reiter", "Mayr", "Schmidt",
+			"Wimmer", "Egger", "Brunner", "Lang", "Baumgartner", "Auer", "Binder", "Lechner", "Wolf", "Wallner", "Aigner", "Ebner", "Koller", "Lehner",
+			"Haas", "Schuster", };
+
+	private static final String[] STREETS = { "Hauptstra\u00dfe", "Bahnhofstra\u00dfe", "Schulgasse", "Kirchengasse", "Dorfstra\u00dfe", "Lindenweg", "M\u00fchlweg",
+			"Gartengasse", "Feldgasse", "Wiener Stra\u00dfe", "Grazer Stra\u00dfe", "Bergstra\u00dfe", "Waldweg", "Am Anger", "Rosengasse", "Sonnenweg", };
+
+	private static final String[] CITIES = { "1100 Wien", "1210 Wien", "1220 Wien", "8010 Graz", "4020 Linz", "5020 Salzburg", "6020 Innsbruck",
+			"9020 Klagenfurt", "3100 St. P\u00f6lten", "4600 Wels", "6900 Bregenz", "2700 Wiener Neustadt", };
+
+	private static final String[] SUBJECTS = { "Karate", "Judo", "Aikido", "Kickboxen", "Selbstverteidigung", "Taekwondo", "Kung Fu", "Jiu Jitsu", };
+
+	private static final String[] GROUPS = { "Kinder", "Anf\u00e4nger", "Fortgeschrittene", "Jugend", "Wettkampf", "Senioren", "Eltern-Kind", };
+
+	private static final String[] DAYS = { "Montag", "Dienstag", "Mittwoch", "Donnerstag", "Freitag", "Samstag", };
+
+	private final List<Course> mCourses;
+	private final List<Student> mStudents;
+
+	/**
+	 * The student ids of every course, mapped by course id.
+	 */
+	private final LongSparseArray<long[]> mMemberships;
+
+	private SyntheticContent(List<Course> courses, List<Student> students, LongSparseArray<long[]> memberships) {
+
+		mCourses = courses;
+		mStudents = students;
+		mMemberships = memberships;
+	}
+
+	/**
+	 * Generates a data set. The courses and students get the ids 1 to n.
+	 * 
+	 * @param seed
+	 * @param courseCount
+	 * @param studentCount
+	 * @param studentsPerCourse
+	 *            the mean number of students in a course, a course has between
+	 *            half and one and a half times as many.
+	 * @return the data set.
+	 */
+	public static SyntheticContent generate(long seed, int courseCount, int studentCount, int studentsPerCourse) {
+
+		final Random random = new Random(seed);
+
+		final List<Student> students = new ArrayList<Student>(studentCount);
+		for (int i = 0; i < studentCount; i++)
+			students.add(newStudent(random, i + 1));
+
+		final List<Course> courses = new ArrayList<Course>(courseCount);
+		final LongSparseArray<long[]> memberships = new LongSparseArray<long[]>(courseCount);
+
+		// shuffled partially for every course, the first ids are its students
+		final long[] studentIds = new long[studentCount];
+		for (int i = 0; i < studentCount; i++)
+			studentIds[i] = i + 1;
+
+		for (int i = 0; i < courseCount; i++) {
+
+			final Course course = newCourse(random, i + 1);
+			final int size = Math.min(studentCount, studentsPerCourse / 2 + random.nextInt(studentsPerCourse + 1));
+
+			for (int j = 0; j < size; j++) {
+
+				final int k = j + random.nextInt(studentCount - j);
+				final long id = studentIds[k];
+				studentIds[k] = studentIds[j];
+				studentIds[j] = id;
+			}
+
+			final long[] courseStudentIds = new long[size];
+			System.arraycopy(studentIds, 0, courseStudentIds, 0, size);
+
+			courses.add(course);
+			memberships.put(course.getId(), courseStudentIds);
+		}
+
+		Logger.info(TAG, "Generated " + courseCount + " courses and " + studentCount + " students with seed " + seed);
+
+		return new SyntheticContent(Collections.unmodifiableList(courses), Collections.unmodifiableList(students), memberships);
+	}
+
+	/**
+	 * @return the courses, their ids are 1 to n.
+	 */
+	public List<Course> getCourses() {
+		return mCourses;
+	}
+
+	/**
+	 * @return the students, their ids are 1 to n.
+	 */
+	public List<Student> getStudents() {
+		return mStudents;
+	}
+
+	/**
+	 * @param courseId
+	 * @return the ids of the students of the course.
+	 */
+	public long[] getStudentIds(long courseId) {
+
+		final long[] studentIds = mMemberships.get(courseId);
+
+		return studentIds != null ? studentIds.clone() : new long[0];
+	}
+
+	/**
+	 * Writes the data set directly to the performance database, all students
+	 * are members of the selected contact group. The ids are the generated
+	 * ones, so the next refresh from the contacts reconciles them away unless
+	 * the same data set has been written to the contacts.
+	 * 
+	 * @param resolver
+	 * @throws UpdateDatabaseException
+	 *             if a batch failed. The batches before are applied.
+	 */
+	public void fillDatabase(ContentResolver resolver) throws UpdateDatabaseException {
+
+		final ArrayList<ContentProviderOperation> batch = new ArrayList<ContentProviderOperation>();
+
+		for (Course course : mCourses) {
+
+			batch.add(ContentProviderOperation.newInsert(PerformanceDatabaseContentProvider.CONTENT_URI_COURSE_UPSERT)//
+					.withValues(CourseTable.from(course))//
+					.build());
+			flushDatabaseBatch(resolver, batch, false);
+		}
+
+		for (Student student : mStudents) {
+
+			batch.add(ContentProviderOperation.newInsert(PerformanceDatabaseContentProvider.CONTENT_URI_STUDENT_UPSERT)//
+					.withValues(StudentTable.from(student))//
+					.build());
+			batch.add(ContentProviderOperation.newInsert(PerformanceDatabaseContentProvider.CONTENT_URI_GROUP_MEMBER_UPSERT)//
+					.withValues(GroupMemberTable.from(student))//
+					.build());
+			flushDatabaseBatch(resolver, batch, false);
+		}
+
+		for (int i = 0; i < mMemberships.size(); i++) {
+
+			for (long studentId : mMemberships.valueAt(i)) {
+
+				batch.add(ContentProviderOperation.newInsert(PerformanceDatabaseContentProvider.CONTENT_URI_COURSE_STUDENT)//
+						.withValue(CourseStudentTable.COL_STUDENT_ID, studentId)//
+						.withValue(CourseStudentTable.COL_COURSE_ID, mMemberships.keyAt(i))//
+						.build());
+				flushDatabaseBatch(resolver, batch, false);
+			}
+		}
+
+		flushDatabaseBatch(resolver, batch, true);
+	}
+
+	/**
+	 * Writes the data set to the contacts of the account. Every course becomes
+	 * a coasy contact group, every student a raw contact with a name and an
+	 * address. The contacts provider assigns new ids, the ids of the data set
+	 * are not kept.
+	 * 
+	 * @param resolver
+	 *            the resolver of the contacts provider.
+	 * @param account
+	 *            the selected google account.
+	 * @param rosterGroupRowId
+	 *            the selected contact group all students are added to, -1 for
+	 *            none.
+	 * @throws UpdateContactsException
+	 *             if a batch failed. The batches before are applied.
+	 */
+	public void fillContacts(ContentResolver resolver, Account account, long rosterGroupRowId) throws UpdateContactsException {
+
+		final ArrayList<ContentProviderOperation> batch = new ArrayList<ContentProviderOperation>();
+
+		/*
+		 * The groups get their final title and the payload once their ids are
+		 * known.
+		 */
+		final long[] groupRowIds = new long[mCourses.size()];
+		int created = 0;
+
+		for (int i = 0; i < mCourses.size(); i++) {
+
+			batch.add(ContentProviderOperation.newInsert(ContactsContract.Groups.CONTENT_URI)//
+					.withValue(ContactsContract.Groups.TITLE, ContactsContractHelper.CONTACTS_GROUP_TITLE_PREFIX + "synthetic" + i)//
+					.withValue(ContactsContract.Groups.ACCOUNT_NAME, account.name)//
+					.withValue(ContactsContract.Groups.ACCOUNT_TYPE, account.type)//
+					.withValue(ContactsContract.Groups.SHOULD_SYNC, CoasyDatabaseHelper.SQLITE_VALUE_TRUE)//
+					.withValue(ContactsContract.Groups.GROUP_VISIBLE,
+							ICoasySettings.MODE_DEBUG ? CoasyDatabaseHelper.SQLITE_VALUE_TRUE : CoasyDatabaseHelper.SQLITE_VALUE_FALSE)//
+					.build());
+
+			if (batch.size() >= MAX_OPERATIONS_PER_BATCH || i == mCourses.size() - 1)
+				for (ContentProviderResult result : flushContactsBatch(resolver, batch))
+					groupRowIds[created++] = ContentUris.parseId(result.uri);
+		}
+
+		for (int i = 0; i < mCourses.size(); i++) {
+
+			final Course synthetic = mCourses.get(i);
+			final Course course = new Course(synthetic.getTitle(), synthetic.getDescription(), synthetic.getAddress());
+			course.assignId(groupRowIds[i]);
+
+			batch.add(ContentProviderOperation.newUpdate(ContentUris.withAppendedId(ContactsContract.Groups.CONTENT_URI, groupRowIds[i]))//
+					.withValue(ContactsContract.Groups.TITLE, ContactsContractHelper.CONTACTS_GROUP_TITLE_PREFIX + groupRowIds[i])//
+					.withValue(ContactsContract.Groups.NOTES, CoursePayload.encode(course))//
+					.build());
+
+			if (batch.size() >= MAX_OPERATIONS_PER_BATCH)
+				flushContactsBatch(resolver, batch);
+		}
+		flushContactsBatch(resolver, batch);
+
+		/*
+		 * A raw contact and its rows have to be in the same batch, the rows
+		 * refer back to the insert of the raw contact.
+		 */
+		final LongSparseArray<Long> rawContactIds = new LongSparseArray<Long>(mStudents.size());
+		final List<Long> pendingStudentIds = new ArrayList<Long>();
+		final List<Integer> pendingIndexes = new ArrayList<Integer>();
+
+		for (Student student : mStudents) {
+
+			pendingStudentIds.add(student.getId());
+			pendingIndexes.add(batch.size());
+			addContact(batch, student, account, rosterGroupRowId);
+
+			if (batch.size() >= MAX_OPERATIONS_PER_BATCH || student == mStudents.get(mStudents.size() - 1)) {
+
+				final ContentProviderResult[] results = flushContactsBatch(resolver, batch);
+				for (int i = 0; i < pendingStudentIds.size(); i++)
+					rawContactIds.put(pendingStudentIds.get(i), ContentUris.parseId(results[pendingIndexes.get(i)].uri));
+
+				pendingStudentIds.clear();
+				pendingIndexes.clear();
+			}
+		}
+
+		for (int i = 0; i < mCourses.size(); i++) {
+
+			for (long studentId : mMemberships.get(mCourses.get(i).getId())) {
+
+				batch.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)//
+						.withValue(ContactsContract.CommonDataKinds.GroupMembership.RAW_CONTACT_ID, rawContactIds.get(studentId))//
+						.withValue(ContactsContract.CommonDataKinds.GroupMembership.GROUP_ROW_ID, groupRowIds[i])//
+						.withValue(ContactsContract.CommonDataKinds.GroupMembership.MIMETYPE,
+								ContactsContract.CommonDataKinds.GroupMembership.CONTENT_ITEM_TYPE)//
+						.build());
+
+				if (batch.size() >= MAX_OPERATIONS_PER_BATCH)
+					flushContactsBatch(resolver, batch);
+			}
+		}
+		flushContactsBatch(resolver, batch);
+
+		Logger.info(TAG, "Wrote " + mCourses.size() + " groups and " + mStudents.size() + " contacts to " + account.name);
+	}
+
+	/**
+	 * Adds the insert of the raw contact of the student and of its rows to the
+	 * batch.
+	 * 
+	 * @param batch
+	 * @param student
+	 * @param account
+	 * @param rosterGroupRowId
+	 *            -1 for none.
+	 */
+	private static void addContact(ArrayList<ContentProviderOperation> batch, Student student, Account account, long rosterGroupRowId) {
+
+		final int rawContactIndex = batch.size();
+
+		batch.add(ContentProviderOperation.newInsert(ContactsContract.RawContacts.CONTENT_URI)//
+				.withValue(ContactsContract.RawContacts.ACCOUNT_NAME, account.name)//
+				.withValue(ContactsContract.RawContacts.ACCOUNT_TYPE, account.type)//
+				.withYieldAllowed(true)//
+				.build());
+
+		batch.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)//
+				.withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContactIndex)//
+				.withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE)//
+				.withValue(ContactsContract.CommonDataKinds.StructuredName.DISPLAY_NAME, student.getDisplayName())//
+				.build());
+
+		batch.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)//
+				.withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContactIndex)//
+				.withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE)//
+				.withValue(ContactsContract.CommonDataKinds.StructuredPostal.FORMATTED_ADDRESS, student.getAddress())//
+				.build());
+
+		if (rosterGroupRowId > -1)
+			batch.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)//
+					.withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContactIndex)//
+					.withValue(ContactsContract.CommonDataKinds.GroupMembership.GROUP_ROW_ID, rosterGroupRowId)//
+					.withValue(ContactsContract.Data.MIMETYPE, ContactsContract.CommonDataKinds.GroupMembership.CONTENT_ITEM_TYPE)//
+					.build());
+	}
+
+	/**
+	 * Applies the batch to the performance database and clears it, if it is
+	 * full or if forced.
+	 * 
+	 * @param resolver
+	 * @param batch
+	 * @param force
+	 * @throws UpdateDatabaseException
+	 */
+	private static void flushDatabaseBatch(ContentResolver resolver, ArrayList<ContentProviderOperation> batch, boolean force)
+			throws UpdateDatabaseException {
+
+		if (batch.isEmpty() || (!force && batch.size() < MAX_OPERATIONS_PER_BATCH))
+			return;
+
+		try {
+
+			resolver.applyBatch(PerformanceDatabaseContentProvider.AUTHORITY, batch);
+			batch.clear();
+
+		} catch (RemoteException e) {
+
+			throw new UpdateDatabaseException("Failed to apply batch!", e);
+
+		} catch (OperationApplicationException e) {
+
+			throw new UpdateDatabaseException("Failed to apply batch!", e);
+		}
+	}
+
+	/**
+	 * Applies the batch to the contacts and clears it.
+	 * 
+	 * @param resolver
+	 * @param batch
+	 * @return the results of the operations.
+	 * @throws UpdateContactsException
+	 */
+	private static ContentProviderResult[] flushContactsBatch(ContentResolver resolver, ArrayList<ContentProviderOperation> batch)
+			throws UpdateContactsException {
+
+		if (batch.isEmpty())
+			return new ContentProviderResult[0];
+
+		try {
+
+			final ContentProviderResult[] results = resolver.applyBatch(ContactsContract.AUTHORITY, batch);
+			batch.clear();
+
+			return results;
+
+		} catch (RemoteException e) {
+
+			throw new UpdateContactsException("Failed to apply batch!", e);
+
+		} catch (OperationApplicationException e) {
+
+			throw new UpdateContactsException("Failed to apply batch!", e);
+		}
+	}
+
+	/**
+	 * @param random
+	 * @param values
+	 *            ordered by frequency.
+	 * @return a value, the front of the list is drawn more often.
+	 */
+	private static String pick(Random random, String[] values) {
+
+		return values[(int) (values.length * Math.pow(random.nextDouble(), FREQUENCY_BIAS))];
+	}
+
+	/**
+	 * @param random
+	 * @param id
+	 * @return a new student with the id.
+	 */
+	private static Student newStudent(Random random, long id) {
+
+		final String lastName = pick(random, LAST_NAMES);
+		final boolean child = random.nextDouble() < CHILDREN_RATIO;
+
+		final Calendar dayOfBirth = Calendar.getInstance();
+		dayOfBirth.add(Calendar.YEAR, -(child ? 6 + random.nextInt(12) : 18 + random.nextInt(50)));
+		dayOfBirth.add(Calendar.DAY_OF_YEAR, -random.nextInt(365));
+
+		return Student.restore(id,//
+				pick(random, FIRST_NAMES) + " " + lastName,//
+				dayOfBirth.getTime(),//
+				child ? pick(random, FIRST_NAMES) + " " + lastName : null,//
+				new HashMap<String, String>(),//
+				new HashMap<String, String>(),//
+				newAddress(random));
+	}
+
+	/**
+	 * @param random
+	 * @param id
+	 * @return a new course with the id.
+	 */
+	private static Course newCourse(Random random, long id) {
+
+		final String subject = pick(random, SUBJECTS);
+
+		return Course.restore(id,//
+				subject + " " + pick(random, GROUPS) + " " + id,//
+				subject + ", " + DAYS[random.nextInt(DAYS.length)] + " " + (15 + random.nextInt(6)) + ":00",//
+				newAddress(random));
+	}
+
+	/**
+	 * @param random
+	 * @return a new address.
+	 */
+	private static String newAddress(Random random) {
+
+		return pick(random, STREETS) + " " + (1 + random.nextInt(120)) + ", " + pick(random, CITIES);
+	}
+}
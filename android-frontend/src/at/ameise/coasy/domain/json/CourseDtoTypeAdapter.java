@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.json;
+
+import java.io.IOException;
+
+import at.ameise.coasy.domain.dto.CourseDto;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streams a {@link CourseDto}.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+final class CourseDtoTypeAdapter extends TypeAdapter<CourseDto> {
+
+	private static final String NAME_ID = "id";
+	private static final String NAME_TITLE = "title";
+	private static final String NAME_DESCRIPTION = "description";
+
+	@Override
+	public void write(JsonWriter out, CourseDto course) throws IOException {
+
+		if (course == null) {
+
+			out.nullValue();
+			return;
+		}
+
+		out.beginObject();
+		out.name(NAME_ID).value(course.id);
+		out.name(NAME_TITLE).value(course.title);
+		out.name(NAME_DESCRIPTION).value(course.description);
+		out.endObject();
+	}
+
+	@Override
+	public CourseDto read(JsonReader in) throws IOException {
+
+		final CourseDto course = new CourseDto();
+
+		in.beginObject();
+		while (in.hasNext()) {
+
+			final String name = in.nextName();
+
+			if (NAME_ID.equals(name))
+				course.id = in.nextLong();
+			else if (NAME_TITLE.equals(name))
+				course.title = JsonCodec.nextStringOrNull(in);
+			else if (NAME_DESCRIPTION.equals(name))
+				course.description = JsonCodec.nextStringOrNull(in);
+			else
+				in.skipValue();
+		}
+		in.endObject();
+
+		return course;
+	}
+}
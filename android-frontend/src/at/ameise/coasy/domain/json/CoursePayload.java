@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.json;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import android.util.Base64;
+import at.ameise.coasy.domain.Course;
+import at.ameise.coasy.exception.CoasyError;
+import at.ameise.coasy.util.HashUtil;
+
+/**
+ * Encodes and decodes the payload of a course, which is stored in the notes of
+ * its contact group and synced along with it. The payload is<br>
+ * <br>
+ * <code>c1:&lt;content hash&gt;:&lt;encoding&gt;:&lt;body&gt;</code><br>
+ * <br>
+ * where the content hash is 16 hex digits, the encoding is <code>j</code> for
+ * a plain json body with single letter tags or <code>z</code> for the same
+ * json deflated and Base64 encoded. The body is deflated only if this makes it
+ * shorter.<br>
+ * <br>
+ * The content hash is the one of {@link CoursePayload#getContentHash(Course)},
+ * so it can be compared against the mirrored course without decoding the
+ * body. Payloads written by earlier versions are plain json and decoded by
+ * {@link JsonCodec#COURSE}.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+public final class CoursePayload {
+
+	private static final String VERSION_1 = "c1";
+
+	private static final char SEPARATOR = ':';
+	private static final char ENCODING_JSON = 'j';
+	private static final char ENCODING_DEFLATED = 'z';
+
+	private static final int HASH_LENGTH = 16;
+	/**
+	 * Length of "c1:&lt;hash&gt;:&lt;encoding&gt;:".
+	 */
+	private static final int HEADER_LENGTH = VERSION_1.length() + 1 + HASH_LENGTH + 1 + 1 + 1;
+
+	/**
+	 * Shorter bodies do not get smaller by deflating them.
+	 */
+	private static final int MIN_DEFLATE_LENGTH = 96;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private CoursePayload() {
+	}
+
+	/**
+	 * @param course
+	 * @return the hash over the synced content of the course.
+	 */
+	public static long getContentHash(Course course) {
+		return HashUtil.getFnv1a64From(course.getTitle(), course.getDescription(), course.getAddress());
+	}
+
+	/**
+	 * @param course
+	 * @return the current version payload of the course.
+	 */
+	public static String encode(Course course) {
+
+		final String json = JsonCodec.COURSE_COMPACT.encode(course);
+
+		final StringBuilder payload = new StringBuilder(HEADER_LENGTH + json.length());
+		payload.append(VERSION_1).append(SEPARATOR);
+		appendHex(payload, getContentHash(course));
+		payload.append(SEPARATOR);
+
+		final String deflated = json.length() < MIN_DEFLATE_LENGTH ? null : deflate(json);
+
+		if (deflated != null && deflated.length() < json.length())
+			payload.append(ENCODING_DEFLATED).append(SEPARATOR).append(deflated);
+		else
+			payload.append(ENCODING_JSON).append(SEPARATOR).append(json);
+
+		return payload.toString();
+	}
+
+	/**
+	 * Decodes the payload, legacy json payloads are detected and decoded as
+	 * well.
+	 * 
+	 * @param payload
+	 * @return the course.
+	 */
+	public static Course decode(String payload) {
+
+		if (!isVersion1(payload))
+			return JsonCodec.COURSE.decode(payload);
+
+		if (payload.length() < HEADER_LENGTH || payload.charAt(HEADER_LENGTH - 3) != SEPARATOR || payload.charAt(HEADER_LENGTH - 1) != SEPARATOR)
+			throw new CoasyError("Malformed course payload " + payload + "!");
+
+		final String body = payload.substring(HEADER_LENGTH);
+
+		switch (payload.charAt(HEADER_LENGTH - 2)) {
+
+		case ENCODING_JSON:
+			return JsonCodec.COURSE_COMPACT.decode(body);
+
+		case ENCODING_DEFLATED:
+			return JsonCodec.COURSE_COMPACT.decode(inflate(body));
+
+		default:
+			throw new CoasyError("Unknown encoding of course payload " + payload + "!");
+		}
+	}
+
+	/**
+	 * Reads the content hash from the header, without decoding the body.
+	 * 
+	 * @param payload
+	 * @return the content hash or null, if the payload has no header (i.e.
+	 *         it was written by an earlier version).
+	 */
+	public static Long peekContentHash(String payload) {
+
+		if (!isVersion1(payload) || payload.length() < HEADER_LENGTH)
+			return null;
+
+		long hash = 0;
+		for (int i = VERSION_1.length() + 1; i < VERSION_1.length() + 1 + HASH_LENGTH; i++) {
+
+			final int digit = Character.digit(payload.charAt(i), 16);
+
+			if (digit < 0)
+				throw new CoasyError("Malformed content hash in course payload " + payload + "!");
+
+			hash = (hash << 4) | digit;
+		}
+
+		return hash;
+	}
+
+	private static boolean isVersion1(String payload) {
+		return payload.startsWith(VERSION_1) && payload.length() > VERSION_1.length() && payload.charAt(VERSION_1.length()) == SEPARATOR;
+	}
+
+	private static void appendHex(StringBuilder sb, long value) {
+
+		for (int shift = (HASH_LENGTH - 1) * 4; shift >= 0; shift -= 4)
+			sb.append(Character.forDigit((int) (value >>> shift) & 0xf, 16));
+	}
+
+	private static String deflate(String json) {
+
+		final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+
+			deflater.setInput(json.getBytes(UTF_8));
+			deflater.finish();
+
+			final ByteArrayOutputStream deflated = new ByteArrayOutputStream(json.length());
+			final byte[] buffer = new byte[512];
+			while (!deflater.finished())
+				deflated.write(buffer, 0, deflater.deflate(buffer));
+
+			return Base64.encodeToString(deflated.toByteArray(), Base64.NO_WRAP);
+
+		} finally {
+
+			deflater.end();
+		}
+	}
+
+	private static String inflate(String body) {
+
+		final Inflater inflater = new Inflater();
+		try {
+
+			inflater.setInput(Base64.decode(body, Base64.NO_WRAP));
+
+			final ByteArrayOutputStream inflated = new ByteArrayOutputStream(body.length() * 2);
+			final byte[] buffer = new byte[512];
+			while (!inflater.finished()) {
+
+				final int length = inflater.inflate(buffer);
+
+				if (length == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new CoasyError("Truncated course payload " + body + "!");
+
+				inflated.write(buffer, 0, length);
+			}
+
+			return new String(inflated.toByteArray(), UTF_8);
+
+		} catch (DataFormatException e) {
+
+			throw new CoasyError("Failed to inflate course payload " + body + "!", e);
+
+		} catch (IllegalArgumentException e) {
+
+			throw new CoasyError("Failed to decode course payload " + body + "!", e);
+
+		} finally {
+
+			inflater.end();
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.json;
+
+import java.io.IOException;
+
+import at.ameise.coasy.domain.dto.CourseStudentDto;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streams a {@link CourseStudentDto}.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+final class CourseStudentDtoTypeAdapter extends TypeAdapter<CourseStudentDto> {
+
+	private static final String NAME_ID = "id";
+	private static final String NAME_COURSE_ID = "courseid";
+	private static final String NAME_CONTACT_ID = "contactid";
+
+	@Override
+	public void write(JsonWriter out, CourseStudentDto mapping) throws IOException {
+
+		if (mapping == null) {
+
+			out.nullValue();
+			return;
+		}
+
+		out.beginObject();
+		out.name(NAME_ID).value(mapping.id);
+		out.name(NAME_COURSE_ID).value(mapping.courseid);
+		out.name(NAME_CONTACT_ID).value(mapping.contactid);
+		out.endObject();
+	}
+
+	@Override
+	public CourseStudentDto read(JsonReader in) throws IOException {
+
+		final CourseStudentDto mapping = new CourseStudentDto();
+
+		in.beginObject();
+		while (in.hasNext()) {
+
+			final String name = in.nextName();
+
+			if (NAME_ID.equals(name))
+				mapping.id = in.nextLong();
+			else if (NAME_COURSE_ID.equals(name))
+				mapping.courseid = in.nextLong();
+			else if (NAME_CONTACT_ID.equals(name))
+				mapping.contactid = in.nextLong();
+			else
+				in.skipValue();
+		}
+		in.endObject();
+
+		return mapping;
+	}
+}
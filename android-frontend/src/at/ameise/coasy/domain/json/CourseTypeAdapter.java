@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.json;
+
+import java.io.IOException;
+
+import at.ameise.coasy.domain.Course;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streams a {@link Course}. By default the field names are the ones gson used
+ * to derive by reflection, so the payloads of earlier versions can still be
+ * read. {@link CourseTypeAdapter#compact()} uses single letter tags instead.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+final class CourseTypeAdapter extends TypeAdapter<Course> {
+
+	private final String mNameId;
+	private final String mNameTitle;
+	private final String mNameDescription;
+	private final String mNameAddress;
+
+	CourseTypeAdapter() {
+		this("id", "title", "description", "address");
+	}
+
+	private CourseTypeAdapter(String nameId, String nameTitle, String nameDescription, String nameAddress) {
+
+		mNameId = nameId;
+		mNameTitle = nameTitle;
+		mNameDescription = nameDescription;
+		mNameAddress = nameAddress;
+	}
+
+	/**
+	 * @return an adapter which uses single letter tags as field names.
+	 */
+	static CourseTypeAdapter compact() {
+		return new CourseTypeAdapter("i", "t", "d", "a");
+	}
+
+	@Override
+	public void write(JsonWriter out, Course course) throws IOException {
+
+		if (course == null) {
+
+			out.nullValue();
+			return;
+		}
+
+		out.beginObject();
+		out.name(mNameId).value(course.getId());
+		out.name(mNameTitle).value(course.getTitle());
+		out.name(mNameDescription).value(course.getDescription());
+		out.name(mNameAddress).value(course.getAddress());
+		out.endObject();
+	}
+
+	@Override
+	public Course read(JsonReader in) throws IOException {
+
+		long id = -1;
+		String title = null;
+		String description = null;
+		String address = null;
+
+		in.beginObject();
+		while (in.hasNext()) {
+
+			final String name = in.nextName();
+
+			if (mNameId.equals(name))
+				id = in.nextLong();
+			else if (mNameTitle.equals(name))
+				title = JsonCodec.nextStringOrNull(in);
+			else if (mNameDescription.equals(name))
+				description = JsonCodec.nextStringOrNull(in);
+			else if (mNameAddress.equals(name))
+				address = JsonCodec.nextStringOrNull(in);
+			else
+				in.skipValue();
+		}
+		in.endObject();
+
+		return Course.restore(id, title, description, address);
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.json;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import at.ameise.coasy.domain.Course;
+import at.ameise.coasy.domain.dto.CourseDto;
+import at.ameise.coasy.domain.dto.CourseStudentDto;
+import at.ameise.coasy.domain.dto.StudentDto;
+import at.ameise.coasy.exception.CoasyError;
+import at.ameise.coasy.util.SettingsUtil.CoasySettings;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Encodes and decodes objects to and from json. The objects are streamed
+ * through hand written {@link TypeAdapter}s, there is no reflection and no
+ * intermediate tree.<br>
+ * <br>
+ * The shared instances are stateless and thread safe.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ * @param <T>
+ *            the type of the encoded objects.
+ */
+public final class JsonCodec<T> {
+
+	public static final JsonCodec<Course> COURSE = new JsonCodec<Course>(new CourseTypeAdapter());
+	public static final JsonCodec<CoasySettings> SETTINGS = new JsonCodec<CoasySettings>(new CoasySettingsTypeAdapter());
+	public static final JsonCodec<CourseDto> COURSE_DTO = new JsonCodec<CourseDto>(new CourseDtoTypeAdapter());
+	public static final JsonCodec<StudentDto> STUDENT_DTO = new JsonCodec<StudentDto>(new StudentDtoTypeAdapter());
+	public static final JsonCodec<CourseStudentDto> COURSE_STUDENT_DTO = new JsonCodec<CourseStudentDto>(new CourseStudentDtoTypeAdapter());
+
+	/**
+	 * Used by {@link CoursePayload}, the tags are meaningless on their own.
+	 */
+	static final JsonCodec<Course> COURSE_COMPACT = new JsonCodec<Course>(CourseTypeAdapter.compact());
+
+	private final TypeAdapter<T> mAdapter;
+
+	private JsonCodec(TypeAdapter<T> adapter) {
+		mAdapter = adapter;
+	}
+
+	/**
+	 * @param value
+	 * @return the json of the value.
+	 */
+	public String encode(T value) {
+
+		final StringWriter json = new StringWriter();
+
+		try {
+
+			final JsonWriter writer = new JsonWriter(json);
+			// skip null fields, like gson does by default
+			writer.setSerializeNulls(false);
+			mAdapter.write(writer, value);
+			writer.close();
+
+		} catch (IOException e) {
+
+			throw new CoasyError("Failed to encode " + value + "!", e);
+		}
+
+		return json.toString();
+	}
+
+	/**
+	 * Decodes the json. Payloads written by earlier versions, which were
+	 * wrapped in sql string quotes, are decoded as well.
+	 * 
+	 * @param json
+	 * @return the decoded object.
+	 */
+	public T decode(String json) {
+
+		try {
+
+			final JsonReader reader = new JsonReader(new StringReader(unquoteLegacy(json)));
+			final T value = mAdapter.read(reader);
+			reader.close();
+
+			return value;
+
+		} catch (IOException e) {
+
+			throw new CoasyError("Failed to decode " + json + "!", e);
+
+		} catch (IllegalStateException e) {
+
+			throw new CoasyError("Failed to decode " + json + "!", e);
+
+		} catch (IllegalArgumentException e) {
+
+			throw new CoasyError("Failed to decode " + json + "!", e);
+		}
+	}
+
+	/**
+	 * Earlier versions stored the json as sql string literal, i.e. wrapped in
+	 * single quotes with every single quote doubled.
+	 * 
+	 * @param json
+	 * @return the json without the quoting.
+	 */
+	static String unquoteLegacy(String json) {
+
+		final int length = json.length();
+
+		if (length < 2 || json.charAt(0) != '\'' || json.charAt(length - 1) != '\'')
+			return json;
+
+		final String quoted = json.substring(1, length - 1);
+
+		if (quoted.indexOf('\'') < 0)
+			return quoted;
+
+		final StringBuilder unquoted = new StringBuilder(quoted.length());
+		for (int i = 0; i < quoted.length(); i++) {
+
+			final char c = quoted.charAt(i);
+			unquoted.append(c);
+
+			if (c == '\'' && i + 1 < quoted.length() && quoted.charAt(i + 1) == '\'')
+				i++;
+		}
+
+		return unquoted.toString();
+	}
+
+	/**
+	 * @param reader
+	 * @return the next string or null, if the next value is null.
+	 * @throws IOException
+	 */
+	static String nextStringOrNull(JsonReader reader) throws IOException {
+
+		if (reader.peek() == JsonToken.NULL) {
+
+			reader.nextNull();
+			return null;
+		}
+
+		return reader.nextString();
+	}
+}
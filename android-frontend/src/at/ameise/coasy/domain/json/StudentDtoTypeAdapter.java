@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.json;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import at.ameise.coasy.domain.dto.StudentDto;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streams a {@link StudentDto}. The birthdate is written as milliseconds since
+ * the epoch, the phone numbers and emails as objects.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+final class StudentDtoTypeAdapter extends TypeAdapter<StudentDto> {
+
+	private static final String NAME_ID = "id";
+	private static final String NAME_BIRTHDATE = "birthdate";
+	private static final String NAME_CONTACT_NAME = "contactName";
+	private static final String NAME_PHONE = "phone";
+	private static final String NAME_EMAIL = "email";
+	private static final String NAME_ADDRESS = "address";
+	private static final String NAME_GRADE = "grade";
+
+	@Override
+	public void write(JsonWriter out, StudentDto student) throws IOException {
+
+		if (student == null) {
+
+			out.nullValue();
+			return;
+		}
+
+		out.beginObject();
+		out.name(NAME_ID).value(student.id);
+		if (student.birthdate != null)
+			out.name(NAME_BIRTHDATE).value(student.birthdate.getTime());
+		out.name(NAME_CONTACT_NAME).value(student.contactName);
+		writeMap(out, NAME_PHONE, student.phone);
+		writeMap(out, NAME_EMAIL, student.email);
+		out.name(NAME_ADDRESS).value(student.address);
+		out.name(NAME_GRADE).value(student.grade);
+		out.endObject();
+	}
+
+	@Override
+	public StudentDto read(JsonReader in) throws IOException {
+
+		final StudentDto student = new StudentDto();
+
+		in.beginObject();
+		while (in.hasNext()) {
+
+			final String name = in.nextName();
+
+			if (NAME_ID.equals(name))
+				student.id = in.nextLong();
+			else if (NAME_BIRTHDATE.equals(name))
+				student.birthdate = new Date(in.nextLong());
+			else if (NAME_CONTACT_NAME.equals(name))
+				student.contactName = JsonCodec.nextStringOrNull(in);
+			else if (NAME_PHONE.equals(name))
+				student.phone = readMap(in);
+			else if (NAME_EMAIL.equals(name))
+				student.email = readMap(in);
+			else if (NAME_ADDRESS.equals(name))
+				student.address = JsonCodec.nextStringOrNull(in);
+			else if (NAME_GRADE.equals(name))
+				student.grade = JsonCodec.nextStringOrNull(in);
+			else
+				in.skipValue();
+		}
+		in.endObject();
+
+		return student;
+	}
+
+	/**
+	 * Writes the map as object, if it is not null.
+	 * 
+	 * @param out
+	 * @param name
+	 * @param map
+	 * @throws IOException
+	 */
+	private static void writeMap(JsonWriter out, String name, HashMap<String, String> map) throws IOException {
+
+		if (map == null)
+			return;
+
+		out.name(name).beginObject();
+		for (Map.Entry<String, String> entry : map.entrySet())
+			out.name(entry.getKey()).value(entry.getValue());
+		out.endObject();
+	}
+
+	/**
+	 * @param in
+	 * @return the object as map or null.
+	 * @throws IOException
+	 */
+	private static HashMap<String, String> readMap(JsonReader in) throws IOException {
+
+		if (in.peek() == JsonToken.NULL) {
+
+			in.nextNull();
+			return null;
+		}
+
+		final HashMap<String, String> map = new HashMap<String, String>();
+
+		in.beginObject();
+		while (in.hasNext())
+			map.put(in.nextName(), JsonCodec.nextStringOrNull(in));
+		in.endObject();
+
+		return map;
+	}
+}
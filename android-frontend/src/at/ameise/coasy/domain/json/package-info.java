@@ -0,0 +1,7 @@
+/**
+ * Contains the json codecs of the payloads coasy stores in the contacts.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ *
+ */
+package at.ameise.coasy.domain.json;
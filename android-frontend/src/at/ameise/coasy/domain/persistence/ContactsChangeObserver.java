@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.persistence;
+
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.provider.ContactsContract;
+import at.ameise.coasy.util.Logger;
+
+/**
+ * Observes the contact groups and the contacts data. A burst of changes, like
+ * during a google contacts sync, is coalesced into a single refresh which is
+ * requested after no change has been reported for
+ * {@link ContactsChangeObserver#QUIET_PERIOD_MILLIS}.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+final class ContactsChangeObserver extends ContentObserver {
+
+	private static final String TAG = "ContactsObserver";
+
+	/**
+	 * Time without changes after which the refresh is requested.
+	 */
+	static final long QUIET_PERIOD_MILLIS = 3000;
+
+	/**
+	 * The observed uris.
+	 */
+	static final Uri[] OBSERVED_URIS = { ContactsContract.Groups.CONTENT_URI, ContactsContract.Data.CONTENT_URI, };
+
+	private final Handler mHandler;
+	private final Runnable mRefreshRunnable;
+
+	/**
+	 * @param handler
+	 *            the handler the changes are reported and the refresh is
+	 *            requested on.
+	 * @param refreshRunnable
+	 *            requests the refresh.
+	 */
+	ContactsChangeObserver(Handler handler, Runnable refreshRunnable) {
+		super(handler);
+		mHandler = handler;
+		mRefreshRunnable = refreshRunnable;
+	}
+
+	@Override
+	public void onChange(boolean selfChange) {
+
+		Logger.verbose(TAG, "Contacts changed, postponing refresh.");
+
+		mHandler.removeCallbacks(mRefreshRunnable);
+		mHandler.postDelayed(mRefreshRunnable, QUIET_PERIOD_MILLIS);
+	}
+
+	/**
+	 * Cancels a postponed refresh.
+	 */
+	void cancel() {
+
+		mHandler.removeCallbacks(mRefreshRunnable);
+	}
+}
@@ -30,31 +30,41 @@
  */
 package at.ameise.coasy.domain.persistence;
 
+import java.util.ArrayList;
+
+import org.apache.commons.lang3.ArrayUtils;
+
+import android.accounts.Account;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.CursorLoader;
 import android.content.Loader;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
-import android.database.DatabaseUtils;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.provider.ContactsContract;
+import android.support.v4.util.LongSparseArray;
 import at.ameise.coasy.ICoasySettings;
 import at.ameise.coasy.domain.Course;
 import at.ameise.coasy.domain.Student;
+import at.ameise.coasy.domain.json.CoursePayload;
 import at.ameise.coasy.domain.persistence.database.CoasyDatabaseHelper;
 import at.ameise.coasy.domain.persistence.database.PerformanceDatabaseContentProvider;
 import at.ameise.coasy.domain.persistence.database.StudentTable;
+import at.ameise.coasy.domain.persistence.database.VersionedCursorLoader;
 import at.ameise.coasy.exception.ContactsError;
 import at.ameise.coasy.exception.CreateContactsException;
 import at.ameise.coasy.exception.UpdateContactsException;
-import at.ameise.coasy.util.Logger;
-import at.ameise.coasy.util.ReflectionUtil;
+import at.ameise.coasy.util.RowIterator;
+import at.ameise.coasy.util.RowMapper;
 import at.ameise.coasy.util.SettingsUtil;
 
 /**
- * Contains helper methods for contacts.
- * 
- * TODO maybe we want a static gson instance for this class.
+ * Contains helper methods for contacts. The json payloads of the groups are
+ * encoded and decoded by {@link CoursePayload} and the shared
+ * {@link at.ameise.coasy.domain.json.JsonCodec} instances.
  * 
  * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
  * 
@@ -79,34 +89,390 @@ public final class ContactsContractHelper {
 	}
 
 	/**
+	 * The maximum number of ids in a single IN (...) clause, sqlite allows at
+	 * most 999 arguments per statement.
+	 */
+	private static final int MAX_IDS_PER_QUERY = 500;
+
+	/**
+	 * Loads the group memberships of all specified groups with as few queries
+	 * as possible.
+	 * 
+	 * @param context
+	 * @param groupRowIds
+	 * @return the row ids of the groups (only the specified ones) every member
+	 *         is in, mapped by contact id.
+	 */
+	static LongSparseArray<long[]> getGroupMembershipsOfGroups(Context context, long[] groupRowIds) {
+
+		return getGroupMemberships(context, ContactsContract.CommonDataKinds.GroupMembership.GROUP_ROW_ID, groupRowIds);
+	}
+
+	/**
+	 * Loads the group memberships of all specified contacts with as few
+	 * queries as possible.
+	 * 
+	 * @param context
+	 * @param contactIds
+	 * @return the row ids of all groups the contacts are in, mapped by contact
+	 *         id. Contacts which are in no group are not contained.
+	 */
+	static LongSparseArray<long[]> getGroupMembershipsOfContacts(Context context, long[] contactIds) {
+
+		return getGroupMemberships(context, ContactsContract.CommonDataKinds.GroupMembership.CONTACT_ID, contactIds);
+	}
+
+	/**
+	 * @param context
+	 * @param column
+	 *            the column the ids are matched against.
+	 * @param ids
+	 * @return the row ids of the groups, mapped by contact id.
+	 */
+	private static LongSparseArray<long[]> getGroupMemberships(Context context, String column, long[] ids) {
+
+		final LongSparseArray<long[]> memberships = new LongSparseArray<long[]>();
+
+		for (int offset = 0; offset < ids.length; offset += MAX_IDS_PER_QUERY) {
+
+			final String[] selectionArgs = toSelectionArgs(ids, offset, ContactsContract.CommonDataKinds.GroupMembership.CONTENT_ITEM_TYPE);
+
+			final Cursor membershipCursor = context.getContentResolver().query(//
+					ContactsContract.Data.CONTENT_URI,//
+					new String[] { //
+							ContactsContract.CommonDataKinds.GroupMembership.GROUP_ROW_ID,//
+							ContactsContract.CommonDataKinds.GroupMembership.CONTACT_ID },//
+					ContactsContract.CommonDataKinds.GroupMembership.MIMETYPE + " = ? AND "//
+							+ column + " IN (" + CoasyDatabaseHelper.makePlaceholders(selectionArgs.length - 1) + ")",//
+					selectionArgs,//
+					null);
+
+			if (membershipCursor.moveToFirst()) {
+
+				final int groupRowIdIndex = membershipCursor.getColumnIndexOrThrow(ContactsContract.CommonDataKinds.GroupMembership.GROUP_ROW_ID);
+				final int contactIdIndex = membershipCursor.getColumnIndexOrThrow(ContactsContract.CommonDataKinds.GroupMembership.CONTACT_ID);
+
+				do {
+
+					final long contactId = membershipCursor.getLong(contactIdIndex);
+					final long[] groupRowIds = memberships.get(contactId);
+
+					memberships.put(contactId, groupRowIds == null ? new long[] { membershipCursor.getLong(groupRowIdIndex), } : ArrayUtils.add(groupRowIds,
+							membershipCursor.getLong(groupRowIdIndex)));
+
+				} while (membershipCursor.moveToNext());
+			}
+
+			membershipCursor.close();
+		}
+
+		return memberships;
+	}
+
+	/**
+	 * Loads the students of all specified contacts with as few queries as
+	 * possible.
+	 * 
+	 * @param context
+	 * @param contactIds
+	 * @return the students mapped by their contact id. Contacts which do not
+	 *         exist are not contained.
+	 */
+	static LongSparseArray<Student> getContactsAsStudents(Context context, long[] contactIds) {
+
+		final LongSparseArray<Student> students = new LongSparseArray<Student>(contactIds.length);
+		final RowMapper<Student> mapper = StudentTable.newContactsRowMapper();
+
+		for (int offset = 0; offset < contactIds.length; offset += MAX_IDS_PER_QUERY) {
+
+			final String[] selectionArgs = toSelectionArgs(contactIds, offset);
+
+			final Cursor contactCursor = context.getContentResolver().query(ContactsContract.Contacts.CONTENT_URI,//
+					new String[] { ContactsContract.Contacts._ID, ContactsContract.Contacts.DISPLAY_NAME_PRIMARY, },//
+					ContactsContract.Contacts._ID + " IN (" + CoasyDatabaseHelper.makePlaceholders(selectionArgs.length) + ")",//
+					selectionArgs,//
+					null);
+
+			new RowIterator<Student>(contactCursor, mapper) {
+
+				@Override
+				protected void nextRow(int index, Student student) {
+
+					students.put(student.getId(), student);
+				}
+
+			}.iterate();
+		}
+
+		return students;
+	}
+
+	/**
+	 * Resolves the raw contacts of all specified contacts with as few queries
+	 * as possible. If a contact consists of several raw contacts, the one of
+	 * the selected google account with the lowest id is used. If there is none
+	 * in this account, the one with the lowest id is used.<br>
+	 * <br>
+	 * The results are cached by the {@link RawContactIdCache}.
+	 * 
 	 * @param context
-	 * @param groupId
-	 * @return a cursor on the ids of all contacts of the specified group.
+	 * @param contactIds
+	 * @return a raw contact id of every contact, mapped by contact id.
+	 *         Contacts which do not exist are not contained.
 	 */
-	static Cursor getContactIdsOfGroupCursor(Context context, long groupId) {
-
-		Cursor contactIdsOfGroupCursor = context.getContentResolver().query(//
-				ContactsContract.Data.CONTENT_URI,//
-				new String[] { //
-						ContactsContract.CommonDataKinds.GroupMembership.GROUP_ROW_ID,//
-						ContactsContract.CommonDataKinds.GroupMembership.RAW_CONTACT_ID },//
-				ContactsContract.CommonDataKinds.GroupMembership.GROUP_ROW_ID + " = ?", //
-				new String[] { String.valueOf(groupId), }, null);
-		
-		Logger.debug(TAG, DatabaseUtils.dumpCursorToString(contactIdsOfGroupCursor));
-		
-		return contactIdsOfGroupCursor;
+	static LongSparseArray<Long> getRawContactIds(Context context, long[] contactIds) {
+
+		final LongSparseArray<Long> rawContactIds = new LongSparseArray<Long>(contactIds.length);
+		// contacts which are resolved to a raw contact of the selected account
+		final LongSparseArray<Boolean> inSelectedAccount = new LongSparseArray<Boolean>(contactIds.length);
+		final Account selectedAccount = SettingsUtil.getSelectedGoogleAccount(context);
+
+		for (int offset = 0; offset < contactIds.length; offset += MAX_IDS_PER_QUERY) {
+
+			final String[] selectionArgs = toSelectionArgs(contactIds, offset, CoasyDatabaseHelper.SQLITE_VALUE_FALSE);
+
+			final Cursor rawContactCursor = context.getContentResolver().query(ContactsContract.RawContacts.CONTENT_URI,//
+					new String[] { ContactsContract.RawContacts._ID, ContactsContract.RawContacts.CONTACT_ID, ContactsContract.RawContacts.ACCOUNT_NAME,
+							ContactsContract.RawContacts.ACCOUNT_TYPE, },//
+					ContactsContract.RawContacts.DELETED + " = ? AND "//
+							+ ContactsContract.RawContacts.CONTACT_ID + " IN (" + CoasyDatabaseHelper.makePlaceholders(selectionArgs.length - 1) + ")",//
+					selectionArgs,//
+					ContactsContract.RawContacts._ID + " asc");
+
+			if (rawContactCursor.moveToFirst()) {
+
+				final int idIndex = rawContactCursor.getColumnIndexOrThrow(ContactsContract.RawContacts._ID);
+				final int contactIdIndex = rawContactCursor.getColumnIndexOrThrow(ContactsContract.RawContacts.CONTACT_ID);
+				final int accountNameIndex = rawContactCursor.getColumnIndexOrThrow(ContactsContract.RawContacts.ACCOUNT_NAME);
+				final int accountTypeIndex = rawContactCursor.getColumnIndexOrThrow(ContactsContract.RawContacts.ACCOUNT_TYPE);
+
+				do {
+
+					final long contactId = rawContactCursor.getLong(contactIdIndex);
+
+					if (inSelectedAccount.get(contactId) != null)
+						continue;
+
+					// ascending order, the first one of a contact wins
+					if (selectedAccount != null && selectedAccount.name.equals(rawContactCursor.getString(accountNameIndex))
+							&& selectedAccount.type.equals(rawContactCursor.getString(accountTypeIndex))) {
+
+						rawContactIds.put(contactId, rawContactCursor.getLong(idIndex));
+						inSelectedAccount.put(contactId, Boolean.TRUE);
+
+					} else if (rawContactIds.get(contactId) == null) {
+
+						rawContactIds.put(contactId, rawContactCursor.getLong(idIndex));
+					}
+
+				} while (rawContactCursor.moveToNext());
+			}
+
+			rawContactCursor.close();
+		}
+
+		return rawContactIds;
+	}
+
+	/**
+	 * Loads the contacts of all specified raw contacts with as few queries as
+	 * possible.
+	 * 
+	 * @param context
+	 * @param rawContactIds
+	 * @return the contact id of every raw contact, mapped by raw contact id.
+	 *         Raw contacts which do not exist or are deleted are not
+	 *         contained.
+	 */
+	static LongSparseArray<Long> getContactIdsOfRawContacts(Context context, long[] rawContactIds) {
+
+		final LongSparseArray<Long> contactIds = new LongSparseArray<Long>(rawContactIds.length);
+
+		for (int offset = 0; offset < rawContactIds.length; offset += MAX_IDS_PER_QUERY) {
+
+			final String[] selectionArgs = toSelectionArgs(rawContactIds, offset, CoasyDatabaseHelper.SQLITE_VALUE_FALSE);
+
+			final Cursor rawContactCursor = context.getContentResolver().query(ContactsContract.RawContacts.CONTENT_URI,//
+					new String[] { ContactsContract.RawContacts._ID, ContactsContract.RawContacts.CONTACT_ID, },//
+					ContactsContract.RawContacts.DELETED + " = ? AND "//
+							+ ContactsContract.RawContacts._ID + " IN (" + CoasyDatabaseHelper.makePlaceholders(selectionArgs.length - 1) + ")",//
+					selectionArgs,//
+					null);
+
+			if (rawContactCursor.moveToFirst()) {
+
+				final int idIndex = rawContactCursor.getColumnIndexOrThrow(ContactsContract.RawContacts._ID);
+				final int contactIdIndex = rawContactCursor.getColumnIndexOrThrow(ContactsContract.RawContacts.CONTACT_ID);
+
+				do {
+
+					contactIds.put(rawContactCursor.getLong(idIndex), rawContactCursor.getLong(contactIdIndex));
+
+				} while (rawContactCursor.moveToNext());
+			}
+
+			rawContactCursor.close();
+		}
+
+		return contactIds;
+	}
+
+	/**
+	 * Adds the insertion of a group membership for every raw contact to the
+	 * batch.
+	 * 
+	 * @param batch
+	 * @param rawContactIds
+	 *            the raw contact ids, mapped by contact id.
+	 * @param groupRowId
+	 */
+	static void addContactsToGroup(ArrayList<ContentProviderOperation> batch, LongSparseArray<Long> rawContactIds, long groupRowId) {
+
+		for (int i = 0; i < rawContactIds.size(); i++)
+			batch.add(ContentProviderOperation.newInsert(ContactsContract.Data.CONTENT_URI)//
+					.withValue(ContactsContract.CommonDataKinds.GroupMembership.RAW_CONTACT_ID, rawContactIds.valueAt(i))//
+					.withValue(ContactsContract.CommonDataKinds.GroupMembership.GROUP_ROW_ID, groupRowId)//
+					.withValue(ContactsContract.CommonDataKinds.GroupMembership.MIMETYPE, ContactsContract.CommonDataKinds.GroupMembership.CONTENT_ITEM_TYPE)//
+					.build());
+	}
+
+	/**
+	 * Adds the removal of the group memberships of the contacts to the batch.
+	 * The memberships of all raw contacts of a contact are removed, so the raw
+	 * contacts do not need to be resolved.
+	 * 
+	 * @param batch
+	 * @param contactIds
+	 * @param groupRowId
+	 */
+	static void removeContactsFromGroup(ArrayList<ContentProviderOperation> batch, long[] contactIds, long groupRowId) {
+
+		for (int offset = 0; offset < contactIds.length; offset += MAX_IDS_PER_QUERY) {
+
+			final String[] selectionArgs = toSelectionArgs(contactIds, offset, String.valueOf(groupRowId),
+					ContactsContract.CommonDataKinds.GroupMembership.CONTENT_ITEM_TYPE);
+
+			batch.add(ContentProviderOperation.newDelete(ContactsContract.Data.CONTENT_URI)//
+					.withSelection(ContactsContract.CommonDataKinds.GroupMembership.GROUP_ROW_ID + " = ? AND "//
+							+ ContactsContract.CommonDataKinds.GroupMembership.MIMETYPE + " = ? AND "//
+							+ ContactsContract.CommonDataKinds.GroupMembership.CONTACT_ID + " IN ("
+							+ CoasyDatabaseHelper.makePlaceholders(selectionArgs.length - 2) + ")",//
+							selectionArgs)//
+					.build());
+		}
+	}
+
+	/**
+	 * Applies all operations of the batch to the contacts provider.
+	 * 
+	 * @param context
+	 * @param batch
+	 * @return the results of the operations.
+	 * @throws UpdateContactsException
+	 *             if any of the operations failed.
+	 */
+	static ContentProviderResult[] applyBatch(Context context, ArrayList<ContentProviderOperation> batch) throws UpdateContactsException {
+
+		try {
+
+			return context.getContentResolver().applyBatch(ContactsContract.AUTHORITY, batch);
+
+		} catch (RemoteException e) {
+
+			throw new UpdateContactsException("Failed to apply batch!", e);
+
+		} catch (OperationApplicationException e) {
+
+			throw new UpdateContactsException("Failed to apply batch!", e);
+		}
+	}
+
+	/**
+	 * @param ids
+	 * @param offset
+	 * @param leadingArgs
+	 *            arguments which are put in front of the ids.
+	 * @return the leading arguments followed by at most
+	 *         {@link #MAX_IDS_PER_QUERY} ids starting at offset.
+	 */
+	private static String[] toSelectionArgs(long[] ids, int offset, String... leadingArgs) {
+
+		final int count = Math.min(MAX_IDS_PER_QUERY, ids.length - offset);
+		final String[] selectionArgs = new String[leadingArgs.length + count];
+
+		System.arraycopy(leadingArgs, 0, selectionArgs, 0, leadingArgs.length);
+		for (int i = 0; i < count; i++)
+			selectionArgs[leadingArgs.length + i] = String.valueOf(ids[offset + i]);
+
+		return selectionArgs;
+	}
+
+	/**
+	 * Calculates a version for every contact of the selected google account.
+	 * The version of a contact is derived from the
+	 * {@link ContactsContract.RawContacts#VERSION}s of its raw contacts, so it
+	 * changes whenever one of them is modified, added or removed.
+	 * 
+	 * @param context
+	 * @return the versions of all contacts, mapped by contact id, or null if
+	 *         no account is selected.
+	 */
+	static LongSparseArray<Long> getContactVersions(Context context) {
+
+		final Account selectedAccount = SettingsUtil.getSelectedGoogleAccount(context);
+		if (selectedAccount == null)
+			return null;
+
+		final Cursor rawContactCursor = context.getContentResolver().query(ContactsContract.RawContacts.CONTENT_URI,//
+				new String[] { ContactsContract.RawContacts._ID, ContactsContract.RawContacts.CONTACT_ID, ContactsContract.RawContacts.VERSION, },//
+				ContactsContract.RawContacts.DELETED + " = ? AND "//
+						+ ContactsContract.RawContacts.ACCOUNT_NAME + " = ? AND "//
+						+ ContactsContract.RawContacts.ACCOUNT_TYPE + " = ?",//
+				new String[] {//
+						CoasyDatabaseHelper.SQLITE_VALUE_FALSE,//
+						selectedAccount.name,//
+						SettingsUtil.ACCOUNT_TYPE_GOOGLE,//
+				},//
+				null);
+
+		final LongSparseArray<Long> versions = new LongSparseArray<Long>(rawContactCursor.getCount());
+
+		if (rawContactCursor.moveToFirst()) {
+
+			final int idIndex = rawContactCursor.getColumnIndexOrThrow(ContactsContract.RawContacts._ID);
+			final int contactIdIndex = rawContactCursor.getColumnIndexOrThrow(ContactsContract.RawContacts.CONTACT_ID);
+			final int versionIndex = rawContactCursor.getColumnIndexOrThrow(ContactsContract.RawContacts.VERSION);
+
+			do {
+
+				final long contactId = rawContactCursor.getLong(contactIdIndex);
+				/*
+				 * The sum is independent of the order of the raw contacts and
+				 * mixing in the raw contact id makes sure that removing one
+				 * raw contact while another one changes is noticed as well.
+				 */
+				final long rawVersion = (rawContactCursor.getLong(idIndex) * 0x9E3779B97F4A7C15L) ^ rawContactCursor.getLong(versionIndex);
+				final Long version = versions.get(contactId);
+
+				versions.put(contactId, version == null ? rawVersion : version + rawVersion);
+
+			} while (rawContactCursor.moveToNext());
+		}
+
+		rawContactCursor.close();
+
+		return versions;
 	}
 
 	/**
 	 * @param context
 	 * @param id
 	 *            the id of the {@link Course} to load.
-	 * @return a {@link CursorLoader} on a single {@link Course}.
+	 * @return a {@link VersionedCursorLoader} on a single {@link Course}.
 	 */
 	static Loader<Cursor> getCourseCursorLoader(Context context, long id) {
 
-		return new CursorLoader(context, Uri.withAppendedPath(PerformanceDatabaseContentProvider.CONTENT_URI_COURSE, String.valueOf(id)), null, null, null,
+		return new VersionedCursorLoader(context, Uri.withAppendedPath(PerformanceDatabaseContentProvider.CONTENT_URI_COURSE, String.valueOf(id)), null, null, null,
 				null);
 	}
 
@@ -145,23 +511,11 @@ public final class ContactsContractHelper {
 		 */
 		try {
 
-			ReflectionUtil.setFieldValue(course, "id", Long.valueOf(id));
+			course.assignId(Long.parseLong(id));
 
 		} catch (NumberFormatException e) {
 
 			throw new CreateContactsException("Failed to set the value of the id field!", e);
-
-		} catch (NoSuchFieldException e) {
-
-			throw new ContactsError("Failed to set the value of the id field!", e);
-
-		} catch (IllegalAccessException e) {
-
-			throw new ContactsError("Failed to set the value of the id field!", e);
-
-		} catch (IllegalArgumentException e) {
-
-			throw new ContactsError("Failed to set the value of the id field!", e);
 		}
 
 		/*
@@ -170,7 +524,7 @@ public final class ContactsContractHelper {
 		 */
 		final ContentValues newValues = new ContentValues();
 		newValues.put(ContactsContract.Groups.TITLE, CONTACTS_GROUP_TITLE_PREFIX + id);
-		newValues.put(ContactsContract.Groups.NOTES, CoasyDatabaseHelper.toEscapedJson(course));
+		newValues.put(ContactsContract.Groups.NOTES, CoursePayload.encode(course));
 
 		int updated = context.getContentResolver().update(ContactsContract.Groups.CONTENT_URI, newValues, ContactsContract.Groups._ID + " = ?",
 				new String[] { id, });
@@ -181,58 +535,6 @@ public final class ContactsContractHelper {
 		}
 	}
 
-	/**
-	 * Adds the contact to the group.
-	 * 
-	 * @param context
-	 * @param contactId
-	 * @param groupRowId
-	 */
-	static void addContactToGroup(Context context, long contactId, long groupRowId) {
-
-		ContentValues values = new ContentValues();
-		values.put(ContactsContract.CommonDataKinds.GroupMembership.RAW_CONTACT_ID, ContactsContractHelper.getRawContactId(context, contactId));
-		values.put(ContactsContract.CommonDataKinds.GroupMembership.GROUP_ROW_ID, groupRowId);
-		values.put(ContactsContract.CommonDataKinds.GroupMembership.MIMETYPE, ContactsContract.CommonDataKinds.GroupMembership.CONTENT_ITEM_TYPE);
-
-		final Uri returnUri = context.getContentResolver().insert(ContactsContract.Data.CONTENT_URI, values);
-		final long rowId = Long.valueOf(returnUri.getLastPathSegment());
-
-		if (rowId < 0)
-			throw new ContactsError("Failed to insert the contact-group mapping in ContactsContract.CommonDataKinds.GroupMembership!");
-	}
-
-	/**
-	 * Removes the contact from the group
-	 * 
-	 * @param context
-	 * @param contactId
-	 * @param groupId
-	 */
-	static void removeContactFromGroup(Context context, long contactId, long groupId) {
-
-		long rawContactId = ContactsContractHelper.getRawContactId(context, contactId);
-
-		// didn't work either
-		Cursor c = context.getContentResolver().query(ContactsContract.Data.CONTENT_URI,
-				null,//
-				ContactsContract.CommonDataKinds.GroupMembership.RAW_CONTACT_ID
-						+ " = ? AND "//
-						+ ContactsContract.CommonDataKinds.GroupMembership.GROUP_ROW_ID + " = ? AND "
-						+ ContactsContract.CommonDataKinds.GroupMembership.MIMETYPE + " = ?",//
-				new String[] { String.valueOf(groupId), String.valueOf(rawContactId), ContactsContract.CommonDataKinds.GroupMembership.CONTENT_ITEM_TYPE },//
-				null);
-		Logger.debug(TAG, "GroupMembership " + DatabaseUtils.dumpCursorToString(c));
-
-		int deletedRows = context.getContentResolver().delete(ContactsContract.Data.CONTENT_URI,//
-				ContactsContract.CommonDataKinds.GroupMembership.RAW_CONTACT_ID + " = ? AND " + //
-						ContactsContract.CommonDataKinds.GroupMembership.GROUP_ROW_ID + " = ?",//
-				new String[] { String.valueOf(rawContactId), String.valueOf(groupId), });
-
-		if (deletedRows != 1)
-			throw new ContactsError("Failed to delete the contact-group mapping in ContactsContract.CommonDataKinds.GroupMembership!");
-	}
-
 	/**
 	 * @param context
 	 * @param contactId
@@ -261,61 +563,22 @@ public final class ContactsContractHelper {
 	}
 
 	/**
-	 * TODO this may cause trouble when more raw contacts exist and the order
-	 * changes...
+	 * Adds updating the course in its contacts group to the batch. The
+	 * {@link CoursePayload} of the course is saved in the
+	 * {@link ContactsContract.GroupsColumns#NOTES}. If the group does not
+	 * exist anymore, nothing is updated.
 	 * 
-	 * @param context
-	 * @param contactId
-	 * @return an arbitrary raw_contact_id of the contact with contactId.
-	 */
-	static long getRawContactId(Context context, long contactId) {
-
-		Cursor rawContactCursor = context.getContentResolver().query(ContactsContract.RawContacts.CONTENT_URI,//
-				null,//
-				ContactsContract.RawContacts.CONTACT_ID + " = ?",//
-				new String[] { String.valueOf(contactId), },//
-				null);
-
-		if (rawContactCursor.moveToFirst()) {
-
-			long rawContactId = rawContactCursor.getLong(rawContactCursor.getColumnIndex(ContactsContract.RawContacts._ID));
-			Logger.debug(TAG, "Contact with contact_id " + contactId + " consists of " + rawContactCursor.getCount() + " raw contacts. Using raw_contact_id "
-					+ rawContactId);
-
-			rawContactCursor.close();
-
-			return rawContactId;
-
-		} else {
-
-			throw new ContactsError("Failed to get raw_contact_id of contact with contact_id " + contactId + "!");
-		}
-	}
-
-	/**
-	 * Updates the specified {@link Course} in the contacts group. This method
-	 * saves the json representation of the course in the
-	 * {@link ContactsContract.GroupsColumns#NOTES}.
-	 * 
-	 * @param context
-	 * @param course
-	 * @throws UpdateContactsException
+	 * @param batch
+	 * @param groupRowId
+	 * @param payload
+	 *            the encoded course, see {@link CoursePayload#encode(Course)}.
 	 */
-	public static void updateContactGroup(Context context, Course course) throws UpdateContactsException {
-
-		if (course.getId() < 0)
-			throw new UpdateContactsException("Course has no id!");
+	static void updateContactGroup(ArrayList<ContentProviderOperation> batch, long groupRowId, String payload) {
 
-		final ContentValues groupValues = new ContentValues();
-		groupValues.put(ContactsContract.Groups.NOTES, CoasyDatabaseHelper.toEscapedJson(course));
-
-		int updated = context.getContentResolver().update(ContactsContract.Groups.CONTENT_URI, groupValues, ContactsContract.Groups._ID + " = ?",
-				new String[] { String.valueOf(course.getId()), });
-
-		if (updated != 1) {
-
-			throw new UpdateContactsException("Failed to update group!");
-		}
+		batch.add(ContentProviderOperation.newUpdate(ContactsContract.Groups.CONTENT_URI)//
+				.withValue(ContactsContract.Groups.NOTES, payload)//
+				.withSelection(ContactsContract.Groups._ID + " = ?", new String[] { String.valueOf(groupRowId), })//
+				.build());
 	}
 
 	/**
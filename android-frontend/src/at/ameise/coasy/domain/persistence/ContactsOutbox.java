@@ -0,0 +1,512 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.persistence;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang3.ArrayUtils;
+
+import android.content.ContentProviderOperation;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v4.util.LongSparseArray;
+import android.text.TextUtils;
+import at.ameise.coasy.domain.Course;
+import at.ameise.coasy.domain.json.CoursePayload;
+import at.ameise.coasy.domain.persistence.database.OutboxTable;
+import at.ameise.coasy.exception.AbstractContactsException;
+import at.ameise.coasy.exception.AbstractDatabaseException;
+import at.ameise.coasy.util.Logger;
+
+/**
+ * Writes the changes to the contacts in the background, after the local
+ * writes they belong to have already been committed to the performance
+ * database. The writes are queued in the {@link OutboxTable}, in the same
+ * transaction as the local write, and are drained in their order on a single
+ * background thread. Since the queue is persistent, writes which were pending
+ * when the process died are replayed on the next start.<br>
+ * <br>
+ * If the contacts provider rejects a batch, it is retried with an exponential
+ * back-off. An entry which failed {@link ContactsOutbox#MAX_ATTEMPTS} times is
+ * dropped and the sync state is cleared, so the next refresh rebuilds the
+ * performance database from the contacts, which are the master copy.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+final class ContactsOutbox {
+
+	private static final String TAG = "ContactsOutbox";
+
+	/**
+	 * The number of failed attempts after which an entry is dropped.
+	 */
+	static final int MAX_ATTEMPTS = 8;
+
+	/**
+	 * The delay of the first retry, doubled with every further attempt.
+	 */
+	private static final long INITIAL_RETRY_DELAY_MILLIS = 5 * 1000;
+	private static final long MAX_RETRY_DELAY_MILLIS = 15 * 60 * 1000;
+
+	/**
+	 * The maximum number of contacts per queued membership change. Every
+	 * contact may add an operation to the contacts batch, which must stay
+	 * below the limit of operations the contacts provider applies without a
+	 * yield point.
+	 */
+	private static final int MAX_CONTACTS_PER_ENTRY = 200;
+
+	/**
+	 * Entries are collected into a single contacts batch until it holds this
+	 * many operations.
+	 */
+	private static final int MAX_OPERATIONS_PER_BATCH = 400;
+
+	private static ContactsOutbox instance = null;
+
+	/**
+	 * @param context
+	 *            internally, the {@link Context#getApplicationContext()} is
+	 *            used.
+	 * @return a singleton instance of the {@link ContactsOutbox}.
+	 */
+	static synchronized ContactsOutbox getInstance(Context context) {
+
+		if (instance == null)
+			instance = new ContactsOutbox(context.getApplicationContext());
+
+		return instance;
+	}
+
+	private final Context mContext;
+
+	private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+
+	/**
+	 * True while a drain is queued but has not started yet.
+	 */
+	private final AtomicBoolean mDrainQueued = new AtomicBoolean(false);
+
+	private final Runnable mDrainRunnable = new Runnable() {
+		@Override
+		public void run() {
+
+			mDrainQueued.set(false);
+			drain();
+		}
+	};
+
+	private final Runnable mRetryRunnable = new Runnable() {
+		@Override
+		public void run() {
+
+			schedule();
+		}
+	};
+
+	/**
+	 * The pending retry, guarded by this.
+	 */
+	private ScheduledFuture<?> mRetry = null;
+
+	private ContactsOutbox(Context context) {
+		mContext = context;
+	}
+
+	/**
+	 * Adds queueing the membership of the contacts in the contact group of the
+	 * course to the batch.
+	 * 
+	 * @param batch
+	 * @param courseId
+	 * @param contactIds
+	 */
+	static void enqueueAddMembers(ArrayList<ContentProviderOperation> batch, long courseId, long[] contactIds) {
+
+		enqueueMembers(batch, OutboxTable.OPERATION_ADD_MEMBERS, courseId, contactIds);
+	}
+
+	/**
+	 * Adds queueing the removal of the contacts from the contact group of the
+	 * course to the batch.
+	 * 
+	 * @param batch
+	 * @param courseId
+	 * @param contactIds
+	 */
+	static void enqueueRemoveMembers(ArrayList<ContentProviderOperation> batch, long courseId, long[] contactIds) {
+
+		enqueueMembers(batch, OutboxTable.OPERATION_REMOVE_MEMBERS, courseId, contactIds);
+	}
+
+	/**
+	 * Adds queueing the update of the master copy of the course in its contact
+	 * group to the batch.
+	 * 
+	 * @param batch
+	 * @param course
+	 */
+	static void enqueueUpdateGroup(ArrayList<ContentProviderOperation> batch, Course course) {
+
+		DatabaseHelper.enqueueContactsWrite(batch, OutboxTable.OPERATION_UPDATE_GROUP, course.getId(), CoursePayload.encode(course));
+	}
+
+	/**
+	 * Splits the contacts into entries of at most
+	 * {@link ContactsOutbox#MAX_CONTACTS_PER_ENTRY} contacts.
+	 * 
+	 * @param batch
+	 * @param operation
+	 * @param courseId
+	 * @param contactIds
+	 */
+	private static void enqueueMembers(ArrayList<ContentProviderOperation> batch, int operation, long courseId, long[] contactIds) {
+
+		for (int offset = 0; offset < contactIds.length; offset += MAX_CONTACTS_PER_ENTRY) {
+
+			final long[] chunk = ArrayUtils.subarray(contactIds, offset, offset + MAX_CONTACTS_PER_ENTRY);
+
+			DatabaseHelper.enqueueContactsWrite(batch, operation, courseId, TextUtils.join(",", ArrayUtils.toObject(chunk)));
+		}
+	}
+
+	/**
+	 * Queues a drain on the background thread, unless one is queued already.
+	 * Call it after queueing entries and on start, to replay the entries of a
+	 * previous process.
+	 */
+	void schedule() {
+
+		if (mDrainQueued.compareAndSet(false, true))
+			mExecutor.execute(mDrainRunnable);
+	}
+
+	/**
+	 * Writes all queued entries to the contacts, in their order. This method
+	 * blocks, do not call it on the ui thread.
+	 * 
+	 * @return true if the outbox is empty afterwards, false if entries are
+	 *         still pending and will be retried.
+	 */
+	synchronized boolean drain() {
+
+		final ArrayList<Entry> entries = readEntries();
+		final ArrayList<Entry> chunk = new ArrayList<Entry>();
+		final ArrayList<ContentProviderOperation> contactsBatch = new ArrayList<ContentProviderOperation>();
+
+		for (Entry entry : entries) {
+
+			// added memberships are checked against the contacts, which must already contain the preceding entries
+			if (!chunk.isEmpty() && (entry.operation == OutboxTable.OPERATION_ADD_MEMBERS || contactsBatch.size() >= MAX_OPERATIONS_PER_BATCH)) {
+
+				if (!apply(chunk, contactsBatch))
+					return false;
+
+				chunk.clear();
+				contactsBatch.clear();
+			}
+
+			addContactsWrite(contactsBatch, entry);
+			chunk.add(entry);
+		}
+
+		if (!chunk.isEmpty() && !apply(chunk, contactsBatch))
+			return false;
+
+		if (!entries.isEmpty())
+			Logger.debug(TAG, "Wrote " + entries.size() + " queued entries to the contacts.");
+
+		return true;
+	}
+
+	/**
+	 * Drains the outbox like {@link ContactsOutbox#drain()}, unless a retry
+	 * is scheduled. The entries wait for their back-off then, draining them
+	 * earlier would only count another failed attempt towards
+	 * {@link ContactsOutbox#MAX_ATTEMPTS}. This method blocks, do not call it
+	 * on the ui thread.
+	 * 
+	 * @return true if the outbox is empty afterwards, false if entries are
+	 *         still pending.
+	 */
+	synchronized boolean drainUnlessRetrying() {
+
+		if (mRetry != null && !mRetry.isDone()) {
+
+			Logger.debug(TAG, "A retry is scheduled, leaving the queued entries pending.");
+			return false;
+		}
+
+		return drain();
+	}
+
+	/**
+	 * Applies the contacts batch of the entries and removes the entries from
+	 * the outbox. If the contacts provider rejects the batch, the failure is
+	 * recorded and a retry is scheduled.
+	 * 
+	 * @param entries
+	 * @param contactsBatch
+	 *            the contacts writes of the entries.
+	 * @return true if the entries were written.
+	 */
+	private boolean apply(ArrayList<Entry> entries, ArrayList<ContentProviderOperation> contactsBatch) {
+
+		try {
+
+			ContactsContractHelper.applyBatch(mContext, contactsBatch);
+
+		} catch (AbstractContactsException e) {
+
+			Logger.warn(TAG, "Failed to write " + entries.size() + " queued entries to the contacts!", e);
+			recordFailure(entries);
+			return false;
+		}
+
+		final ArrayList<ContentProviderOperation> batch = new ArrayList<ContentProviderOperation>(entries.size());
+		for (Entry entry : entries)
+			DatabaseHelper.removeOutboxEntry(batch, entry.id);
+
+		try {
+
+			DatabaseHelper.applyBatch(mContext, batch);
+			return true;
+
+		} catch (AbstractDatabaseException e) {
+
+			// replaying the entries does no harm, memberships are checked and the group notes are overwritten
+			Logger.error(TAG, "Failed to remove written entries from the outbox!", e);
+			scheduleRetry(1);
+			return false;
+		}
+	}
+
+	/**
+	 * Raises the attempts of the entries, drops the ones which reached
+	 * {@link ContactsOutbox#MAX_ATTEMPTS} and schedules a retry.
+	 * 
+	 * @param entries
+	 */
+	private void recordFailure(ArrayList<Entry> entries) {
+
+		final ArrayList<ContentProviderOperation> batch = new ArrayList<ContentProviderOperation>(entries.size() + 1);
+		boolean dropped = false;
+		int attempts = 0;
+
+		for (Entry entry : entries) {
+
+			if (entry.attempts + 1 >= MAX_ATTEMPTS) {
+
+				Logger.error(TAG, "Dropping entry " + entry.id + " of course " + entry.courseId + " after " + MAX_ATTEMPTS + " attempts.");
+				DatabaseHelper.removeOutboxEntry(batch, entry.id);
+				dropped = true;
+
+			} else {
+
+				DatabaseHelper.setOutboxAttempts(batch, entry.id, entry.attempts + 1);
+				attempts = Math.max(attempts, entry.attempts + 1);
+			}
+		}
+
+		// the local writes of dropped entries never reach the contacts, the next refresh has to revert them
+		if (dropped)
+			DatabaseHelper.clearSyncState(batch);
+
+		try {
+
+			DatabaseHelper.applyBatch(mContext, batch);
+
+		} catch (AbstractDatabaseException e) {
+
+			Logger.error(TAG, "Failed to record the failed attempt!", e);
+		}
+
+		scheduleRetry(Math.max(attempts, 1));
+	}
+
+	/**
+	 * Schedules a drain after the back-off of the attempt, replacing a
+	 * pending retry.
+	 * 
+	 * @param attempts
+	 *            the number of failed attempts so far.
+	 */
+	private synchronized void scheduleRetry(int attempts) {
+
+		final long delay = Math.min(INITIAL_RETRY_DELAY_MILLIS << Math.min(attempts - 1, 16), MAX_RETRY_DELAY_MILLIS);
+
+		if (mRetry != null)
+			mRetry.cancel(false);
+
+		Logger.info(TAG, "Retrying the queued entries in " + delay + "ms.");
+		mRetry = mExecutor.schedule(mRetryRunnable, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Adds the contacts writes of the entry to the batch.
+	 * 
+	 * @param contactsBatch
+	 * @param entry
+	 */
+	private void addContactsWrite(ArrayList<ContentProviderOperation> contactsBatch, Entry entry) {
+
+		switch (entry.operation) {
+
+		case OutboxTable.OPERATION_ADD_MEMBERS:
+			final long[] contactIds = parseContactIds(entry.payload);
+			final LongSparseArray<Long> rawContactIds = RawContactIdCache.getInstance(mContext).getRawContactIds(contactIds);
+			final LongSparseArray<long[]> memberships = ContactsContractHelper.getGroupMembershipsOfContacts(mContext, contactIds);
+
+			// a second membership would only be a duplicate
+			for (int i = 0; i < memberships.size(); i++)
+				if (ArrayUtils.contains(memberships.valueAt(i), entry.courseId))
+					rawContactIds.remove(memberships.keyAt(i));
+
+			ContactsContractHelper.addContactsToGroup(contactsBatch, rawContactIds, entry.courseId);
+			break;
+
+		case OutboxTable.OPERATION_REMOVE_MEMBERS:
+			ContactsContractHelper.removeContactsFromGroup(contactsBatch, parseContactIds(entry.payload), entry.courseId);
+			break;
+
+		case OutboxTable.OPERATION_UPDATE_GROUP:
+			ContactsContractHelper.updateContactGroup(contactsBatch, entry.courseId, entry.payload);
+			break;
+
+		default:
+			Logger.error(TAG, "Unknown operation " + entry.operation + " of entry " + entry.id + ", skipping it.");
+		}
+	}
+
+	/**
+	 * @return the ids of the courses with pending entries as keys.
+	 */
+	LongSparseArray<Boolean> getPendingCourseIds() {
+
+		final LongSparseArray<Boolean> courseIds = new LongSparseArray<Boolean>();
+
+		for (Entry entry : readEntries())
+			courseIds.put(entry.courseId, Boolean.TRUE);
+
+		return courseIds;
+	}
+
+	/**
+	 * @return the ids of the contacts with pending membership changes as keys.
+	 */
+	LongSparseArray<Boolean> getPendingContactIds() {
+
+		final LongSparseArray<Boolean> contactIds = new LongSparseArray<Boolean>();
+
+		for (Entry entry : readEntries())
+			if (entry.operation == OutboxTable.OPERATION_ADD_MEMBERS || entry.operation == OutboxTable.OPERATION_REMOVE_MEMBERS)
+				for (long contactId : parseContactIds(entry.payload))
+					contactIds.put(contactId, Boolean.TRUE);
+
+		return contactIds;
+	}
+
+	/**
+	 * @return all queued entries, oldest first.
+	 */
+	private ArrayList<Entry> readEntries() {
+
+		final Cursor outboxCursor = DatabaseHelper.getOutboxCursor(mContext);
+		final ArrayList<Entry> entries = new ArrayList<Entry>(outboxCursor.getCount());
+
+		try {
+
+			if (outboxCursor.moveToFirst()) {
+
+				final int idIndex = outboxCursor.getColumnIndexOrThrow(OutboxTable.COL_ID);
+				final int operationIndex = outboxCursor.getColumnIndexOrThrow(OutboxTable.COL_OPERATION);
+				final int courseIdIndex = outboxCursor.getColumnIndexOrThrow(OutboxTable.COL_COURSE_ID);
+				final int payloadIndex = outboxCursor.getColumnIndexOrThrow(OutboxTable.COL_PAYLOAD);
+				final int attemptsIndex = outboxCursor.getColumnIndexOrThrow(OutboxTable.COL_ATTEMPTS);
+
+				do {
+
+					entries.add(new Entry(outboxCursor.getLong(idIndex), outboxCursor.getInt(operationIndex), outboxCursor.getLong(courseIdIndex),
+							outboxCursor.getString(payloadIndex), outboxCursor.getInt(attemptsIndex)));
+
+				} while (outboxCursor.moveToNext());
+			}
+
+		} finally {
+
+			outboxCursor.close();
+		}
+
+		return entries;
+	}
+
+	/**
+	 * @param payload
+	 *            comma separated contact ids.
+	 * @return the contact ids.
+	 */
+	private static long[] parseContactIds(String payload) {
+
+		final String[] tokens = TextUtils.split(payload, ",");
+		final long[] contactIds = new long[tokens.length];
+
+		for (int i = 0; i < tokens.length; i++)
+			contactIds[i] = Long.parseLong(tokens[i]);
+
+		return contactIds;
+	}
+
+	/**
+	 * A row of the {@link OutboxTable}.
+	 */
+	private static final class Entry {
+
+		final long id;
+		final int operation;
+		final long courseId;
+		final String payload;
+		final int attempts;
+
+		Entry(long id, int operation, long courseId, String payload, int attempts) {
+			this.id = id;
+			this.operation = operation;
+			this.courseId = courseId;
+			this.payload = payload;
+			this.attempts = attempts;
+		}
+	}
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import at.ameise.coasy.domain.persistence.database.CoasyDatabaseHelper;
+import at.ameise.coasy.exception.AbstractDatabaseException;
+import at.ameise.coasy.util.Logger;
+import at.ameise.coasy.util.StartupTiming;
+
+/**
+ * Runs the database work which is too slow for the ui thread, like opening the
+ * database and refreshing it from the contacts, one after another on a single
+ * background thread. Since there is only one thread, there is never more than
+ * one refresh at a time. Refreshes which are requested while another one is
+ * still queued are coalesced into it.<br>
+ * <br>
+ * All public methods must be called from the ui thread, the
+ * {@link IRefreshListener}s are notified on the ui thread as well.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+public final class ContactsSyncScheduler {
+
+	private static final String TAG = "SyncScheduler";
+
+	private static ContactsSyncScheduler instance = null;
+
+	/**
+	 * @param context
+	 *            internally, the {@link Context#getApplicationContext()} is
+	 *            used.
+	 * @return a singleton instance of the {@link ContactsSyncScheduler}.
+	 */
+	public static final ContactsSyncScheduler getInstance(Context context) {
+
+		if (instance == null)
+			instance = new ContactsSyncScheduler(context.getApplicationContext());
+
+		return instance;
+	}
+
+	/**
+	 * Is notified about the progress of the refreshes.
+	 * 
+	 * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+	 * 
+	 */
+	public interface IRefreshListener {
+
+		/**
+		 * Called when a refresh has been requested and none was running
+		 * before.
+		 */
+		void onRefreshStarted();
+
+		/**
+		 * Called when all requested refreshes have finished.
+		 * 
+		 * @param successful
+		 *            false if the last refresh failed.
+		 */
+		void onRefreshFinished(boolean successful);
+	}
+
+	private final Context mContext;
+	private final IPersistenceManager mPersistenceManager;
+	private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+	private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+	private final List<IRefreshListener> mListeners = new ArrayList<IRefreshListener>();
+	private final ContactsChangeObserver mContactsObserver;
+
+	/**
+	 * True while a refresh is queued but has not started yet.
+	 */
+	private final AtomicBoolean mRefreshQueued = new AtomicBoolean(false);
+
+	/**
+	 * The number of refreshes which have been requested but did not finish
+	 * yet. Only accessed on the ui thread.
+	 */
+	private int mPendingRefreshes = 0;
+
+	private ContactsSyncScheduler(Context context) {
+		mContext = context;
+		mPersistenceManager = ProductionPersistenceManager.getInstance(context);
+		mContactsObserver = new ContactsChangeObserver(mUiHandler, new Runnable() {
+			@Override
+			public void run() {
+				refresh();
+			}
+		});
+	}
+
+	/**
+	 * Starts refreshing the database whenever the contacts change.
+	 */
+	public void startObservingContacts() {
+
+		final ContentResolver contentResolver = mContext.getContentResolver();
+
+		for (Uri uri : ContactsChangeObserver.OBSERVED_URIS)
+			contentResolver.registerContentObserver(uri, true, mContactsObserver);
+	}
+
+	/**
+	 * Stops refreshing the database on contact changes.
+	 */
+	public void stopObservingContacts() {
+
+		mContext.getContentResolver().unregisterContentObserver(mContactsObserver);
+		mContactsObserver.cancel();
+	}
+
+	/**
+	 * Opens (and creates or upgrades if necessary) the database in the
+	 * background.
+	 */
+	public void openDatabase() {
+
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+
+				CoasyDatabaseHelper.getInstance(mContext).getWritableDatabase();
+
+				StartupTiming.mark(StartupTiming.STAGE_DATABASE_OPENED);
+			}
+		});
+	}
+
+	/**
+	 * Refreshes the database from the contacts in the background. The
+	 * {@link IRefreshListener}s are notified about the progress. If a refresh
+	 * is already queued, this request is coalesced into it.
+	 */
+	public void refresh() {
+
+		if (!mRefreshQueued.compareAndSet(false, true)) {
+
+			Logger.debug(TAG, "Refresh is already queued.");
+			return;
+		}
+
+		if (mPendingRefreshes++ == 0)
+			for (IRefreshListener listener : new ArrayList<IRefreshListener>(mListeners))
+				listener.onRefreshStarted();
+
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+
+				boolean successful = false;
+
+				// changes from now on need another refresh
+				mRefreshQueued.set(false);
+
+				try {
+
+					mPersistenceManager.refreshDatabaseFromContacts();
+					successful = true;
+
+					RawContactIdCache.getInstance(mContext).warmUp();
+
+				} catch (AbstractDatabaseException e) {
+
+					Logger.error(TAG, "Failed to refresh the database!", e);
+
+				} catch (RuntimeException e) {
+
+					// i.e. a contacts provider failure, the next change notification retries
+					Logger.error(TAG, "Unexpected failure while refreshing the database!", e);
+
+				} finally {
+
+					StartupTiming.mark(StartupTiming.STAGE_REFRESH_FINISHED);
+					postRefreshFinished(successful);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return true if a refresh is running or pending.
+	 */
+	public boolean isRefreshing() {
+
+		return mPendingRefreshes > 0;
+	}
+
+	/**
+	 * Adds the listener. If a refresh is running,
+	 * {@link IRefreshListener#onRefreshStarted()} is called immediately.
+	 * 
+	 * @param listener
+	 */
+	public void addRefreshListener(IRefreshListener listener) {
+
+		mListeners.add(listener);
+
+		if (isRefreshing())
+			listener.onRefreshStarted();
+	}
+
+	/**
+	 * @param listener
+	 */
+	public void removeRefreshListener(IRefreshListener listener) {
+
+		mListeners.remove(listener);
+	}
+
+	/**
+	 * Notifies the listeners on the ui thread, once the last pending refresh
+	 * has finished.
+	 * 
+	 * @param successful
+	 */
+	private void postRefreshFinished(final boolean successful) {
+
+		mUiHandler.post(new Runnable() {
+			@Override
+			public void run() {
+
+				if (--mPendingRefreshes == 0)
+					for (IRefreshListener listener : new ArrayList<IRefreshListener>(mListeners))
+						listener.onRefreshFinished(successful);
+			}
+		});
+	}
+}
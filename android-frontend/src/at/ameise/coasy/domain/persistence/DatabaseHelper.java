@@ -30,36 +30,82 @@
  */
 package at.ameise.coasy.domain.persistence;
 
-import java.util.List;
+import java.util.ArrayList;
 
+import org.apache.commons.lang3.ArrayUtils;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.CursorLoader;
 import android.content.Loader;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.RemoteException;
+import android.support.v4.util.LongSparseArray;
+import android.text.TextUtils;
 import at.ameise.coasy.domain.Course;
 import at.ameise.coasy.domain.Student;
-import at.ameise.coasy.domain.persistence.database.CoasyDatabaseHelper;
 import at.ameise.coasy.domain.persistence.database.CourseStudentTable;
 import at.ameise.coasy.domain.persistence.database.CourseTable;
+import at.ameise.coasy.domain.persistence.database.GroupMemberTable;
+import at.ameise.coasy.domain.persistence.database.OutboxTable;
 import at.ameise.coasy.domain.persistence.database.PerformanceDatabaseContentProvider;
 import at.ameise.coasy.domain.persistence.database.StudentTable;
+import at.ameise.coasy.domain.persistence.database.SyncStateTable;
+import at.ameise.coasy.domain.persistence.database.VersionedCursorLoader;
 import at.ameise.coasy.exception.CreateDatabaseException;
-import at.ameise.coasy.exception.DatabaseError;
 import at.ameise.coasy.exception.UpdateDatabaseException;
+import at.ameise.coasy.util.RowIterator;
 
 /**
- * Contains helper methods for courses.
+ * Contains helper methods for courses.<br>
+ * <br>
+ * The methods which take a batch instead of a {@link Context} only add their
+ * operations to the batch. They are written to the database in a single
+ * transaction by {@link DatabaseHelper#applyBatch(Context, ArrayList)}.
  * 
  * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
  * 
  */
 final class DatabaseHelper {
 
+	/**
+	 * The number of rows the students and contacts loaders load, the adapters
+	 * load the following pages while the user scrolls.
+	 */
+	private static final int PAGE_SIZE = 100;
+
 	private DatabaseHelper() {
 	}
 
+	/**
+	 * Applies all operations of the batch in a single transaction.
+	 * 
+	 * @param context
+	 * @param batch
+	 * @return the results of the operations.
+	 * @throws UpdateDatabaseException
+	 *             if any of the operations failed. None of the operations is
+	 *             applied in this case.
+	 */
+	static ContentProviderResult[] applyBatch(Context context, ArrayList<ContentProviderOperation> batch) throws UpdateDatabaseException {
+
+		try {
+
+			return context.getContentResolver().applyBatch(PerformanceDatabaseContentProvider.AUTHORITY, batch);
+
+		} catch (RemoteException e) {
+
+			throw new UpdateDatabaseException("Failed to apply batch!", e);
+
+		} catch (OperationApplicationException e) {
+
+			throw new UpdateDatabaseException("Failed to apply batch!", e);
+		}
+	}
+
 	/**
 	 * Creates the given {@link Course} in the database.<br>
 	 * <br>
@@ -87,44 +133,65 @@ final class DatabaseHelper {
 
 	/**
 	 * @param context
-	 * @return a {@link CursorLoader} on all {@link Student}s of all
-	 *         {@link Course}s.
+	 * @return a {@link VersionedCursorLoader} on the first page of all
+	 *         {@link Student}s of all {@link Course}s.
 	 */
 	static Loader<Cursor> getAllStudentsCursorLoader(Context context) {
 
-		return new CursorLoader(context, PerformanceDatabaseContentProvider.CONTENT_URI_STUDENT, null, null, null, StudentTable.SORT_ORDER_DISPLAY_NAME_ASC);
+		return new VersionedCursorLoader(context, PerformanceDatabaseContentProvider.getPageUri(PerformanceDatabaseContentProvider.CONTENT_URI_STUDENT,
+				PAGE_SIZE, null, 0), null, null, null, null);
 	}
 
 	/**
 	 * @param context
-	 * @return a {@link CursorLoader} on all {@link Course}s.
+	 * @return a {@link VersionedCursorLoader} on all {@link Course}s.
 	 */
 	static Loader<Cursor> getAllCoursesCursorLoader(Context context) {
 
-		return new CursorLoader(context, PerformanceDatabaseContentProvider.CONTENT_URI_COURSE, null, null, null, CourseTable.SORT_ORDER_TITLE_ASC);
+		return new VersionedCursorLoader(context, PerformanceDatabaseContentProvider.CONTENT_URI_COURSE, null, null, null, CourseTable.SORT_ORDER_TITLE_ASC);
+	}
+
+	/**
+	 * @param context
+	 * @param query
+	 *            the text the user typed.
+	 * @return a {@link VersionedCursorLoader} on the first page of the
+	 *         {@link Student}s matching the query.
+	 */
+	static Loader<Cursor> getStudentsSearchCursorLoader(Context context, String query) {
+
+		return new VersionedCursorLoader(context, PerformanceDatabaseContentProvider.getPageUri(
+				PerformanceDatabaseContentProvider.getCONTENT_URI_SEARCH_STUDENTS(query), PAGE_SIZE, null, 0), null, null, null, null);
 	}
 
 	/**
-	 * Adds the student to the course.<br>
+	 * @param context
+	 * @param query
+	 *            the text the user typed.
+	 * @return a {@link VersionedCursorLoader} on the {@link Course}s matching
+	 *         the query.
+	 */
+	static Loader<Cursor> getCoursesSearchCursorLoader(Context context, String query) {
+
+		return new VersionedCursorLoader(context, PerformanceDatabaseContentProvider.getCONTENT_URI_SEARCH_COURSES(query), null, null, null,
+				CourseTable.SORT_ORDER_TITLE_ASC);
+	}
+
+	/**
+	 * Adds the mapping of the student to the course to the batch.<br>
 	 * <br>
-	 * Note: This method does not check if the mapping does already exist!
+	 * Note: Does nothing if the mapping does already exist.
 	 * 
-	 * @param context
+	 * @param batch
 	 * @param studentId
 	 * @param courseId
 	 */
-	static void addStudentToCourse(Context context, long studentId, long courseId) {
+	static void addStudentToCourse(ArrayList<ContentProviderOperation> batch, long studentId, long courseId) {
 
-		ContentValues values = new ContentValues();
-		values.put(CourseStudentTable.COL_STUDENT_ID, studentId);
-		values.put(CourseStudentTable.COL_COURSE_ID, courseId);
-
-		final Uri returnUri = context.getContentResolver()
-				.insert(PerformanceDatabaseContentProvider.getCONTENT_URI_COURSE_STUDENT(courseId, studentId), values);
-		final long rowId = Long.valueOf(returnUri.getLastPathSegment());
-
-		if (rowId < 0)
-			throw new DatabaseError("Failed to insert the student-course mapping in CourseStudentTable!");
+		batch.add(ContentProviderOperation.newInsert(PerformanceDatabaseContentProvider.CONTENT_URI_COURSE_STUDENT)//
+				.withValue(CourseStudentTable.COL_STUDENT_ID, studentId)//
+				.withValue(CourseStudentTable.COL_COURSE_ID, courseId)//
+				.build());
 	}
 
 	/**
@@ -153,179 +220,522 @@ final class DatabaseHelper {
 
 	/**
 	 * @param context
+	 * @param courseId
+	 * @return a {@link VersionedCursorLoader} on the first page of the
+	 *         {@link Student}s of the specified {@link Course}s.
+	 */
+	static Loader<Cursor> getStudentsCursorLoader(Context context, long courseId) {
+
+		return new VersionedCursorLoader(context, PerformanceDatabaseContentProvider.getPageUri(
+				PerformanceDatabaseContentProvider.getCONTENT_URI_COURSE_STUDENTS(courseId), PAGE_SIZE, null, 0), null, null, null, null);
+	}
+
+	/**
+	 * Adds the removal of the {@link Student} from the {@link Course} to the
+	 * batch.
+	 * 
+	 * @param batch
 	 * @param studentId
-	 * @return true if the student with the specified id exits, false otherwise.
+	 * @param courseId
 	 */
-	static boolean doesStudentExist(Context context, long studentId) {
+	static void removeStudentFromCourse(ArrayList<ContentProviderOperation> batch, long studentId, long courseId) {
 
-		Cursor studentCursor = context.getContentResolver().query(PerformanceDatabaseContentProvider.CONTENT_URI_STUDENT,//
-				null,//
-				StudentTable.COL_ID + " = ?",//
-				new String[] { String.valueOf(studentId), },//
-				null);
+		batch.add(ContentProviderOperation.newDelete(PerformanceDatabaseContentProvider.getCONTENT_URI_COURSE_STUDENT(courseId, studentId)).build());
+	}
 
-		boolean studentExists = studentCursor.moveToFirst();
+	/**
+	 * Adds updating the {@link Course} to the batch. The batch fails if the
+	 * course does not exist.
+	 * 
+	 * @param batch
+	 * @param course
+	 * @throws UpdateDatabaseException
+	 */
+	static void updateCourse(ArrayList<ContentProviderOperation> batch, Course course) throws UpdateDatabaseException {
 
-		studentCursor.close();
+		if (course.getId() < 0)
+			throw new UpdateDatabaseException("Course has no id!");
 
-		return studentExists;
+		batch.add(ContentProviderOperation.newUpdate(Uri.withAppendedPath(PerformanceDatabaseContentProvider.CONTENT_URI_COURSE, String.valueOf(course.getId())))//
+				.withValues(CourseTable.from(course))//
+				.withExpectedCount(1)//
+				.build());
+	}
+
+	/**
+	 * Adds inserting the {@link Course} or updating it, if it has changed, to
+	 * the batch.
+	 * 
+	 * @param batch
+	 * @param course
+	 * @throws UpdateDatabaseException
+	 */
+	static void upsertCourse(ArrayList<ContentProviderOperation> batch, Course course) throws UpdateDatabaseException {
+
+		if (course.getId() < 0)
+			throw new UpdateDatabaseException("Course has no id!");
+
+		batch.add(ContentProviderOperation.newInsert(PerformanceDatabaseContentProvider.CONTENT_URI_COURSE_UPSERT)//
+				.withValues(CourseTable.from(course))//
+				.build());
+	}
+
+	/**
+	 * Adds inserting the student or updating it, if it has changed, to the
+	 * batch.
+	 * 
+	 * @param batch
+	 * @param student
+	 * @throws UpdateDatabaseException
+	 */
+	static void upsertStudent(ArrayList<ContentProviderOperation> batch, Student student) throws UpdateDatabaseException {
+
+		if (student.getId() < 0)
+			throw new UpdateDatabaseException("Student has no id!");
+
+		batch.add(ContentProviderOperation.newInsert(PerformanceDatabaseContentProvider.CONTENT_URI_STUDENT_UPSERT)//
+				.withValues(StudentTable.from(student))//
+				.build());
+	}
+
+	/**
+	 * Adds inserting the member of the selected contact group or updating it,
+	 * if it has changed, to the batch.
+	 * 
+	 * @param batch
+	 * @param member
+	 *            the contact as student.
+	 * @throws UpdateDatabaseException
+	 */
+	static void upsertGroupMember(ArrayList<ContentProviderOperation> batch, Student member) throws UpdateDatabaseException {
+
+		if (member.getId() < 0)
+			throw new UpdateDatabaseException("Group member has no id!");
+
+		batch.add(ContentProviderOperation.newInsert(PerformanceDatabaseContentProvider.CONTENT_URI_GROUP_MEMBER_UPSERT)//
+				.withValues(GroupMemberTable.from(member))//
+				.build());
+	}
+
+	/**
+	 * Adds the removal of the member of the selected contact group to the
+	 * batch.
+	 * 
+	 * @param batch
+	 * @param contactId
+	 */
+	static void removeGroupMember(ArrayList<ContentProviderOperation> batch, long contactId) {
+
+		batch.add(ContentProviderOperation.newDelete(PerformanceDatabaseContentProvider.getCONTENT_URI_GROUP_MEMBER(contactId)).build());
+	}
+
+	/**
+	 * Adds the removal of all members of the selected contact group except for
+	 * the specified to the batch. The ids are staged in a temporary table, so
+	 * there is no limit on their number.
+	 * 
+	 * @param batch
+	 * @param contactIds
+	 */
+	static void removeAllGroupMembersExcept(ArrayList<ContentProviderOperation> batch, long[] contactIds) {
+
+		final Uri reconcileUri = PerformanceDatabaseContentProvider.getCONTENT_URI_RECONCILE(GroupMemberTable.TABLE_NAME);
+
+		for (long contactId : contactIds)
+			batch.add(ContentProviderOperation.newInsert(reconcileUri).withValue(GroupMemberTable.COL_ID, contactId).build());
+
+		batch.add(ContentProviderOperation.newDelete(reconcileUri).build());
 	}
 
 	/**
 	 * @param context
 	 * @param courseId
-	 * @return a {@link CursorLoader} on all {@link Student}s of the specified
-	 *         {@link Course}s.
+	 * @return a {@link VersionedCursorLoader} on the first page of the members
+	 *         of the selected contact group which are not in the {@link Course}.
 	 */
-	static Loader<Cursor> getStudentsCursorLoader(Context context, long courseId) {
+	static Loader<Cursor> getContactsNotInCourseCursorLoader(Context context, long courseId) {
 
-		return new CursorLoader(context, PerformanceDatabaseContentProvider.getCONTENT_URI_COURSE_STUDENTS(courseId), null, null, null,
-				StudentTable.SORT_ORDER_DISPLAY_NAME_ASC);
+		return new VersionedCursorLoader(context, PerformanceDatabaseContentProvider.getPageUri(
+				PerformanceDatabaseContentProvider.getCONTENT_URI_COURSE_CANDIDATES(courseId), PAGE_SIZE, null, 0), null, null, null, null);
 	}
 
 	/**
-	 * Removes the {@link Student} from the {@link Course}.<br>
-	 * <br>
-	 * Note: This method does not check if the mapping does already exist!
+	 * Adds the removal of all courses to the batch.
 	 * 
-	 * @param context
-	 * @param studentId
+	 * @param batch
+	 */
+	static void removeAllCourses(ArrayList<ContentProviderOperation> batch) {
+
+		batch.add(ContentProviderOperation.newDelete(PerformanceDatabaseContentProvider.CONTENT_URI_COURSE).build());
+	}
+
+	/**
+	 * Adds the removal of all students to the batch.
+	 * 
+	 * @param batch
+	 */
+	static void removeAllStudents(ArrayList<ContentProviderOperation> batch) {
+
+		batch.add(ContentProviderOperation.newDelete(PerformanceDatabaseContentProvider.CONTENT_URI_STUDENT).build());
+	}
+
+	/**
+	 * Adds the removal of all course student mappings to the batch.
+	 * 
+	 * @param batch
+	 */
+	static void removeAllCourseStudents(ArrayList<ContentProviderOperation> batch) {
+
+		batch.add(ContentProviderOperation.newDelete(PerformanceDatabaseContentProvider.CONTENT_URI_COURSE_STUDENT).build());
+	}
+
+	/**
+	 * Adds the removal of all courses except for the specified to the batch.
+	 * The ids are staged in a temporary table, so there is no limit on their
+	 * number.
+	 * 
+	 * @param batch
+	 * @param courseIds
+	 */
+	static void removeAllCoursesExcept(ArrayList<ContentProviderOperation> batch, long[] courseIds) {
+
+		final Uri reconcileUri = PerformanceDatabaseContentProvider.getCONTENT_URI_RECONCILE(CourseTable.TABLE_NAME);
+
+		for (long courseId : courseIds)
+			batch.add(ContentProviderOperation.newInsert(reconcileUri).withValue(CourseTable.COL_ID, courseId).build());
+
+		batch.add(ContentProviderOperation.newDelete(reconcileUri).build());
+	}
+
+	/**
+	 * Adds the removal of all students except for the specified to the batch.
+	 * The ids are staged in a temporary table, so there is no limit on their
+	 * number.
+	 * 
+	 * @param batch
+	 * @param studentIds
+	 */
+	static void removeAllStudentsExcept(ArrayList<ContentProviderOperation> batch, long[] studentIds) {
+
+		final Uri reconcileUri = PerformanceDatabaseContentProvider.getCONTENT_URI_RECONCILE(StudentTable.TABLE_NAME);
+
+		for (long studentId : studentIds)
+			batch.add(ContentProviderOperation.newInsert(reconcileUri).withValue(StudentTable.COL_ID, studentId).build());
+
+		batch.add(ContentProviderOperation.newDelete(reconcileUri).build());
+	}
+
+	/**
+	 * Adds the removal of all course student mappings except for the specified
+	 * to the batch. The mappings are staged in a temporary table, so there is
+	 * no limit on their number.
+	 * 
+	 * @param batch
+	 * @param courseIdsByStudentId
+	 *            the ids of the courses of every student, mapped by student
+	 *            id.
+	 */
+	static void removeAllCourseStudentsExcept(ArrayList<ContentProviderOperation> batch, LongSparseArray<long[]> courseIdsByStudentId) {
+
+		final Uri reconcileUri = PerformanceDatabaseContentProvider.getCONTENT_URI_RECONCILE(CourseStudentTable.TABLE_NAME);
+
+		for (int i = 0; i < courseIdsByStudentId.size(); i++)
+			for (long courseId : courseIdsByStudentId.valueAt(i))
+				batch.add(ContentProviderOperation.newInsert(reconcileUri)//
+						.withValue(CourseStudentTable.COL_STUDENT_ID, courseIdsByStudentId.keyAt(i))//
+						.withValue(CourseStudentTable.COL_COURSE_ID, courseId)//
+						.build());
+
+		batch.add(ContentProviderOperation.newDelete(reconcileUri).build());
+	}
+
+	/**
+	 * Adds the removal of the {@link Course} and all its student mappings to
+	 * the batch.
+	 * 
+	 * @param batch
 	 * @param courseId
 	 */
-	static void removeStudentFromCourse(Context context, long studentId, long courseId) {
+	static void removeCourse(ArrayList<ContentProviderOperation> batch, long courseId) {
 
-		final int deletedRows = context.getContentResolver().delete(PerformanceDatabaseContentProvider.getCONTENT_URI_COURSE_STUDENT(courseId, studentId),
-				null, null);
+		batch.add(ContentProviderOperation.newDelete(PerformanceDatabaseContentProvider.getCONTENT_URI_COURSE_STUDENTS(courseId)).build());
+		batch.add(ContentProviderOperation.newDelete(Uri.withAppendedPath(PerformanceDatabaseContentProvider.CONTENT_URI_COURSE, String.valueOf(courseId))).build());
+	}
 
-		if (deletedRows < 0)
-			throw new DatabaseError("Failed to delete the student-course mapping in CourseStudentTable!");
+	/**
+	 * Adds the removal of the {@link Student} and all its course mappings to
+	 * the batch.
+	 * 
+	 * @param batch
+	 * @param studentId
+	 */
+	static void removeStudent(ArrayList<ContentProviderOperation> batch, long studentId) {
+
+		removeStudentFromAllCourses(batch, studentId);
+		batch.add(ContentProviderOperation.newDelete(Uri.withAppendedPath(PerformanceDatabaseContentProvider.CONTENT_URI_STUDENT, String.valueOf(studentId))).build());
 	}
 
 	/**
-	 * Updates the {@link Course}.
+	 * Adds the removal of the {@link Student} from every {@link Course} to the
+	 * batch.
 	 * 
-	 * @param context
-	 * @param course
-	 * @throws UpdateDatabaseException
+	 * @param batch
+	 * @param studentId
 	 */
-	public static void updateCourse(Context context, Course course) throws UpdateDatabaseException {
+	static void removeStudentFromAllCourses(ArrayList<ContentProviderOperation> batch, long studentId) {
 
-		if (course.getId() < 0)
-			throw new UpdateDatabaseException("Course has no id!");
+		batch.add(ContentProviderOperation.newDelete(PerformanceDatabaseContentProvider.CONTENT_URI_COURSE_STUDENT)//
+				.withSelection(CourseStudentTable.COL_STUDENT_ID + " = ?", new String[] { String.valueOf(studentId), })//
+				.build());
+	}
 
-		final ContentValues values = CourseTable.from(course);
+	/**
+	 * Adds the removal of all students which are not mapped to any course to
+	 * the batch.
+	 * 
+	 * @param batch
+	 */
+	static void removeStudentsWithoutCourse(ArrayList<ContentProviderOperation> batch) {
 
-		final int updated = context.getContentResolver().update(Uri.parse(PerformanceDatabaseContentProvider.CONTENT_URI_COURSE + "/" + course.getId()),
-				values, null, null);
+		batch.add(ContentProviderOperation.newDelete(PerformanceDatabaseContentProvider.CONTENT_URI_STUDENT)//
+				.withSelection(StudentTable.COL_ID + " NOT IN (SELECT " + CourseStudentTable.COL_STUDENT_ID + " FROM " + CourseStudentTable.TABLE_NAME + ")", null)//
+				.build());
+	}
 
-		if (updated != 1) {
+	/**
+	 * Recounts the students of the courses whose aggregates are wrong. The
+	 * aggregates are maintained by triggers, so this only repairs them.
+	 * 
+	 * @param context
+	 * @return the number of repaired courses.
+	 */
+	static int checkCourseAggregates(Context context) {
 
-			throw new UpdateDatabaseException("Update of course failed!");
-		}
+		return context.getContentResolver().update(PerformanceDatabaseContentProvider.CONTENT_URI_COURSE_AGGREGATES, null, null, null);
 	}
 
 	/**
 	 * @param context
-	 * @param courseId
-	 * @return true if the course exists, false otherwise.
+	 * @return the content hashes of all courses, mapped by their id.
 	 */
-	public static boolean doesCourseExist(Context context, long courseId) {
+	static LongSparseArray<Long> getCourseContentHashes(Context context) {
 
-		Cursor courseCursor = context.getContentResolver().query(PerformanceDatabaseContentProvider.CONTENT_URI_COURSE,//
+		final Cursor courseCursor = context.getContentResolver().query(PerformanceDatabaseContentProvider.CONTENT_URI_COURSE,//
+				new String[] { CourseTable.COL_ID, CourseTable.COL_CONTENT_HASH, },//
+				null,//
 				null,//
-				CourseTable.COL_ID + " = ?",//
-				new String[] { String.valueOf(courseId), },//
 				null);
 
-		boolean courseExists = courseCursor.moveToFirst();
+		final LongSparseArray<Long> hashes = new LongSparseArray<Long>(courseCursor.getCount());
+
+		if (courseCursor.moveToFirst()) {
+
+			final int idIndex = courseCursor.getColumnIndexOrThrow(CourseTable.COL_ID);
+			final int hashIndex = courseCursor.getColumnIndexOrThrow(CourseTable.COL_CONTENT_HASH);
+
+			do {
+
+				if (!courseCursor.isNull(hashIndex))
+					hashes.put(courseCursor.getLong(idIndex), courseCursor.getLong(hashIndex));
+
+			} while (courseCursor.moveToNext());
+		}
 
 		courseCursor.close();
 
-		return courseExists;
+		return hashes;
 	}
 
 	/**
-	 * Updates the student.<br>
-	 * <br>
-	 * Note: does not check if student exists.
-	 * 
 	 * @param context
-	 * @param student
-	 * @throws UpdateDatabaseException
+	 * @param kind
+	 *            one of {@link SyncStateTable#KIND_GROUP},
+	 *            {@link SyncStateTable#KIND_CONTACT} or
+	 *            {@link SyncStateTable#KIND_SELECTED_GROUP}.
+	 * @return the last seen versions of the specified kind, mapped by their
+	 *         contacts id.
 	 */
-	public static void updateStudent(Context context, Student student) throws UpdateDatabaseException {
+	static LongSparseArray<Long> getSyncVersions(Context context, int kind) {
 
-		if (student.getId() < 0)
-			throw new UpdateDatabaseException("Student has no id!");
+		final Cursor syncStateCursor = context.getContentResolver().query(PerformanceDatabaseContentProvider.CONTENT_URI_SYNC_STATE,//
+				new String[] { SyncStateTable.COL_SYNC_ID, SyncStateTable.COL_VERSION, },//
+				SyncStateTable.COL_KIND + " = ?",//
+				new String[] { String.valueOf(kind), },//
+				null);
 
-		final ContentValues values = StudentTable.from(student);
+		final LongSparseArray<Long> versions = new LongSparseArray<Long>(syncStateCursor.getCount());
+
+		if (syncStateCursor.moveToFirst()) {
+
+			final int syncIdIndex = syncStateCursor.getColumnIndexOrThrow(SyncStateTable.COL_SYNC_ID);
+			final int versionIndex = syncStateCursor.getColumnIndexOrThrow(SyncStateTable.COL_VERSION);
 
-		final int updated = context.getContentResolver().update(Uri.parse(PerformanceDatabaseContentProvider.CONTENT_URI_STUDENT + "/" + student.getId()),
-				values, null, null);
+			do {
 
-		if (updated != 1) {
+				versions.put(syncStateCursor.getLong(syncIdIndex), syncStateCursor.getLong(versionIndex));
 
-			throw new UpdateDatabaseException("Update of student failed!");
+			} while (syncStateCursor.moveToNext());
 		}
+
+		syncStateCursor.close();
+
+		return versions;
 	}
 
 	/**
-	 * Removes all courses from the database.
+	 * Adds recording the last seen version of a contact group or contact to
+	 * the batch.
 	 * 
-	 * @param context
+	 * @param batch
+	 * @param kind
+	 * @param syncId
+	 * @param version
 	 */
-	public static void removeAllCourses(Context context) {
+	static void setSyncVersion(ArrayList<ContentProviderOperation> batch, int kind, long syncId, long version) {
 
-		context.getContentResolver().delete(PerformanceDatabaseContentProvider.CONTENT_URI_COURSE, null, null);
+		batch.add(ContentProviderOperation.newInsert(PerformanceDatabaseContentProvider.CONTENT_URI_SYNC_STATE)//
+				.withValues(SyncStateTable.from(kind, syncId, version))//
+				.build());
 	}
 
 	/**
-	 * Removes all students from the database.
+	 * Adds recording the last seen versions of contact groups or contacts to
+	 * the batch.
 	 * 
-	 * @param context
+	 * @param batch
+	 * @param kind
+	 * @param versions
 	 */
-	public static void removeAllStudents(Context context) {
+	static void setSyncVersions(ArrayList<ContentProviderOperation> batch, int kind, LongSparseArray<Long> versions) {
 
-		context.getContentResolver().delete(PerformanceDatabaseContentProvider.CONTENT_URI_STUDENT, null, null);
+		for (int i = 0; i < versions.size(); i++)
+			setSyncVersion(batch, kind, versions.keyAt(i), versions.valueAt(i));
 	}
 
 	/**
-	 * Removes all courses except for the specified.
+	 * Adds forgetting the version of a contact group or contact to the batch.
 	 * 
+	 * @param batch
+	 * @param kind
+	 * @param syncId
+	 */
+	static void removeSyncVersion(ArrayList<ContentProviderOperation> batch, int kind, long syncId) {
+
+		batch.add(ContentProviderOperation.newDelete(PerformanceDatabaseContentProvider.CONTENT_URI_SYNC_STATE)//
+				.withSelection(SyncStateTable.COL_KIND + " = ? AND " + SyncStateTable.COL_SYNC_ID + " = ?",//
+						new String[] { String.valueOf(kind), String.valueOf(syncId), })//
+				.build());
+	}
+
+	/**
+	 * Adds forgetting all recorded versions of the kind to the batch.
+	 * 
+	 * @param batch
+	 * @param kind
+	 */
+	static void clearSyncVersions(ArrayList<ContentProviderOperation> batch, int kind) {
+
+		batch.add(ContentProviderOperation.newDelete(PerformanceDatabaseContentProvider.CONTENT_URI_SYNC_STATE)//
+				.withSelection(SyncStateTable.COL_KIND + " = ?", new String[] { String.valueOf(kind), })//
+				.build());
+	}
+
+	/**
 	 * @param context
-	 * @param courseIds
+	 * @param contactIds
+	 * @return the mirrored members of the selected contact group among the
+	 *         contacts as students, mapped by their id.
 	 */
-	public static void removeAllCoursesExcept(Context context, List<String> courseIds) {
-
-		if(courseIds.isEmpty()) {
-			
-			context.getContentResolver().delete(PerformanceDatabaseContentProvider.CONTENT_URI_COURSE, null, null);
-			
-		} else {
-			
-			context.getContentResolver().delete(PerformanceDatabaseContentProvider.CONTENT_URI_COURSE,
-					CourseTable.COL_ID + " NOT IN (" + CoasyDatabaseHelper.makePlaceholders(courseIds.size()) + ")",
-					courseIds.toArray(new String[courseIds.size()]));
-		}
+	static LongSparseArray<Student> getGroupMembersAsStudents(Context context, long[] contactIds) {
+
+		final LongSparseArray<Student> members = new LongSparseArray<Student>(contactIds.length);
+
+		if (contactIds.length == 0)
+			return members;
+
+		final Cursor memberCursor = context.getContentResolver().query(PerformanceDatabaseContentProvider.CONTENT_URI_GROUP_MEMBER,//
+				new String[] { GroupMemberTable.COL_ID, GroupMemberTable.COL_DISPLAY_NAME, },//
+				GroupMemberTable.COL_ID + " IN (" + TextUtils.join(", ", ArrayUtils.toObject(contactIds)) + ")",//
+				null,//
+				null);
+
+		new RowIterator<Student>(memberCursor, GroupMemberTable.newGroupMembersRowMapper()) {
+
+			@Override
+			protected void nextRow(int index, Student member) {
+
+				members.put(member.getId(), member);
+			}
+
+		}.iterate();
+
+		return members;
 	}
 
 	/**
-	 * Removes all students except for the specified.
+	 * Adds queueing a write to the contacts to the batch. Applied in the same
+	 * batch as the local write it belongs to, both are committed together.
 	 * 
+	 * @param batch
+	 * @param operation
+	 *            one of the OPERATION constants of the {@link OutboxTable}.
+	 * @param courseId
+	 * @param payload
+	 */
+	static void enqueueContactsWrite(ArrayList<ContentProviderOperation> batch, int operation, long courseId, String payload) {
+
+		batch.add(ContentProviderOperation.newInsert(PerformanceDatabaseContentProvider.CONTENT_URI_OUTBOX)//
+				.withValues(OutboxTable.from(operation, courseId, payload))//
+				.build());
+	}
+
+	/**
 	 * @param context
-	 * @param studentIds
+	 * @return a cursor on all queued writes to the contacts, oldest first.
 	 */
-	public static void removeAllStudentsExcept(Context context, List<String> studentIds) {
-
-		if(studentIds.isEmpty()) {
-			
-			context.getContentResolver().delete(PerformanceDatabaseContentProvider.CONTENT_URI_STUDENT, null, null);
-			
-		} else {
-			
-			context.getContentResolver().delete(PerformanceDatabaseContentProvider.CONTENT_URI_STUDENT,
-					CourseTable.COL_ID + " NOT IN (" + CoasyDatabaseHelper.makePlaceholders(studentIds.size()) + ")",
-					studentIds.toArray(new String[studentIds.size()]));
-		}
+	static Cursor getOutboxCursor(Context context) {
+
+		return context.getContentResolver().query(PerformanceDatabaseContentProvider.CONTENT_URI_OUTBOX,//
+				OutboxTable.ALL_COLUMNS,//
+				null,//
+				null,//
+				OutboxTable.COL_ID + " asc");
+	}
+
+	/**
+	 * Adds the removal of a queued write to the contacts to the batch.
+	 * 
+	 * @param batch
+	 * @param entryId
+	 */
+	static void removeOutboxEntry(ArrayList<ContentProviderOperation> batch, long entryId) {
+
+		batch.add(ContentProviderOperation.newDelete(PerformanceDatabaseContentProvider.getCONTENT_URI_OUTBOX(entryId)).build());
+	}
+
+	/**
+	 * Adds recording the failed attempts of a queued write to the contacts to
+	 * the batch.
+	 * 
+	 * @param batch
+	 * @param entryId
+	 * @param attempts
+	 */
+	static void setOutboxAttempts(ArrayList<ContentProviderOperation> batch, long entryId, int attempts) {
+
+		batch.add(ContentProviderOperation.newUpdate(PerformanceDatabaseContentProvider.getCONTENT_URI_OUTBOX(entryId))//
+				.withValue(OutboxTable.COL_ATTEMPTS, attempts)//
+				.build());
+	}
+
+	/**
+	 * Adds forgetting all recorded versions to the batch. The next refresh
+	 * will be a full rebuild.
+	 * 
+	 * @param batch
+	 */
+	static void clearSyncState(ArrayList<ContentProviderOperation> batch) {
+
+		batch.add(ContentProviderOperation.newDelete(PerformanceDatabaseContentProvider.CONTENT_URI_SYNC_STATE).build());
 	}
 }
@@ -58,6 +58,24 @@ public interface IPersistenceManager {
 	 */
 	public Loader<Cursor> allCoursesCursorLoader();
 
+	/**
+	 * @param query
+	 *            the text the user typed. Every word of it is matched as
+	 *            prefix of the display name, the contact name or the address.
+	 * @return a {@link CursorLoader} on the matching students of all courses.
+	 *         If the query contains no words, on all of them.
+	 */
+	public Loader<Cursor> searchStudentsCursorLoader(String query);
+
+	/**
+	 * @param query
+	 *            the text the user typed. Every word of it is matched as
+	 *            prefix of the title, the description or the address.
+	 * @return a {@link CursorLoader} on the matching courses. If the query
+	 *         contains no words, on all of them.
+	 */
+	public Loader<Cursor> searchCoursesCursorLoader(String query);
+
 	/**
 	 * Creates the specified {@link Course}.<br>
 	 * This method is synchronized.
@@ -117,6 +135,18 @@ public interface IPersistenceManager {
 	 */
 	public boolean removeStudentFromCourse(long contactId, long courseId);
 
+	/**
+	 * Removes the students from the course. The performance database is
+	 * updated with a single batch, the contacts are updated in the
+	 * background.<br>
+	 * This method is synchronized.
+	 * 
+	 * @param courseId
+	 * @param contactIds
+	 * @return true on success, false otherwise.
+	 */
+	public boolean removeStudentsFromCourse(long courseId, long[] contactIds);
+
 	/**
 	 * Adds the student to the course.<br>
 	 * This method is synchronized.
@@ -128,9 +158,32 @@ public interface IPersistenceManager {
 	public boolean addStudentToCourse(long contactId, long courseId);
 
 	/**
-	 * Refreshes the performance database from the contacts.
+	 * Adds the students to the course. Students which are already in the
+	 * course are skipped. The performance database is updated with a single
+	 * batch, the contacts are updated in the background.<br>
+	 * This method is synchronized.
+	 * 
+	 * @param courseId
+	 * @param contactIds
+	 * @return true on success, false otherwise.
+	 */
+	public boolean addStudentsToCourse(long courseId, long[] contactIds);
+
+	/**
+	 * Refreshes the performance database from the contacts. Only the groups
+	 * and contacts which changed since the last refresh are mirrored. If there
+	 * was no refresh yet, the database is rebuilt.<br>
+	 * This method blocks, use {@link ContactsSyncScheduler#refresh()} on the ui
+	 * thread.
 	 * @throws AbstractDatabaseException 
 	 */
 	public void refreshDatabaseFromContacts() throws AbstractDatabaseException;
 
+	/**
+	 * Rebuilds the performance database from all contacts. Use this as
+	 * fallback if the incremental refresh is not sufficient.
+	 * @throws AbstractDatabaseException 
+	 */
+	public void rebuildDatabaseFromContacts() throws AbstractDatabaseException;
+
 }
@@ -31,24 +31,22 @@
 package at.ameise.coasy.domain.persistence;
 
 import java.util.ArrayList;
-import java.util.List;
 
 import org.apache.commons.lang3.ArrayUtils;
 
+import android.content.ContentProviderOperation;
 import android.content.Context;
-import android.content.CursorLoader;
 import android.content.Loader;
 import android.database.Cursor;
 import android.provider.ContactsContract;
-import android.provider.ContactsContract.Contacts;
+import android.support.v4.util.LongSparseArray;
 import at.ameise.coasy.domain.Course;
 import at.ameise.coasy.domain.Student;
-import at.ameise.coasy.domain.persistence.database.CoasyDatabaseHelper;
 import at.ameise.coasy.domain.persistence.database.CourseTable;
+import at.ameise.coasy.domain.persistence.database.SyncStateTable;
 import at.ameise.coasy.exception.AbstractContactsException;
 import at.ameise.coasy.exception.AbstractDatabaseException;
 import at.ameise.coasy.exception.CreateDatabaseException;
-import at.ameise.coasy.util.CursorIterator;
 import at.ameise.coasy.util.Logger;
 import at.ameise.coasy.util.SettingsUtil;
 
@@ -63,16 +61,28 @@ import at.ameise.coasy.util.SettingsUtil;
  * joins. All modification operations operate on both data sources. The read
  * operations operate on the performance database.<br>
  * <br>
+ * Except for creating a course, which needs the id of the new contact group,
+ * the modification operations only write to the performance database and
+ * queue the matching contacts writes in the same transaction. The
+ * {@link ContactsOutbox} writes them to the contacts in the background, so
+ * the modification operations do not wait for the contacts provider.<br>
+ * <br>
  * It is encouraged to do a periodical "write-back" from the contacts to the
  * performance database. And also a, maybe synchronous, write-back on
- * application start. <br>
+ * application start. The write-back is incremental, only groups and contacts
+ * which changed since the last write-back are mirrored again.<br>
  * <br>
- * If its possible to receive broadcasts when google is synchronizing its
- * contacts, a write-back afterwards would be optimal.<br>
+ * The {@link ContactsSyncScheduler} does a write-back whenever the contacts
+ * change, i.e. after google synchronized them.<br>
  * <br>
- * Further more, all modification operations are synchronized methods.
- * 
- * TODO make transactional
+ * Further more, all modification operations are synchronized methods. A
+ * write-back drains the outbox and reads the contacts without the lock, so
+ * the modification operations do not wait for it. It only takes the lock to
+ * apply its changes as a single batch, hence in a single transaction, and
+ * discards them if a modification operation ran since it started, the next
+ * write-back picks the changes up. The courses and contacts with contacts
+ * writes still pending in the outbox are skipped by the write-back until
+ * their writes went through.
  * 
  * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
  * 
@@ -102,8 +112,16 @@ public final class ProductionPersistenceManager implements IPersistenceManager {
 	 */
 	private Context mContext;
 
+	/**
+	 * The number of modification operations so far, guarded by this.
+	 */
+	private int mLocalWrites = 0;
+
 	private ProductionPersistenceManager(Context context) {
 		mContext = context;
+
+		// replay the contacts writes which were pending when the process died
+		ContactsOutbox.getInstance(mContext).schedule();
 	}
 
 	@Override
@@ -118,6 +136,24 @@ public final class ProductionPersistenceManager implements IPersistenceManager {
 		return DatabaseHelper.getAllCoursesCursorLoader(mContext);
 	}
 
+	@Override
+	public Loader<Cursor> searchStudentsCursorLoader(String query) {
+
+		if (!hasWords(query))
+			return DatabaseHelper.getAllStudentsCursorLoader(mContext);
+
+		return DatabaseHelper.getStudentsSearchCursorLoader(mContext, query);
+	}
+
+	@Override
+	public Loader<Cursor> searchCoursesCursorLoader(String query) {
+
+		if (!hasWords(query))
+			return DatabaseHelper.getAllCoursesCursorLoader(mContext);
+
+		return DatabaseHelper.getCoursesSearchCursorLoader(mContext, query);
+	}
+
 	@Override
 	public synchronized boolean create(Course course) {
 
@@ -126,6 +162,8 @@ public final class ProductionPersistenceManager implements IPersistenceManager {
 
 		try {
 
+			mLocalWrites++;
+
 			ContactsContractHelper.createContactGroup(mContext, course);
 
 			DatabaseHelper.createCourse(mContext, course);
@@ -153,91 +191,86 @@ public final class ProductionPersistenceManager implements IPersistenceManager {
 	@Override
 	public Loader<Cursor> contactsNotInCourseCursorLoader(long courseId) {
 
-		Cursor studentIdsCursor = ContactsContractHelper.getContactIdsOfGroupCursor(mContext, courseId);
-
-		final String[] studentIds = new String[studentIdsCursor.getCount()];
-		new CursorIterator(studentIdsCursor) {
-			@Override
-			protected void next(int index, Cursor cursor) {
-
-				studentIds[index] = String
-						.valueOf(cursor.getLong(cursor.getColumnIndexOrThrow(ContactsContract.CommonDataKinds.GroupMembership.RAW_CONTACT_ID)));
-			}
-		}.iterate();
-
-		Cursor contactIdsCursor = ContactsContractHelper.getContactIdsOfGroupCursor(mContext, SettingsUtil.getSelectedGroup(mContext));
-
-		final String[] contactIds = new String[contactIdsCursor.getCount()];
-		new CursorIterator(contactIdsCursor) {
-			@Override
-			protected void next(int index, Cursor cursor) {
+		return DatabaseHelper.getContactsNotInCourseCursorLoader(mContext, courseId);
+	}
 
-				contactIds[index] = String
-						.valueOf(cursor.getLong(cursor.getColumnIndexOrThrow(ContactsContract.CommonDataKinds.GroupMembership.RAW_CONTACT_ID)));
-			}
-		}.iterate();
+	@Override
+	public synchronized boolean removeStudentFromCourse(long contactId, long courseId) {
 
-		if (contactIds.length > 0) {
+		return removeStudentsFromCourse(courseId, new long[] { contactId, });
+	}
 
-			String selection = null;
-			if (studentIds.length > 0) {
+	@Override
+	public synchronized boolean removeStudentsFromCourse(long courseId, long[] contactIds) {
 
-				selection = ContactsContract.Contacts._ID + " IN (" + CoasyDatabaseHelper.makePlaceholders(contactIds.length) + ") AND "
-						+ ContactsContract.Contacts._ID + " NOT IN (" + CoasyDatabaseHelper.makePlaceholders(studentIds.length) + ")";
+		try {
 
-			} else {
+			final ArrayList<ContentProviderOperation> batch = new ArrayList<ContentProviderOperation>(contactIds.length + 1);
+			for (long contactId : contactIds)
+				DatabaseHelper.removeStudentFromCourse(batch, contactId, courseId);
+			ContactsOutbox.enqueueRemoveMembers(batch, courseId, contactIds);
+			mLocalWrites++;
+			DatabaseHelper.applyBatch(mContext, batch);
 
-				selection = ContactsContract.Contacts._ID + " IN (" + CoasyDatabaseHelper.makePlaceholders(contactIds.length) + ")";
-			}
+			ContactsOutbox.getInstance(mContext).schedule();
 
-			return new CursorLoader(mContext, Contacts.CONTENT_URI,//
-					null, //
-					selection,//
-					ArrayUtils.addAll(contactIds, studentIds),//
-					ContactsContract.Contacts.DISPLAY_NAME_PRIMARY + " asc");
+			return true;
 
-		} else {
+		} catch (AbstractDatabaseException e) {
 
-			return new CursorLoader(mContext, Contacts.CONTENT_URI,//
-					null, //
-					ContactsContract.Contacts._ID + " = -1",//
-					null,//
-					ContactsContract.Contacts.DISPLAY_NAME + " asc");
+			Logger.error(TAG, "Failed to remove students from course!", e);
 		}
+
+		return false;
 	}
 
 	@Override
-	public synchronized boolean removeStudentFromCourse(long contactId, long courseId) {
-
-		ContactsContractHelper.removeContactFromGroup(mContext, contactId, courseId);
-
-		DatabaseHelper.removeStudentFromCourse(mContext, contactId, courseId);
+	public synchronized boolean addStudentToCourse(long contactId, long courseId) {
 
-		return true;
+		return addStudentsToCourse(courseId, new long[] { contactId, });
 	}
 
 	@Override
-	public synchronized boolean addStudentToCourse(long contactId, long courseId) {
+	public synchronized boolean addStudentsToCourse(long courseId, long[] contactIds) {
 
 		try {
 
-			Student student = ContactsContractHelper.getContactAsStudent(mContext, contactId);
+			// the candidates are the mirrored members of the selected group, only the others are read from the contacts
+			final LongSparseArray<Student> students = DatabaseHelper.getGroupMembersAsStudents(mContext, contactIds);
+
+			if (students.size() != contactIds.length) {
 
-			if (!DatabaseHelper.doesStudentExist(mContext, contactId)) {
+				final long[] missingIds = new long[contactIds.length - students.size()];
+				int missing = 0;
+				for (long contactId : contactIds)
+					if (students.get(contactId) == null)
+						missingIds[missing++] = contactId;
 
-				Logger.debug(TAG, "There is no student for the contact, creating it!");
-				DatabaseHelper.createStudent(mContext, student);
+				final LongSparseArray<Student> contacts = ContactsContractHelper.getContactsAsStudents(mContext, missingIds);
+				for (int i = 0; i < contacts.size(); i++)
+					students.put(contacts.keyAt(i), contacts.valueAt(i));
 			}
 
-			ContactsContractHelper.addContactToGroup(mContext, contactId, courseId);
+			final ArrayList<ContentProviderOperation> batch = new ArrayList<ContentProviderOperation>(2 * students.size() + 1);
+			for (int i = 0; i < students.size(); i++) {
 
-			DatabaseHelper.addStudentToCourse(mContext, contactId, courseId);
+				DatabaseHelper.upsertStudent(batch, students.valueAt(i));
+				DatabaseHelper.addStudentToCourse(batch, students.keyAt(i), courseId);
+			}
+			ContactsOutbox.enqueueAddMembers(batch, courseId, keysOf(students));
+			mLocalWrites++;
+			DatabaseHelper.applyBatch(mContext, batch);
+
+			ContactsOutbox.getInstance(mContext).schedule();
+
+			if (students.size() != contactIds.length)
+				Logger.warn(TAG, (contactIds.length - students.size()) + " of the contacts do not exist anymore.");
 
 			return true;
 
 		} catch (AbstractDatabaseException e) {
 
-			Logger.error(TAG, "Failed to add student to course!", e);
+			Logger.error(TAG, "Failed to add students to course!", e);
 		}
 
 		return false;
@@ -250,6 +283,7 @@ public final class ProductionPersistenceManager implements IPersistenceManager {
 
 			Student student = ContactsContractHelper.getContactAsStudent(mContext, contactId);
 
+			mLocalWrites++;
 			DatabaseHelper.createStudent(mContext, student);
 
 			return true;
@@ -269,22 +303,22 @@ public final class ProductionPersistenceManager implements IPersistenceManager {
 	}
 
 	@Override
-	public boolean save(Course course) {
+	public synchronized boolean save(Course course) {
 
 		if (course.getId() < 0)
 			throw new IllegalArgumentException("Course has no id!");
 
 		try {
-			
-			ContactsContractHelper.updateContactGroup(mContext, course);
-			
-			DatabaseHelper.updateCourse(mContext, course);
-			
-			return true;
-			
-		} catch (AbstractContactsException e) {
 
-			Logger.error(TAG, "Failed to update contacts group!", e);
+			final ArrayList<ContentProviderOperation> batch = new ArrayList<ContentProviderOperation>(2);
+			DatabaseHelper.updateCourse(batch, course);
+			ContactsOutbox.enqueueUpdateGroup(batch, course);
+			mLocalWrites++;
+			DatabaseHelper.applyBatch(mContext, batch);
+
+			ContactsOutbox.getInstance(mContext).schedule();
+
+			return true;
 
 		} catch (AbstractDatabaseException e) {
 
@@ -297,6 +331,99 @@ public final class ProductionPersistenceManager implements IPersistenceManager {
 	@Override
 	public void refreshDatabaseFromContacts() throws AbstractDatabaseException {
 
+		if (!prepareRefresh())
+			return;
+
+		// the writes up to here are either drained or pending afterwards
+		final int localWrites = getLocalWrites();
+		final ContactsOutbox outbox = ContactsOutbox.getInstance(mContext);
+		final boolean drained = outbox.drainUnlessRetrying();
+
+		final LongSparseArray<Long> knownGroupVersions = DatabaseHelper.getSyncVersions(mContext, SyncStateTable.KIND_GROUP);
+		final LongSparseArray<Long> knownContactVersions = DatabaseHelper.getSyncVersions(mContext, SyncStateTable.KIND_CONTACT);
+
+		if (knownGroupVersions.size() == 0 && knownContactVersions.size() == 0) {
+
+			if (!drained) {
+
+				Logger.info(TAG, "No sync state found, but contacts writes are still pending, skipping the rebuild.");
+				return;
+			}
+
+			Logger.info(TAG, "No sync state found, falling back to a full rebuild.");
+			rebuild(localWrites);
+
+		} else if (drained) {
+
+			Logger.info(TAG, "Refreshing changed courses and students.");
+			refreshChanged(localWrites, knownGroupVersions, knownContactVersions, new LongSparseArray<Boolean>(), new LongSparseArray<Boolean>());
+
+		} else {
+
+			Logger.info(TAG, "Contacts writes are still pending, refreshing the other courses and students.");
+			refreshChanged(localWrites, knownGroupVersions, knownContactVersions, outbox.getPendingCourseIds(), outbox.getPendingContactIds());
+		}
+	}
+
+	@Override
+	public void rebuildDatabaseFromContacts() throws AbstractDatabaseException {
+
+		if (!prepareRefresh())
+			return;
+
+		final int localWrites = getLocalWrites();
+
+		if (!ContactsOutbox.getInstance(mContext).drainUnlessRetrying()) {
+
+			Logger.info(TAG, "Contacts writes are still pending, skipping the rebuild.");
+			return;
+		}
+
+		rebuild(localWrites);
+	}
+
+	/**
+	 * @return the number of modification operations so far.
+	 */
+	private synchronized int getLocalWrites() {
+
+		return mLocalWrites;
+	}
+
+	/**
+	 * Applies the batch of a write-back, unless a modification operation ran
+	 * since it started. The contacts it read might miss the local write then
+	 * and the batch would revert it.
+	 * 
+	 * @param batch
+	 * @param localWrites
+	 *            the number of modification operations when the write-back
+	 *            started.
+	 * @return true if the batch was applied.
+	 * @throws AbstractDatabaseException
+	 */
+	private synchronized boolean applyRefresh(ArrayList<ContentProviderOperation> batch, int localWrites) throws AbstractDatabaseException {
+
+		if (localWrites != mLocalWrites) {
+
+			Logger.info(TAG, "The database was modified in the meantime, discarding the refresh.");
+			return false;
+		}
+
+		Logger.debug(TAG, "Applying " + batch.size() + " operations.");
+		DatabaseHelper.applyBatch(mContext, batch);
+
+		return true;
+	}
+
+	/**
+	 * Makes sure there is a selected account. If there is none, it tries to
+	 * recover the settings from the contacts.
+	 * 
+	 * @return true if the database can be refreshed, false otherwise.
+	 */
+	private boolean prepareRefresh() {
+
 		//check if coasy data exists
 		if(!SettingsUtil.isAccountSelected(mContext)) {
 			
@@ -312,7 +439,8 @@ public final class ProductionPersistenceManager implements IPersistenceManager {
 			} else {
 				
 				Logger.info(TAG, "No account found, aborting recreate since coasy was not installed previously!");
-				return;
+				coasySettingsCursor.close();
+				return false;
 			}
 			
 			coasySettingsCursor.close();
@@ -321,79 +449,372 @@ public final class ProductionPersistenceManager implements IPersistenceManager {
 			
 			Logger.info(TAG, "Coasy account setting found, refreshing database.");
 		}
+
+		return true;
+	}
+
+	/**
+	 * Rebuilds the whole performance database from the contacts and records
+	 * the versions of all groups and contacts. All changes are written in a
+	 * single transaction. The outbox has to be drained, the rebuild would
+	 * revert the pending contacts writes otherwise. Afterwards, the aggregates
+	 * of the courses are checked.
+	 * 
+	 * @param localWrites
+	 *            the number of modification operations when the write-back
+	 *            started.
+	 * @throws AbstractDatabaseException
+	 */
+	private void rebuild(int localWrites) throws AbstractDatabaseException {
 		
 		Logger.info(TAG, "Reloading courses and students.");
 		
+		//read the versions before the data, changes in between are picked up by the next refresh
+		final LongSparseArray<Long> contactVersions = ContactsContractHelper.getContactVersions(mContext);
+		if (contactVersions == null) {
+			
+			Logger.info(TAG, "The account was unselected in the meantime, skipping the rebuild.");
+			return;
+		}
+		
+		final ArrayList<ContentProviderOperation> batch = new ArrayList<ContentProviderOperation>();
+		
+		DatabaseHelper.clearSyncState(batch);
+		
+		final LongSparseArray<Long> groupVersions = new LongSparseArray<Long>();
+		final LongSparseArray<Long> courseContentHashes = DatabaseHelper.getCourseContentHashes(mContext);
+		
 		//get all coasy groups
 		Cursor coasyGroupCursor = ContactsContractHelper.getAllCoasyGroups(mContext);
 		if(coasyGroupCursor.moveToFirst()) {
 			
-			final List<String> courseIds = new ArrayList<String>();
-			final List<String> studentIds = new ArrayList<String>();
+			final LongSparseArray<Boolean> studentIds = new LongSparseArray<Boolean>();
+			final LongSparseArray<long[]> mirroredMemberships = new LongSparseArray<long[]>();
 			
 			do {
 				long groupRowId = coasyGroupCursor.getLong(coasyGroupCursor.getColumnIndex(ContactsContract.Groups._ID));
-				courseIds.add(String.valueOf(groupRowId));
+				groupVersions.put(groupRowId, coasyGroupCursor.getLong(coasyGroupCursor.getColumnIndex(ContactsContract.Groups.VERSION)));
+				
+				if(isCourseUnchanged(coasyGroupCursor, groupRowId, courseContentHashes))
+					continue;
 				
 				Course course = CourseTable.fromContactsCursor(coasyGroupCursor);
 				
 				//create or update the groups in the database
-				if(DatabaseHelper.doesCourseExist(mContext, groupRowId)) {
-
-					Logger.debug(TAG, "Course '"+course.getTitle()+"' does exist, updating it.");
-					//update course
-					DatabaseHelper.updateCourse(mContext, course);
-					
-				} else {
-
-					Logger.debug(TAG, "Course '"+course.getTitle()+"' does not exist, creating it.");
-					//create course
-					DatabaseHelper.createCourse(mContext, course);
-				}
+				Logger.debug(TAG, "Mirroring course '"+course.getTitle()+"'.");
+				DatabaseHelper.upsertCourse(batch, course);
+				
+			} while(coasyGroupCursor.moveToNext());
+			
+			//get the students of all groups at once
+			final LongSparseArray<long[]> memberships = ContactsContractHelper.getGroupMembershipsOfGroups(mContext, keysOf(groupVersions));
+			final LongSparseArray<Student> students = ContactsContractHelper.getContactsAsStudents(mContext, keysOf(memberships));
+			
+			for(int i = 0; i < memberships.size(); i++) {
 				
-				//get the students from these groups
-				Cursor contactsOfGroupCursor = ContactsContractHelper.getContactIdsOfGroupCursor(mContext, course.getId());
-				if(contactsOfGroupCursor.moveToFirst()) {
+				final long contactId = memberships.keyAt(i);
+				final Student student = students.get(contactId);
+				
+				if(student == null) {
 					
-					do {
-						
-						long contactId = contactsOfGroupCursor.getLong(contactsOfGroupCursor.getColumnIndex(ContactsContract.CommonDataKinds.GroupMembership.RAW_CONTACT_ID));
-						studentIds.add(String.valueOf(contactId));
-						
-						if(DatabaseHelper.doesStudentExist(mContext, contactId)) {
-							
-							Logger.debug(TAG, "Student does exist, updating it.");
-							DatabaseHelper.updateStudent(mContext, ContactsContractHelper.getContactAsStudent(mContext, contactId));
-							
-						} else {
-							
-							Logger.debug(TAG, "Student does not yet exist, creating it.");
-							createStudent(contactId);
-						}
-						
-						//add all students from the course
-						DatabaseHelper.addStudentToCourse(mContext, contactId, groupRowId);
-						
-					} while(contactsOfGroupCursor.moveToNext());
+					Logger.warn(TAG, "Contact " + contactId + " was removed in the meantime, skipping it.");
+					continue;
 				}
 				
-				contactsOfGroupCursor.close();
+				studentIds.put(contactId, Boolean.TRUE);
+				mirroredMemberships.put(contactId, memberships.valueAt(i));
+				DatabaseHelper.upsertStudent(batch, student);
 				
-			} while(coasyGroupCursor.moveToNext());
+				//add the student to all its courses
+				for(long groupRowId : memberships.valueAt(i))
+					DatabaseHelper.addStudentToCourse(batch, contactId, groupRowId);
+			}
 			
 			Logger.debug(TAG, "Removing obsolete courses and students.");
-			DatabaseHelper.removeAllCoursesExcept(mContext, courseIds);
-			DatabaseHelper.removeAllStudentsExcept(mContext, studentIds);
+			DatabaseHelper.removeAllCoursesExcept(batch, keysOf(groupVersions));
+			DatabaseHelper.removeAllStudentsExcept(batch, keysOf(studentIds));
+			DatabaseHelper.removeAllCourseStudentsExcept(batch, mirroredMemberships);
 			
 		} else {
 			
 			Logger.info(TAG, "No coasy groups found.");
 			Logger.debug(TAG, "Removing all courses and students.");
-			DatabaseHelper.removeAllCourses(mContext);
-			DatabaseHelper.removeAllStudents(mContext);
+			DatabaseHelper.removeAllCourseStudents(batch);
+			DatabaseHelper.removeAllCourses(batch);
+			DatabaseHelper.removeAllStudents(batch);
 		}
 		
 		coasyGroupCursor.close();
+		
+		mirrorSelectedGroup(batch);
+		
+		DatabaseHelper.setSyncVersions(batch, SyncStateTable.KIND_GROUP, groupVersions);
+		DatabaseHelper.setSyncVersions(batch, SyncStateTable.KIND_CONTACT, contactVersions);
+		
+		if (!applyRefresh(batch, localWrites))
+			return;
+
+		final int repairedCourses = DatabaseHelper.checkCourseAggregates(mContext);
+		if (repairedCourses > 0)
+			Logger.warn(TAG, "The aggregates of " + repairedCourses + " courses were out of sync, repaired them.");
+	}
+
+	/**
+	 * Only mirrors the groups and contacts whose version differs from the one
+	 * recorded by the previous refresh. All changes are written in a single
+	 * transaction. The courses and contacts with pending contacts writes are
+	 * skipped and their versions are not recorded, so the next refresh
+	 * mirrors them once their writes went through.
+	 * 
+	 * @param localWrites
+	 *            the number of modification operations when the write-back
+	 *            started.
+	 * @param knownGroupVersions
+	 *            the group versions recorded by the previous refresh.
+	 * @param knownContactVersions
+	 *            the contact versions recorded by the previous refresh.
+	 * @param pendingCourseIds
+	 *            the ids of the courses with pending contacts writes as keys.
+	 * @param pendingContactIds
+	 *            the ids of the contacts with pending membership changes as
+	 *            keys.
+	 * @throws AbstractDatabaseException
+	 */
+	private void refreshChanged(int localWrites, LongSparseArray<Long> knownGroupVersions, LongSparseArray<Long> knownContactVersions,
+			LongSparseArray<Boolean> pendingCourseIds, LongSparseArray<Boolean> pendingContactIds) throws AbstractDatabaseException {
+
+		//read the versions before the data, changes in between are picked up by the next refresh
+		final LongSparseArray<Long> contactVersions = ContactsContractHelper.getContactVersions(mContext);
+		if (contactVersions == null) {
+
+			Logger.info(TAG, "The account was unselected in the meantime, skipping the refresh.");
+			return;
+		}
+
+		final ArrayList<ContentProviderOperation> batch = new ArrayList<ContentProviderOperation>();
+		final LongSparseArray<Long> groupVersions = new LongSparseArray<Long>();
+		final LongSparseArray<Long> courseContentHashes = DatabaseHelper.getCourseContentHashes(mContext);
+
+		final Cursor coasyGroupCursor = ContactsContractHelper.getAllCoasyGroups(mContext);
+		try {
+
+			if (coasyGroupCursor.moveToFirst()) {
+
+				final int idIndex = coasyGroupCursor.getColumnIndexOrThrow(ContactsContract.Groups._ID);
+				final int versionIndex = coasyGroupCursor.getColumnIndexOrThrow(ContactsContract.Groups.VERSION);
+
+				do {
+
+					final long groupRowId = coasyGroupCursor.getLong(idIndex);
+					final long version = coasyGroupCursor.getLong(versionIndex);
+					final Long knownVersion = knownGroupVersions.get(groupRowId);
+
+					groupVersions.put(groupRowId, version);
+
+					if (pendingCourseIds.get(groupRowId) != null) {
+
+						Logger.debug(TAG, "Course " + groupRowId + " has pending contacts writes, skipping it.");
+
+					} else if (knownVersion == null || knownVersion.longValue() != version) {
+
+						if (!isCourseUnchanged(coasyGroupCursor, groupRowId, courseContentHashes)) {
+
+							final Course course = CourseTable.fromContactsCursor(coasyGroupCursor);
+
+							Logger.debug(TAG, "Course '" + course.getTitle() + "' has changed, mirroring it.");
+							DatabaseHelper.upsertCourse(batch, course);
+						}
+
+						DatabaseHelper.setSyncVersion(batch, SyncStateTable.KIND_GROUP, groupRowId, version);
+					}
+
+				} while (coasyGroupCursor.moveToNext());
+			}
+
+		} finally {
+
+			coasyGroupCursor.close();
+		}
+
+		for (int i = 0; i < knownGroupVersions.size(); i++) {
+
+			final long groupRowId = knownGroupVersions.keyAt(i);
+
+			if (groupVersions.get(groupRowId) == null && pendingCourseIds.get(groupRowId) == null) {
+
+				Logger.debug(TAG, "Course " + groupRowId + " was removed, removing it.");
+				DatabaseHelper.removeCourse(batch, groupRowId);
+				DatabaseHelper.removeSyncVersion(batch, SyncStateTable.KIND_GROUP, groupRowId);
+			}
+		}
+
+		for (int i = 0; i < knownContactVersions.size(); i++) {
+
+			final long contactId = knownContactVersions.keyAt(i);
+
+			if (contactVersions.get(contactId) == null && pendingContactIds.get(contactId) == null) {
+
+				Logger.debug(TAG, "Contact " + contactId + " was removed, removing the student.");
+				DatabaseHelper.removeStudent(batch, contactId);
+				DatabaseHelper.removeGroupMember(batch, contactId);
+				DatabaseHelper.removeSyncVersion(batch, SyncStateTable.KIND_CONTACT, contactId);
+			}
+		}
+
+		final long selectedGroupId = SettingsUtil.getSelectedGroup(mContext);
+
+		if (DatabaseHelper.getSyncVersions(mContext, SyncStateTable.KIND_SELECTED_GROUP).get(selectedGroupId) == null) {
+
+			Logger.debug(TAG, "The selected contact group has changed, mirroring it.");
+			mirrorSelectedGroup(batch);
+		}
+
+		final LongSparseArray<Long> changedContactVersions = new LongSparseArray<Long>();
+
+		for (int i = 0; i < contactVersions.size(); i++) {
+
+			final long contactId = contactVersions.keyAt(i);
+			final long version = contactVersions.valueAt(i);
+			final Long knownVersion = knownContactVersions.get(contactId);
+
+			if ((knownVersion == null || knownVersion.longValue() != version) && pendingContactIds.get(contactId) == null)
+				changedContactVersions.put(contactId, version);
+		}
+
+		if (changedContactVersions.size() > 0) {
+
+			Logger.debug(TAG, changedContactVersions.size() + " contacts have changed, refreshing them.");
+			refreshStudents(batch, keysOf(changedContactVersions), groupVersions, selectedGroupId);
+			DatabaseHelper.setSyncVersions(batch, SyncStateTable.KIND_CONTACT, changedContactVersions);
+		}
+
+		Logger.debug(TAG, "Removing students which are not in any course anymore.");
+		DatabaseHelper.removeStudentsWithoutCourse(batch);
+
+		applyRefresh(batch, localWrites);
+	}
+
+	/**
+	 * Adds mirroring the members of the contact group selected in the user
+	 * settings to the batch and records the group as mirrored.
+	 * 
+	 * @param batch
+	 * @throws AbstractDatabaseException
+	 */
+	private void mirrorSelectedGroup(ArrayList<ContentProviderOperation> batch) throws AbstractDatabaseException {
+
+		final long selectedGroupId = SettingsUtil.getSelectedGroup(mContext);
+		final LongSparseArray<long[]> memberships = ContactsContractHelper.getGroupMembershipsOfGroups(mContext, new long[] { selectedGroupId, });
+		final LongSparseArray<Student> members = ContactsContractHelper.getContactsAsStudents(mContext, keysOf(memberships));
+
+		for (int i = 0; i < members.size(); i++)
+			DatabaseHelper.upsertGroupMember(batch, members.valueAt(i));
+
+		DatabaseHelper.removeAllGroupMembersExcept(batch, keysOf(members));
+
+		DatabaseHelper.clearSyncVersions(batch, SyncStateTable.KIND_SELECTED_GROUP);
+		DatabaseHelper.setSyncVersion(batch, SyncStateTable.KIND_SELECTED_GROUP, selectedGroupId, 0);
+	}
+
+	/**
+	 * Adds mirroring the students, their course mappings and their membership
+	 * in the selected contact group of the specified contacts to the batch.
+	 * 
+	 * @param batch
+	 * @param contactIds
+	 * @param courseIds
+	 *            the ids of all courses as keys.
+	 * @param selectedGroupId
+	 *            the contact group selected in the user settings.
+	 * @throws AbstractDatabaseException
+	 */
+	private void refreshStudents(ArrayList<ContentProviderOperation> batch, long[] contactIds, LongSparseArray<Long> courseIds, long selectedGroupId)
+			throws AbstractDatabaseException {
+
+		final LongSparseArray<long[]> memberships = ContactsContractHelper.getGroupMembershipsOfContacts(mContext, contactIds);
+
+		//only the contacts in a course or in the selected group are needed
+		final LongSparseArray<Boolean> neededIds = new LongSparseArray<Boolean>();
+		for (int i = 0; i < memberships.size(); i++)
+			for (long groupRowId : memberships.valueAt(i))
+				if (groupRowId == selectedGroupId || courseIds.get(groupRowId) != null)
+					neededIds.put(memberships.keyAt(i), Boolean.TRUE);
+
+		final LongSparseArray<Student> contacts = ContactsContractHelper.getContactsAsStudents(mContext, keysOf(neededIds));
+
+		for (long contactId : contactIds) {
+
+			final Student contact = contacts.get(contactId);
+			final long[] groupRowIds = contact != null ? memberships.get(contactId) : ArrayUtils.EMPTY_LONG_ARRAY;
+			boolean inCourse = false;
+
+			DatabaseHelper.removeStudentFromAllCourses(batch, contactId);
+
+			for (long groupRowId : groupRowIds) {
+
+				if (courseIds.get(groupRowId) != null) {
+
+					DatabaseHelper.addStudentToCourse(batch, contactId, groupRowId);
+					inCourse = true;
+				}
+			}
+
+			if (inCourse)
+				DatabaseHelper.upsertStudent(batch, contact);
+			else
+				DatabaseHelper.removeStudent(batch, contactId);
+
+			if (ArrayUtils.contains(groupRowIds, selectedGroupId))
+				DatabaseHelper.upsertGroupMember(batch, contact);
+			else
+				DatabaseHelper.removeGroupMember(batch, contactId);
+		}
+	}
+
+	/**
+	 * Compares the content hash in the header of the course payload with the
+	 * mirrored course, so unchanged courses are not decoded at all.
+	 * 
+	 * @param coasyGroupCursor
+	 *            cursor on the coasy group of the course.
+	 * @param groupRowId
+	 * @param courseContentHashes
+	 *            the content hashes of the mirrored courses.
+	 * @return true if the mirrored course is up to date.
+	 */
+	private static boolean isCourseUnchanged(Cursor coasyGroupCursor, long groupRowId, LongSparseArray<Long> courseContentHashes) {
+
+		final Long contentHash = CourseTable.contentHashFromContactsCursor(coasyGroupCursor);
+
+		return contentHash != null && contentHash.equals(courseContentHashes.get(groupRowId));
+	}
+
+	/**
+	 * @param query
+	 * @return true if the query contains a letter or a digit to search for.
+	 */
+	private static boolean hasWords(String query) {
+
+		if (query != null)
+			for (int i = 0; i < query.length(); i++)
+				if (Character.isLetterOrDigit(query.charAt(i)))
+					return true;
+
+		return false;
+	}
+
+	/**
+	 * @param array
+	 * @return the keys of the array.
+	 */
+	static long[] keysOf(LongSparseArray<?> array) {
+
+		final long[] keys = new long[array.size()];
+
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = array.keyAt(i);
+
+		return keys;
 	}
 
 }
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.persistence;
+
+import java.util.Arrays;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.provider.ContactsContract;
+import android.support.v4.util.LongSparseArray;
+import at.ameise.coasy.util.Logger;
+import at.ameise.coasy.util.SettingsUtil;
+
+/**
+ * Caches the raw contact id used for the group memberships of a contact. The
+ * entries are kept in two sorted primitive arrays, so there is no boxing on a
+ * lookup. The cache holds at most {@link RawContactIdCache#MAX_ENTRIES}
+ * entries, if it is full, it is cleared.<br>
+ * <br>
+ * A change of the raw contacts marks the cache as stale, since a contact may
+ * have been joined with or split from other raw contacts. Before the next
+ * lookup, a single query checks that the cached raw contacts still exist and
+ * still belong to their contacts, and only the entries which do not are
+ * removed. The group memberships written by the {@link ContactsOutbox} change
+ * the raw contacts too, but leave the cache intact this way.<br>
+ * <br>
+ * All methods are thread safe.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+final class RawContactIdCache {
+
+	private static final String TAG = "RawContactIdCache";
+
+	/**
+	 * The maximum number of cached contacts.
+	 */
+	static final int MAX_ENTRIES = 2048;
+
+	private static RawContactIdCache instance = null;
+
+	/**
+	 * @param context
+	 *            internally, the {@link Context#getApplicationContext()} is
+	 *            used.
+	 * @return a singleton instance of the {@link RawContactIdCache}.
+	 */
+	static synchronized RawContactIdCache getInstance(Context context) {
+
+		if (instance == null)
+			instance = new RawContactIdCache(context.getApplicationContext());
+
+		return instance;
+	}
+
+	private final Context mContext;
+
+	/**
+	 * Sorted ascending, the first {@link RawContactIdCache#mSize} are valid.
+	 */
+	private final long[] mContactIds = new long[MAX_ENTRIES];
+	/**
+	 * The raw contact id of the contact at the same index in
+	 * {@link RawContactIdCache#mContactIds}.
+	 */
+	private final long[] mRawContactIds = new long[MAX_ENTRIES];
+	private int mSize = 0;
+
+	/**
+	 * Raised on every change of the raw contacts. Resolved and checked ids are
+	 * only applied if no change happened while they were queried.
+	 */
+	private int mGeneration = 0;
+
+	/**
+	 * True if the raw contacts changed since the entries were checked.
+	 */
+	private boolean mStale = false;
+
+	private long mHits = 0;
+	private long mMisses = 0;
+
+	private RawContactIdCache(Context context) {
+		mContext = context;
+
+		mContext.getContentResolver().registerContentObserver(ContactsContract.RawContacts.CONTENT_URI, true, new ContentObserver(null) {
+			@Override
+			public void onChange(boolean selfChange) {
+				markStale();
+			}
+		});
+	}
+
+	/**
+	 * Resolves the raw contact ids of the contacts. Only the ones which are not
+	 * cached are queried, with a single bulk query.
+	 * 
+	 * @param contactIds
+	 * @return a raw contact id of every contact, mapped by contact id.
+	 *         Contacts which do not exist are not contained. See
+	 *         {@link ContactsContractHelper#getRawContactIds(Context, long[])}
+	 */
+	LongSparseArray<Long> getRawContactIds(long[] contactIds) {
+
+		checkEntries();
+
+		final LongSparseArray<Long> rawContactIds = new LongSparseArray<Long>(contactIds.length);
+		long[] missingContactIds = new long[contactIds.length];
+		int missing = 0;
+		final int generation;
+
+		synchronized (this) {
+
+			for (long contactId : contactIds) {
+
+				final int index = Arrays.binarySearch(mContactIds, 0, mSize, contactId);
+
+				if (index >= 0)
+					rawContactIds.put(contactId, mRawContactIds[index]);
+				else
+					missingContactIds[missing++] = contactId;
+			}
+
+			mHits += contactIds.length - missing;
+			mMisses += missing;
+			generation = mGeneration;
+		}
+
+		if (missing > 0) {
+
+			missingContactIds = Arrays.copyOf(missingContactIds, missing);
+			final LongSparseArray<Long> resolved = ContactsContractHelper.getRawContactIds(mContext, missingContactIds);
+
+			putAll(resolved, generation);
+
+			for (int i = 0; i < resolved.size(); i++)
+				rawContactIds.put(resolved.keyAt(i), resolved.valueAt(i));
+		}
+
+		return rawContactIds;
+	}
+
+	/**
+	 * Fills the cache with the members of the selected contact group. This
+	 * method blocks, do not call it on the ui thread.
+	 */
+	void warmUp() {
+
+		final int generation;
+
+		synchronized (this) {
+			generation = mGeneration;
+		}
+
+		final long[] contactIds = ProductionPersistenceManager.keysOf(ContactsContractHelper.getGroupMembershipsOfGroups(mContext,
+				new long[] { SettingsUtil.getSelectedGroup(mContext), }));
+
+		putAll(ContactsContractHelper.getRawContactIds(mContext, Arrays.copyOf(contactIds, Math.min(contactIds.length, MAX_ENTRIES))), generation);
+
+		Logger.debug(TAG, "Warmed up: " + this);
+	}
+
+	/**
+	 * Marks the entries to be checked before the next lookup.
+	 */
+	synchronized void markStale() {
+
+		Logger.verbose(TAG, "Raw contacts changed, marking stale: " + this);
+
+		mStale = true;
+		mGeneration++;
+	}
+
+	/**
+	 * Removes the entries whose raw contact was deleted or moved to another
+	 * contact, if the raw contacts changed since the last check. This method
+	 * blocks, do not call it on the ui thread.
+	 */
+	private void checkEntries() {
+
+		final long[] rawContactIds;
+		final int generation;
+
+		synchronized (this) {
+
+			if (!mStale)
+				return;
+
+			rawContactIds = Arrays.copyOf(mRawContactIds, mSize);
+			generation = mGeneration;
+		}
+
+		final LongSparseArray<Long> contactIds = ContactsContractHelper.getContactIdsOfRawContacts(mContext, rawContactIds);
+
+		synchronized (this) {
+
+			// changed again in the meantime, the next lookup checks again
+			if (generation != mGeneration)
+				return;
+
+			int size = 0;
+			for (int i = 0; i < mSize; i++) {
+
+				final Long contactId = contactIds.get(mRawContactIds[i]);
+
+				if (contactId != null && contactId.longValue() == mContactIds[i]) {
+
+					mContactIds[size] = mContactIds[i];
+					mRawContactIds[size] = mRawContactIds[i];
+					size++;
+				}
+			}
+
+			Logger.verbose(TAG, "Checked, removed " + (mSize - size) + " entries: " + this);
+
+			mSize = size;
+			mStale = false;
+		}
+	}
+
+	/**
+	 * Caches the resolved ids, unless the cache was invalidated in the
+	 * meantime.
+	 * 
+	 * @param rawContactIds
+	 *            the raw contact ids, mapped by contact id.
+	 * @param generation
+	 *            the generation before the ids were queried.
+	 */
+	private synchronized void putAll(LongSparseArray<Long> rawContactIds, int generation) {
+
+		if (generation != mGeneration)
+			return;
+
+		for (int i = 0; i < rawContactIds.size(); i++) {
+
+			final long contactId = rawContactIds.keyAt(i);
+			int index = Arrays.binarySearch(mContactIds, 0, mSize, contactId);
+
+			if (index < 0) {
+
+				if (mSize == MAX_ENTRIES) {
+
+					Logger.debug(TAG, "Cache is full, clearing it.");
+					mSize = 0;
+				}
+
+				index = -(Arrays.binarySearch(mContactIds, 0, mSize, contactId) + 1);
+				System.arraycopy(mContactIds, index, mContactIds, index + 1, mSize - index);
+				System.arraycopy(mRawContactIds, index, mRawContactIds, index + 1, mSize - index);
+				mContactIds[index] = contactId;
+				mSize++;
+			}
+
+			mRawContactIds[index] = rawContactIds.valueAt(i);
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+
+		return "RawContactIdCache [size=" + mSize + ", hits=" + mHits + ", misses=" + mMisses + "]";
+	}
+}
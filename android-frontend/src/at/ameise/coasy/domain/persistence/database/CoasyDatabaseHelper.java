@@ -32,13 +32,11 @@ package at.ameise.coasy.domain.persistence.database;
 
 import android.content.ContentResolver;
 import android.content.Context;
-import android.database.DatabaseUtils;
+import android.os.Build;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import at.ameise.coasy.util.Logger;
 
-import com.google.gson.Gson;
-
 /**
  * Provides lifecycle management operations for the database.
  * 
@@ -55,10 +53,14 @@ public final class CoasyDatabaseHelper extends SQLiteOpenHelper {
 	private static final String DATABASE_NAME = "coasy.db";
 
 	/**
-	 * The version of the schema. This is the logical conjunction (&) of every
-	 * tables schema.
+	 * The version of the schema. This is the logical disjunction (|) of every
+	 * tables schema. Every table owns the bits of its SCHEMA_MASK, the masks
+	 * must not overlap. Raising a tables schema version within its mask raises
+	 * the database version.
 	 */
-	private static final int SCHEMA_VERSION = CourseTable.SCHEMA_VERSION;
+	private static final int SCHEMA_VERSION = CourseTable.SCHEMA_VERSION | StudentTable.SCHEMA_VERSION | CourseStudentTable.SCHEMA_VERSION
+			| SyncStateTable.SCHEMA_VERSION | GroupMemberTable.SCHEMA_VERSION | OutboxTable.SCHEMA_VERSION
+			| SearchTable.SCHEMA_VERSION;
 
 	/**
 	 * See {@link CoasyDatabaseHelper#SCHEMA_VERSION}
@@ -96,16 +98,43 @@ public final class CoasyDatabaseHelper extends SQLiteOpenHelper {
 		return INSTANCE;
 	}
 
+	/**
+	 * Enables write-ahead logging and foreign key constraints before the
+	 * database is created or upgraded. With write-ahead logging, queries run
+	 * on their own connections and do not block behind a refresh which is
+	 * writing.<br>
+	 * <br>
+	 * NOTE: Only called from API 16 on, see
+	 * {@link CoasyDatabaseHelper#onOpen(SQLiteDatabase)}.
+	 */
 	@Override
-	public void onCreate(SQLiteDatabase db) {
+	public void onConfigure(SQLiteDatabase db) {
+
+		db.enableWriteAheadLogging();
+		db.setForeignKeyConstraintsEnabled(true);
+	}
+
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
 
-		if (!db.isReadOnly()) {
-			// Enable foreign key constraints
+			db.enableWriteAheadLogging();
 			db.execSQL("PRAGMA foreign_keys=ON;");
 		}
+	}
+
+	@Override
+	public void onCreate(SQLiteDatabase db) {
+
 		CourseTable.create(db);
 		StudentTable.create(db);
 		CourseStudentTable.create(db);
+		CourseTable.createAggregateTriggers(db);
+		SyncStateTable.create(db);
+		GroupMemberTable.create(db);
+		OutboxTable.create(db);
+		SearchTable.create(db);
 	}
 
 	@Override
@@ -113,12 +142,41 @@ public final class CoasyDatabaseHelper extends SQLiteOpenHelper {
 
 		if (oldVersion < newVersion) {
 
-			CourseTable.upgrade(db, oldVersion, newVersion);
-			StudentTable.upgrade(db, oldVersion, newVersion);
-			CourseStudentTable.upgrade(db, oldVersion, newVersion);
+			// no short circuit, every table has to be upgraded
+			// lost outbox entries leave local writes which never reach the contacts
+			final boolean dataLost = CourseTable.upgrade(db, oldVersion, newVersion)//
+					| StudentTable.upgrade(db, oldVersion, newVersion)//
+					| CourseStudentTable.upgrade(db, oldVersion, newVersion)//
+					| GroupMemberTable.upgrade(db, oldVersion, newVersion)//
+					| OutboxTable.upgrade(db, oldVersion, newVersion);
+
+			SyncStateTable.upgrade(db, oldVersion, newVersion);
+			SearchTable.upgrade(db, oldVersion, newVersion);
+
+			// derived data, restored whatever the tables went through
+			CourseTable.reCreateAggregateTriggers(db);
+			CourseTable.checkAggregates(db);
+
+			if (dataLost) {
+
+				Logger.info(TAG, "Tables were recreated, clearing the sync state to force a rebuild.");
+				SyncStateTable.reCreate(db);
+			}
 		}
 	}
 
+	/**
+	 * @param databaseVersion
+	 *            an overall database version.
+	 * @param schemaMask
+	 *            the SCHEMA_MASK of a table.
+	 * @return the schema version of the table within the database version.
+	 */
+	static int getTableSchemaVersion(int databaseVersion, int schemaMask) {
+
+		return (databaseVersion - 1) & schemaMask;
+	}
+
 	/**
 	 * Returns a string containing len times comma separated ? placeholders.
 	 * i.e. ?, ?, ?, ? for len = 4
@@ -141,47 +199,4 @@ public final class CoasyDatabaseHelper extends SQLiteOpenHelper {
 		}
 	}
 
-	/**
-	 * Converts the object to an encoded json object which is database save.
-	 * 
-	 * @param obj
-	 * @return an escaped json.
-	 */
-	public static String toEscapedJson(Object obj) {
-
-		Logger.verbose(TAG, "object: " + obj);
-		final String json = new Gson().toJson(obj);
-		Logger.verbose(TAG, "json: " + json);
-		// final String settingsJsonBase64 =
-		// Base64.encodeToString(settingsJson.getBytes(), Base64.DEFAULT);
-		// Logger.verbose(TAG,
-		// "CoasySettings json base64: "+settingsJsonBase64);
-		final String jsonEsc = DatabaseUtils.sqlEscapeString(json);
-		Logger.verbose(TAG, "json esc: " + jsonEsc);
-
-		return jsonEsc;
-	}
-
-	/**
-	 * Recreates the the object of an escaped json from the database.
-	 * 
-	 * @param escapedJson
-	 * @param clazz
-	 * @return the object to recreate
-	 */
-	public static final <ObjectType> ObjectType fromEscapedJson(String escapedJson, Class<ObjectType> clazz) {
-
-		Logger.verbose(TAG, "json esc: " + escapedJson);
-		final String json = escapedJson.replaceAll("'", "");
-		// Logger.verbose(TAG,
-		// "CoasySettings json base64: "+settingsJsonBase64);
-		// final String settingsJson = new
-		// String(Base64.decode(settingsJsonBase64, Base64.DEFAULT));
-		Logger.verbose(TAG, "json: " + json);
-		final ObjectType obj = new Gson().fromJson(json, clazz);
-		Logger.verbose(TAG, "object: " + obj);
-
-		return obj;
-	}
-
 }
@@ -34,8 +34,8 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import at.ameise.coasy.domain.CourseStudent;
-import at.ameise.coasy.exception.DatabaseError;
-import at.ameise.coasy.util.ReflectionUtil;
+import at.ameise.coasy.util.Logger;
+import at.ameise.coasy.util.RowMapper;
 
 /**
  * Contains definitions for the course student mappign table.<br>
@@ -48,10 +48,17 @@ import at.ameise.coasy.util.ReflectionUtil;
  */
 public final class CourseStudentTable {
 
+	private static final String TAG = "CourseStudentTable";
+
 	private static final int INITIAL_SCHEMA = 0x00000;
-	private static final int SCHEMA_MASK = 0x01100;
+	/**
+	 * Added the unique index on (courseid, studentid) and the index on
+	 * (studentid, courseid).
+	 */
+	private static final int UNIQUE_MAPPING_SCHEMA = 0x01000;
+	private static final int SCHEMA_MASK = 0x0f000;
 
-	static final int SCHEMA_VERSION = INITIAL_SCHEMA;
+	static final int SCHEMA_VERSION = UNIQUE_MAPPING_SCHEMA;
 
 	static final String COL_ID = "_id";
 	public static final String COL_STUDENT_ID = "studentid";
@@ -65,6 +72,25 @@ public final class CourseStudentTable {
 			+ COL_COURSE_ID + " INTEGER NOT NULL"//
 			+ " );";
 
+	/**
+	 * Makes a mapping unique and covers the lookup of the students of a
+	 * course.
+	 */
+	private static final String CREATE_COURSE_STUDENT_INDEX_STATEMENT = "CREATE UNIQUE INDEX IF NOT EXISTS " + TABLE_NAME + "_course_student ON "
+			+ TABLE_NAME + " (" + COL_COURSE_ID + ", " + COL_STUDENT_ID + ");";
+
+	/**
+	 * Covers the lookup of the courses of a student.
+	 */
+	private static final String CREATE_STUDENT_COURSE_INDEX_STATEMENT = "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_student_course ON " + TABLE_NAME
+			+ " (" + COL_STUDENT_ID + ", " + COL_COURSE_ID + ");";
+
+	/**
+	 * Removes all but the first of duplicated mappings.
+	 */
+	private static final String DEDUPLICATE_STATEMENT = "DELETE FROM " + TABLE_NAME + " WHERE " + COL_ID + " NOT IN (SELECT MIN(" + COL_ID + ") FROM "
+			+ TABLE_NAME + " GROUP BY " + COL_COURSE_ID + ", " + COL_STUDENT_ID + ");";
+
 	private static final String DROP_STATEMENT = "DROP TABLE IF EXISTS " + TABLE_NAME + ";";
 
 	public static final String[] ALL_COLUMNS = { COL_ID, COL_STUDENT_ID, COL_COURSE_ID, };
@@ -77,64 +103,82 @@ public final class CourseStudentTable {
 
 		ContentValues values = new ContentValues();
 
-		try {
+		values.put(COL_ID, coursestudent.getId());
+		values.put(COL_COURSE_ID, coursestudent.getCourseId());
+		values.put(COL_STUDENT_ID, coursestudent.getContactId());
 
-			values.put(COL_ID, (Long) ReflectionUtil.getFieldValue(coursestudent, "id"));
-			values.put(COL_COURSE_ID, coursestudent.getCourseId());
-			values.put(COL_STUDENT_ID, coursestudent.getContactId());
+		return values;
+	}
 
-			return values;
+	/**
+	 * @param cursor
+	 * @return the {@link CourseStudent} object from the current cursor position.
+	 */
+	public static CourseStudent from(Cursor cursor) {
 
-		} catch (NoSuchFieldException e) {
+		return newCourseStudentsRowMapper().map(cursor);
+	}
 
-			throw new DatabaseError("Failed to get the value of the id field!", e);
+	/**
+	 * @return a new mapper for cursors on the {@link CourseStudentTable}.
+	 */
+	public static RowMapper<CourseStudent> newCourseStudentsRowMapper() {
 
-		} catch (IllegalAccessException e) {
+		return new RowMapper<CourseStudent>() {
 
-			throw new DatabaseError("Failed to get the value of the id field!", e);
+			private int mIdIndex;
+			private int mCourseIdIndex;
+			private int mStudentIdIndex;
 
-		} catch (IllegalArgumentException e) {
+			@Override
+			protected void resolveColumnIndexes(Cursor cursor) {
 
-			throw new DatabaseError("Failed to get the value of the id field!", e);
-		}
-	}
+				mIdIndex = cursor.getColumnIndexOrThrow(COL_ID);
+				mCourseIdIndex = cursor.getColumnIndexOrThrow(COL_COURSE_ID);
+				mStudentIdIndex = cursor.getColumnIndexOrThrow(COL_STUDENT_ID);
+			}
 
-	/**
-	 * @param cursor
-	 * @return the {@link CourseStudent} object from the current cursor position.
-	 */
-	public static CourseStudent from(Cursor cursor) {
+			@Override
+			protected CourseStudent mapRow(Cursor cursor) {
 
-		return new CourseStudent(//
-				cursor.getLong(cursor.getColumnIndexOrThrow(CourseStudentTable.COL_ID)),//
-				cursor.getLong(cursor.getColumnIndexOrThrow(CourseStudentTable.COL_COURSE_ID)),//
-				cursor.getLong(cursor.getColumnIndexOrThrow(CourseStudentTable.COL_STUDENT_ID)));
+				return new CourseStudent(cursor.getLong(mIdIndex), cursor.getLong(mCourseIdIndex), cursor.getLong(mStudentIdIndex));
+			}
+		};
 	}
 
 	/**
-	 * Upgrades the schema of the course table if necessary.
+	 * Upgrades the schema of the course student mapping table step by step. If there is no
+	 * migration from the old schema, the table is recreated.
 	 * 
 	 * @param db
 	 * @param oldDatabaseVersion
 	 *            the old overall database version.
 	 * @param newDatabaseVersion
 	 *            the new overall database version.
+	 * @return true if the table was recreated and lost its data.
 	 */
-	static void upgrade(SQLiteDatabase db, int oldDatabaseVersion, int newDatabaseVersion) {
+	static boolean upgrade(SQLiteDatabase db, int oldDatabaseVersion, int newDatabaseVersion) {
+		Logger.debug(TAG, "Upgrading CourseStudent table from version " + oldDatabaseVersion + " to " + newDatabaseVersion);
 
-		final int oldTableSchemaVersion = oldDatabaseVersion & SCHEMA_MASK;
-		final int newTableSchemaVersion = newDatabaseVersion & SCHEMA_MASK;
+		int tableSchemaVersion = CoasyDatabaseHelper.getTableSchemaVersion(oldDatabaseVersion, SCHEMA_MASK);
+		final int newTableSchemaVersion = CoasyDatabaseHelper.getTableSchemaVersion(newDatabaseVersion, SCHEMA_MASK);
 
-		/*
-		 * TODO add if blocks like this if(oldTableSchemaVersion ==
-		 * INITIAL_SCHEMA) upgradeFromInitialSchema(newTableSchemaVersion); //do
-		 * the actual upgrade else throw new NotImplementedError(
-		 * "The schema has changed but there was now upgrade routine implemented"
-		 * )
-		 */
+		if (tableSchemaVersion == INITIAL_SCHEMA && tableSchemaVersion < newTableSchemaVersion) {
 
-		drop(db);
-		create(db);
+			db.execSQL(DEDUPLICATE_STATEMENT);
+			db.execSQL(CREATE_COURSE_STUDENT_INDEX_STATEMENT);
+			db.execSQL(CREATE_STUDENT_COURSE_INDEX_STATEMENT);
+			tableSchemaVersion = UNIQUE_MAPPING_SCHEMA;
+		}
+
+		if (tableSchemaVersion != newTableSchemaVersion) {
+
+			Logger.warn(TAG, "No migration from schema " + tableSchemaVersion + " to " + newTableSchemaVersion + ", recreating the CourseStudent table.");
+			reCreate(db);
+			return true;
+		}
+
+		return false;
 	}
 
 	/**
@@ -143,8 +187,11 @@ public final class CourseStudentTable {
 	 * @param db
 	 */
 	static void create(SQLiteDatabase db) {
+		Logger.debug(TAG, "Creating CourseStudent table");
 
 		db.execSQL(CourseStudentTable.CREATE_STATEMENT);
+		db.execSQL(CourseStudentTable.CREATE_COURSE_STUDENT_INDEX_STATEMENT);
+		db.execSQL(CourseStudentTable.CREATE_STUDENT_COURSE_INDEX_STATEMENT);
 	}
 
 	/**
@@ -32,13 +32,14 @@ package at.ameise.coasy.domain.persistence.database;
 
 import android.content.ContentValues;
 import android.database.Cursor;
-import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.ContactsContract;
 import at.ameise.coasy.domain.Course;
+import at.ameise.coasy.domain.json.CoursePayload;
 import at.ameise.coasy.exception.DatabaseError;
 import at.ameise.coasy.util.Logger;
-import at.ameise.coasy.util.ReflectionUtil;
+import at.ameise.coasy.util.RowMapper;
 
 /**
  * Contains definitions for the course table.<br>
@@ -54,9 +55,18 @@ public final class CourseTable {
 	private static final String TAG = "CourseTable";
 	
 	private static final int INITIAL_SCHEMA = 0x000000;
-	private static final int SCHEMA_MASK = 0x00011;
+	/**
+	 * Added {@link CourseTable#COL_CONTENT_HASH}.
+	 */
+	private static final int CONTENT_HASH_SCHEMA = 0x00001;
+	/**
+	 * Added {@link CourseTable#COL_STUDENT_COUNT} and
+	 * {@link CourseTable#COL_LAST_CHANGED}.
+	 */
+	private static final int AGGREGATES_SCHEMA = 0x00002;
+	private static final int SCHEMA_MASK = 0x0000f;
 
-	static final int SCHEMA_VERSION = INITIAL_SCHEMA;
+	static final int SCHEMA_VERSION = AGGREGATES_SCHEMA;
 
 	/**
 	 * id of the corresponding contact group.
@@ -65,6 +75,22 @@ public final class CourseTable {
 	public static final String COL_TITLE = "title";
 	public static final String COL_DESCRIPTION = "description";
 	public static final String COL_ADDRESS = "address";
+	/**
+	 * hash of all other columns except for the id. Used to skip rewriting
+	 * unchanged rows.
+	 */
+	public static final String COL_CONTENT_HASH = "contenthash";
+	/**
+	 * number of students in the course, maintained by triggers on the
+	 * {@link CourseStudentTable}.
+	 */
+	public static final String COL_STUDENT_COUNT = "studentcount";
+	/**
+	 * time in milliseconds of the last change of the course or of its
+	 * students, maintained by triggers. Null if it did not change since it
+	 * was mirrored first.
+	 */
+	public static final String COL_LAST_CHANGED = "lastchanged";
 
 	public static final String SORT_ORDER_TITLE_DESC = COL_TITLE + " desc";
 	public static final String SORT_ORDER_TITLE_ASC = COL_TITLE + " asc";
@@ -75,12 +101,29 @@ public final class CourseTable {
 			+ COL_ID + " INTEGER PRIMARY KEY, "//
 			+ COL_TITLE + " TEXT NOT NULL, "//
 			+ COL_DESCRIPTION + " TEXT, "//
-			+ COL_ADDRESS + " TEXT"//
+			+ COL_ADDRESS + " TEXT, "//
+			+ COL_CONTENT_HASH + " INTEGER, "//
+			+ COL_STUDENT_COUNT + " INTEGER NOT NULL DEFAULT 0, "//
+			+ COL_LAST_CHANGED + " INTEGER"//
 			+ " );";
 
 	private static final String DROP_STATEMENT = "DROP TABLE IF EXISTS " + TABLE_NAME + ";";
 
-	public static final String[] ALL_COLUMNS = { COL_ID, COL_TITLE, COL_DESCRIPTION, COL_ADDRESS, };
+	/**
+	 * The current time in milliseconds, in SQL.
+	 */
+	private static final String NOW = "(CAST(strftime('%s', 'now') AS INTEGER) * 1000)";
+
+	/**
+	 * The number of mappings of the course in the {@link CourseStudentTable},
+	 * in SQL.
+	 */
+	private static final String COUNT_STUDENTS = "(SELECT COUNT(*) FROM " + CourseStudentTable.TABLE_NAME + " cs WHERE cs."
+			+ CourseStudentTable.COL_COURSE_ID + " = " + TABLE_NAME + "." + COL_ID + ")";
+
+	private static final String[] AGGREGATE_TRIGGERS = { TABLE_NAME + "_students_insert", TABLE_NAME + "_students_delete", TABLE_NAME + "_changed", };
+
+	public static final String[] ALL_COLUMNS = { COL_ID, COL_TITLE, COL_DESCRIPTION, COL_ADDRESS, COL_CONTENT_HASH, COL_STUDENT_COUNT, COL_LAST_CHANGED, };
 
 	/**
 	 * @param course
@@ -96,6 +139,7 @@ public final class CourseTable {
 			values.put(COL_TITLE, course.getTitle());
 			values.put(COL_DESCRIPTION, course.getDescription());
 			values.put(COL_ADDRESS, course.getAddress());
+			values.put(COL_CONTENT_HASH, CoursePayload.getContentHash(course));
 
 			return values;
 
@@ -106,30 +150,44 @@ public final class CourseTable {
 	}
 
 	/**
-	 * Upgrades the schema of the course table if necessary.
+	 * Upgrades the schema of the course table step by step. If there is no
+	 * migration from the old schema, the table is recreated.
 	 * 
 	 * @param db
 	 * @param oldDatabaseVersion
 	 *            the old overall database version.
 	 * @param newDatabaseVersion
 	 *            the new overall database version.
+	 * @return true if the table was recreated and lost its data.
 	 */
-	static void upgrade(SQLiteDatabase db, int oldDatabaseVersion, int newDatabaseVersion) {
-		Logger.debug(TAG, "Upgrading Course table from version "+oldDatabaseVersion+" to "+newDatabaseVersion);
-		
-		final int oldTableSchemaVersion = oldDatabaseVersion & SCHEMA_MASK;
-		final int newTableSchemaVersion = newDatabaseVersion & SCHEMA_MASK;
+	static boolean upgrade(SQLiteDatabase db, int oldDatabaseVersion, int newDatabaseVersion) {
+		Logger.debug(TAG, "Upgrading Course table from version " + oldDatabaseVersion + " to " + newDatabaseVersion);
 
-		/*
-		 * TODO add if blocks like this if(oldTableSchemaVersion ==
-		 * INITIAL_SCHEMA) upgradeFromInitialSchema(newTableSchemaVersion); //do
-		 * the actual upgrade else throw new NotImplementedError(
-		 * "The schema has changed but there was now upgrade routine implemented"
-		 * )
-		 */
+		int tableSchemaVersion = CoasyDatabaseHelper.getTableSchemaVersion(oldDatabaseVersion, SCHEMA_MASK);
+		final int newTableSchemaVersion = CoasyDatabaseHelper.getTableSchemaVersion(newDatabaseVersion, SCHEMA_MASK);
 
-		drop(db);
-		create(db);
+		if (tableSchemaVersion == INITIAL_SCHEMA && tableSchemaVersion < newTableSchemaVersion) {
+
+			db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COL_CONTENT_HASH + " INTEGER;");
+			tableSchemaVersion = CONTENT_HASH_SCHEMA;
+		}
+
+		if (tableSchemaVersion == CONTENT_HASH_SCHEMA && tableSchemaVersion < newTableSchemaVersion) {
+
+			// filled by checkAggregates after the upgrade
+			db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COL_STUDENT_COUNT + " INTEGER NOT NULL DEFAULT 0;");
+			db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COL_LAST_CHANGED + " INTEGER;");
+			tableSchemaVersion = AGGREGATES_SCHEMA;
+		}
+
+		if (tableSchemaVersion != newTableSchemaVersion) {
+
+			Logger.warn(TAG, "No migration from schema " + tableSchemaVersion + " to " + newTableSchemaVersion + ", recreating the Course table.");
+			reCreate(db);
+			return true;
+		}
+
+		return false;
 	}
 
 	/**
@@ -165,6 +223,65 @@ public final class CourseTable {
 		create(db);
 	}
 
+	/**
+	 * Creates the triggers which maintain the aggregate columns. They are
+	 * attached to the {@link CourseStudentTable} as well, so both tables have
+	 * to exist.
+	 * 
+	 * @param db
+	 */
+	static void createAggregateTriggers(SQLiteDatabase db) {
+		Logger.debug(TAG, "Creating Course aggregate triggers");
+
+		db.execSQL("CREATE TRIGGER " + AGGREGATE_TRIGGERS[0] + " AFTER INSERT ON " + CourseStudentTable.TABLE_NAME + " BEGIN "//
+				+ "UPDATE " + TABLE_NAME + " SET " + COL_STUDENT_COUNT + " = " + COL_STUDENT_COUNT + " + 1, " + COL_LAST_CHANGED + " = " + NOW//
+				+ " WHERE " + COL_ID + " = new." + CourseStudentTable.COL_COURSE_ID + ";"//
+				+ " END;");
+		db.execSQL("CREATE TRIGGER " + AGGREGATE_TRIGGERS[1] + " AFTER DELETE ON " + CourseStudentTable.TABLE_NAME + " BEGIN "//
+				+ "UPDATE " + TABLE_NAME + " SET " + COL_STUDENT_COUNT + " = " + COL_STUDENT_COUNT + " - 1, " + COL_LAST_CHANGED + " = " + NOW//
+				+ " WHERE " + COL_ID + " = old." + CourseStudentTable.COL_COURSE_ID + ";"//
+				+ " END;");
+		db.execSQL("CREATE TRIGGER " + AGGREGATE_TRIGGERS[2] + " AFTER UPDATE OF " + COL_TITLE + ", " + COL_DESCRIPTION + ", " + COL_ADDRESS + " ON "
+				+ TABLE_NAME + " BEGIN "//
+				+ "UPDATE " + TABLE_NAME + " SET " + COL_LAST_CHANGED + " = " + NOW + " WHERE " + COL_ID + " = new." + COL_ID + ";"//
+				+ " END;");
+	}
+
+	/**
+	 * Drops and creates the triggers which maintain the aggregate columns.
+	 * Recreating the course or the course student table drops them.
+	 * 
+	 * @param db
+	 */
+	static void reCreateAggregateTriggers(SQLiteDatabase db) {
+
+		for (String trigger : AGGREGATE_TRIGGERS)
+			db.execSQL("DROP TRIGGER IF EXISTS " + trigger + ";");
+
+		createAggregateTriggers(db);
+	}
+
+	/**
+	 * Recounts the students of the courses whose
+	 * {@link CourseTable#COL_STUDENT_COUNT} is wrong.
+	 * 
+	 * @param db
+	 * @return the number of repaired courses.
+	 */
+	static int checkAggregates(SQLiteDatabase db) {
+
+		final SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE_NAME + " SET " + COL_STUDENT_COUNT + " = " + COUNT_STUDENTS//
+				+ " WHERE " + COL_STUDENT_COUNT + " IS NOT " + COUNT_STUDENTS + ";");
+		try {
+
+			return statement.executeUpdateDelete();
+
+		} finally {
+
+			statement.close();
+		}
+	}
+
 	/**
 	 * @param c
 	 *            cursor on the {@link ContactsContract.Groups}
@@ -172,11 +289,18 @@ public final class CourseTable {
 	 */
 	public static Course fromContactsCursor(Cursor c) {
 
-		Logger.debug(TAG, "Converting cursor to course: " +DatabaseUtils.dumpCurrentRowToString(c));
-		
-		Course course = CoasyDatabaseHelper.fromEscapedJson(c.getString(c.getColumnIndexOrThrow(ContactsContract.Groups.NOTES)), Course.class);
+		return CoursePayload.decode(c.getString(c.getColumnIndexOrThrow(ContactsContract.Groups.NOTES)));
+	}
+
+	/**
+	 * @param c
+	 *            cursor on the {@link ContactsContract.Groups}
+	 * @return the content hash of the {@link Course} from the c, without
+	 *         decoding it or null, if its payload has no content hash.
+	 */
+	public static Long contentHashFromContactsCursor(Cursor c) {
 
-		return course;
+		return CoursePayload.peekContentHash(c.getString(c.getColumnIndexOrThrow(ContactsContract.Groups.NOTES)));
 	}
 
 	/**
@@ -186,29 +310,36 @@ public final class CourseTable {
 	 */
 	public static Course fromCoursesCursor(Cursor c) {
 
-		Course course = new Course(//
-				c.getString(c.getColumnIndexOrThrow(COL_TITLE)),//
-				c.getString(c.getColumnIndexOrThrow(COL_DESCRIPTION)),//
-				c.getString(c.getColumnIndexOrThrow(COL_ADDRESS)));
-
-		try {
-
-			ReflectionUtil.setFieldValue(course, "id", c.getLong(c.getColumnIndexOrThrow(COL_ID)));
+		return newCoursesRowMapper().map(c);
+	}
 
-		} catch (NoSuchFieldException e) {
+	/**
+	 * @return a new mapper for cursors on the {@link CourseTable}.
+	 */
+	public static RowMapper<Course> newCoursesRowMapper() {
 
-			throw new DatabaseError("Failed to set the id field of course!", e);
+		return new RowMapper<Course>() {
 
-		} catch (IllegalAccessException e) {
+			private int mIdIndex;
+			private int mTitleIndex;
+			private int mDescriptionIndex;
+			private int mAddressIndex;
 
-			throw new DatabaseError("Failed to set the id field of course!", e);
+			@Override
+			protected void resolveColumnIndexes(Cursor c) {
 
-		} catch (IllegalArgumentException e) {
+				mIdIndex = c.getColumnIndexOrThrow(COL_ID);
+				mTitleIndex = c.getColumnIndexOrThrow(COL_TITLE);
+				mDescriptionIndex = c.getColumnIndexOrThrow(COL_DESCRIPTION);
+				mAddressIndex = c.getColumnIndexOrThrow(COL_ADDRESS);
+			}
 
-			throw new DatabaseError("Failed to set the id field of course!", e);
-		}
+			@Override
+			protected Course mapRow(Cursor c) {
 
-		return course;
+				return Course.restore(c.getLong(mIdIndex), c.getString(mTitleIndex), c.getString(mDescriptionIndex), c.getString(mAddressIndex));
+			}
+		};
 	}
 
 	/**
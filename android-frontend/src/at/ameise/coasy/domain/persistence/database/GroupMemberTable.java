@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.persistence.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import at.ameise.coasy.domain.Student;
+import at.ameise.coasy.util.HashUtil;
+import at.ameise.coasy.util.Logger;
+import at.ameise.coasy.util.RowMapper;
+
+/**
+ * Contains definitions for the group member table. It mirrors the contacts of
+ * the contact group selected in the user settings, so the contacts which are
+ * not in a course can be found with a single anti-join against the
+ * {@link CourseStudentTable}.<br>
+ * <br>
+ * NOTE: This class and its methods should only be visible to the database
+ * package! Mind the visibility of constants!
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+public final class GroupMemberTable {
+
+	private static final String TAG = "GroupMemberTable";
+
+	/**
+	 * This table was introduced after the initial release, so its initial
+	 * schema already has to raise the database version.
+	 */
+	private static final int NO_SCHEMA = 0x00000;
+	private static final int INITIAL_SCHEMA = 0x00010;
+	private static final int SCHEMA_MASK = 0x000f0;
+
+	static final int SCHEMA_VERSION = INITIAL_SCHEMA;
+
+	/**
+	 * id of the corresponding contact.
+	 */
+	public static final String COL_ID = "_id";
+	public static final String COL_DISPLAY_NAME = "displayname";
+	/**
+	 * hash of all other columns except for the id. Used to skip rewriting
+	 * unchanged rows.
+	 */
+	public static final String COL_CONTENT_HASH = "contenthash";
+
+	public static final String SORT_ORDER_DISPLAY_NAME_ASC = COL_DISPLAY_NAME + " asc";
+
+	public static final String TABLE_NAME = "groupmember";
+
+	private static final String CREATE_STATEMENT = "CREATE TABLE " + TABLE_NAME + " ( " //
+			+ COL_ID + " INTEGER PRIMARY KEY, "//
+			+ COL_DISPLAY_NAME + " TEXT NOT NULL, "//
+			+ COL_CONTENT_HASH + " INTEGER"//
+			+ " );";
+
+	/**
+	 * Covers the sort order of the contacts list.
+	 */
+	private static final String CREATE_DISPLAY_NAME_INDEX_STATEMENT = "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_displayname ON " + TABLE_NAME
+			+ " (" + COL_DISPLAY_NAME + ");";
+
+	private static final String DROP_STATEMENT = "DROP TABLE IF EXISTS " + TABLE_NAME + ";";
+
+	public static final String[] ALL_COLUMNS = { COL_ID, COL_DISPLAY_NAME, COL_CONTENT_HASH, };
+
+	/**
+	 * @param student
+	 *            the contact of the selected group as student.
+	 * @return the {@link ContentValues} of the group member.
+	 */
+	public static ContentValues from(Student student) {
+
+		final ContentValues values = new ContentValues();
+
+		values.put(COL_ID, student.getId());
+		values.put(COL_DISPLAY_NAME, student.getDisplayName());
+		values.put(COL_CONTENT_HASH, HashUtil.getFnv1a64From(student.getDisplayName()));
+
+		return values;
+	}
+
+	/**
+	 * @return a new mapper for cursors on the {@link GroupMemberTable}. The
+	 *         members are mapped like contacts, with their display name only.
+	 */
+	public static RowMapper<Student> newGroupMembersRowMapper() {
+
+		return new RowMapper<Student>() {
+
+			private int mIdIndex;
+			private int mDisplayNameIndex;
+
+			@Override
+			protected void resolveColumnIndexes(Cursor c) {
+
+				mIdIndex = c.getColumnIndexOrThrow(COL_ID);
+				mDisplayNameIndex = c.getColumnIndexOrThrow(COL_DISPLAY_NAME);
+			}
+
+			@Override
+			protected Student mapRow(Cursor c) {
+
+				return Student.restore(c.getLong(mIdIndex), c.getString(mDisplayNameIndex), null, null, null, null, null);
+			}
+		};
+	}
+
+	/**
+	 * Upgrades the schema of the group member table step by step. If there is
+	 * no migration from the old schema, the table is recreated.
+	 * 
+	 * @param db
+	 * @param oldDatabaseVersion
+	 *            the old overall database version.
+	 * @param newDatabaseVersion
+	 *            the new overall database version.
+	 * @return true if the table was recreated and lost its data.
+	 */
+	static boolean upgrade(SQLiteDatabase db, int oldDatabaseVersion, int newDatabaseVersion) {
+		Logger.debug(TAG, "Upgrading GroupMember table from version " + oldDatabaseVersion + " to " + newDatabaseVersion);
+
+		int tableSchemaVersion = CoasyDatabaseHelper.getTableSchemaVersion(oldDatabaseVersion, SCHEMA_MASK);
+		final int newTableSchemaVersion = CoasyDatabaseHelper.getTableSchemaVersion(newDatabaseVersion, SCHEMA_MASK);
+
+		if (tableSchemaVersion == NO_SCHEMA && tableSchemaVersion < newTableSchemaVersion) {
+
+			create(db);
+			tableSchemaVersion = INITIAL_SCHEMA;
+		}
+
+		if (tableSchemaVersion != newTableSchemaVersion) {
+
+			Logger.warn(TAG, "No migration from schema " + tableSchemaVersion + " to " + newTableSchemaVersion + ", recreating the GroupMember table.");
+			reCreate(db);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Creates the group member table.
+	 * 
+	 * @param db
+	 */
+	static void create(SQLiteDatabase db) {
+		Logger.debug(TAG, "Creating GroupMember table");
+
+		db.execSQL(GroupMemberTable.CREATE_STATEMENT);
+		db.execSQL(GroupMemberTable.CREATE_DISPLAY_NAME_INDEX_STATEMENT);
+	}
+
+	/**
+	 * Drops the group member table.
+	 * 
+	 * @param db
+	 */
+	private static void drop(SQLiteDatabase db) {
+		Logger.debug(TAG, "Dropping GroupMember table");
+
+		db.execSQL(GroupMemberTable.DROP_STATEMENT);
+	}
+
+	/**
+	 * Drops and creates the group member table.
+	 * 
+	 * @param db
+	 */
+	static void reCreate(SQLiteDatabase db) {
+
+		drop(db);
+		create(db);
+	}
+}
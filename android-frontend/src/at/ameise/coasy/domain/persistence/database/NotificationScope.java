@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.persistence.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.net.Uri;
+
+/**
+ * Collects the changes of the writes of a batch in
+ * {@link PerformanceDatabaseContentProvider}, so the observers are notified
+ * only once, after the batch has been committed. Every changed uri is
+ * notified once, even if it was written several times.<br>
+ * <br>
+ * Changes of students and group members are only recorded here, the views of
+ * the courses they appear in are resolved by the provider when the scope is
+ * closed.<br>
+ * <br>
+ * NOTE: A scope belongs to the thread which applies the batch, it is not
+ * thread safe.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+final class NotificationScope {
+
+	/**
+	 * If more uris of a table have changed, only the uri of the whole table is
+	 * notified.
+	 */
+	static final int MAX_URIS_PER_TABLE = 16;
+
+	private int mChangedTables = 0;
+
+	private final Set<Uri> mUris = new LinkedHashSet<Uri>();
+
+	private final Set<Long> mChangedStudentIds = new HashSet<Long>();
+	private boolean mUnknownStudentsChanged = false;
+
+	private boolean mGroupMembersChanged = false;
+
+	/**
+	 * @param tables
+	 *            the data bits of the changed tables.
+	 * @param uri
+	 *            the uri to notify or null, if nobody observes the change.
+	 */
+	void changed(int tables, Uri uri) {
+
+		mChangedTables |= tables;
+
+		if (uri != null)
+			mUris.add(uri);
+	}
+
+	/**
+	 * Records a change of the student, the courses it is in are resolved
+	 * later.
+	 * 
+	 * @param tables
+	 *            the data bits of the changed tables.
+	 * @param uri
+	 *            the uri of the student.
+	 * @param studentId
+	 */
+	void studentChanged(int tables, Uri uri, long studentId) {
+
+		changed(tables, uri);
+
+		if (mChangedStudentIds.size() < MAX_URIS_PER_TABLE)
+			mChangedStudentIds.add(studentId);
+		else
+			mUnknownStudentsChanged = true;
+	}
+
+	/**
+	 * Records a change of students, which are not known.
+	 * 
+	 * @param tables
+	 *            the data bits of the changed tables.
+	 * @param uri
+	 *            the uri of the students.
+	 */
+	void studentsChanged(int tables, Uri uri) {
+
+		changed(tables, uri);
+
+		mUnknownStudentsChanged = true;
+	}
+
+	/**
+	 * Records a change of the members of the selected group.
+	 * 
+	 * @param tables
+	 *            the data bits of the changed tables.
+	 * @param uri
+	 *            the uri of the members or of a single one.
+	 */
+	void groupMembersChanged(int tables, Uri uri) {
+
+		changed(tables, uri);
+
+		mGroupMembersChanged = true;
+	}
+
+	/**
+	 * @return the data bits of the changed tables.
+	 */
+	int getChangedTables() {
+		return mChangedTables;
+	}
+
+	/**
+	 * @return the ids of the changed students or null, if they are not known.
+	 */
+	Set<Long> getChangedStudentIds() {
+		return mUnknownStudentsChanged ? null : mChangedStudentIds;
+	}
+
+	/**
+	 * @return true if any student has changed.
+	 */
+	boolean haveStudentsChanged() {
+		return mUnknownStudentsChanged || !mChangedStudentIds.isEmpty();
+	}
+
+	/**
+	 * @return true if any member of the selected group has changed.
+	 */
+	boolean haveGroupMembersChanged() {
+		return mGroupMembersChanged;
+	}
+
+	/**
+	 * Adds an uri to notify, after the changes have been resolved.
+	 * 
+	 * @param uri
+	 */
+	void addUri(Uri uri) {
+		mUris.add(uri);
+	}
+
+	/**
+	 * Coalesces the changed uris per table. Notifying an uri notifies the
+	 * observers of its descendants too, so uris whose ancestor is notified
+	 * anyway are dropped. If too many uris of a table changed, the uri of the
+	 * table replaces them.
+	 * 
+	 * @return the uris to notify.
+	 */
+	Collection<Uri> getUrisToNotify() {
+
+		final Map<String, List<Uri>> urisByTable = new LinkedHashMap<String, List<Uri>>();
+
+		for (Uri uri : mUris) {
+
+			final String table = uri.getPathSegments().isEmpty() ? "" : uri.getPathSegments().get(0);
+
+			List<Uri> tableUris = urisByTable.get(table);
+			if (tableUris == null) {
+
+				tableUris = new ArrayList<Uri>();
+				urisByTable.put(table, tableUris);
+			}
+			tableUris.add(uri);
+		}
+
+		final List<Uri> urisToNotify = new ArrayList<Uri>();
+
+		for (List<Uri> tableUris : urisByTable.values()) {
+
+			if (tableUris.size() > MAX_URIS_PER_TABLE) {
+
+				final Uri uri = tableUris.get(0);
+				urisToNotify.add(uri.buildUpon().path("").appendPath(uri.getPathSegments().get(0)).build());
+				continue;
+			}
+
+			for (Uri uri : tableUris)
+				if (!hasAncestorIn(uri, mUris))
+					urisToNotify.add(uri);
+		}
+
+		return urisToNotify;
+	}
+
+	/**
+	 * @param uri
+	 * @param uris
+	 * @return true if the uris contain an ancestor of the uri.
+	 */
+	private static boolean hasAncestorIn(Uri uri, Set<Uri> uris) {
+
+		final List<String> segments = uri.getPathSegments();
+		final Uri.Builder ancestor = uri.buildUpon().path("");
+
+		for (int i = 0; i < segments.size() - 1; i++) {
+
+			ancestor.appendPath(segments.get(i));
+
+			if (uris.contains(ancestor.build()))
+				return true;
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.persistence.database;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.ContactsContract;
+import at.ameise.coasy.util.Logger;
+
+/**
+ * Contains definitions for the outbox table. It queues the writes to the
+ * contacts which belong to local writes already committed to the performance
+ * database. The entries are replayed in the order of their id, until the
+ * contacts provider accepted them.<br>
+ * <br>
+ * NOTE: This class and its methods should only be visible to the database
+ * package! Mind the visibility of constants!
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+public final class OutboxTable {
+
+	private static final String TAG = "OutboxTable";
+
+	/**
+	 * This table was introduced after the initial release, so its initial
+	 * schema already has to raise the database version.
+	 */
+	private static final int NO_SCHEMA = 0x00000;
+	private static final int INITIAL_SCHEMA = 0x10000;
+	private static final int SCHEMA_MASK = 0xf0000;
+
+	static final int SCHEMA_VERSION = INITIAL_SCHEMA;
+
+	/**
+	 * {@link OutboxTable#COL_OPERATION} adding contacts to the
+	 * {@link ContactsContract.Groups} of a course. The payload holds the comma
+	 * separated contact ids.
+	 */
+	public static final int OPERATION_ADD_MEMBERS = 1;
+	/**
+	 * {@link OutboxTable#COL_OPERATION} removing contacts from the
+	 * {@link ContactsContract.Groups} of a course. The payload holds the comma
+	 * separated contact ids.
+	 */
+	public static final int OPERATION_REMOVE_MEMBERS = 2;
+	/**
+	 * {@link OutboxTable#COL_OPERATION} writing the master copy of a course
+	 * into its {@link ContactsContract.Groups}. The payload holds the encoded
+	 * course.
+	 */
+	public static final int OPERATION_UPDATE_GROUP = 3;
+
+	public static final String COL_ID = "_id";
+	public static final String COL_OPERATION = "operation";
+	/**
+	 * id of the course, which is the id of its contact group.
+	 */
+	public static final String COL_COURSE_ID = "courseid";
+	public static final String COL_PAYLOAD = "payload";
+	/**
+	 * number of failed attempts to write the entry to the contacts.
+	 */
+	public static final String COL_ATTEMPTS = "attempts";
+
+	public static final String TABLE_NAME = "outbox";
+
+	private static final String CREATE_STATEMENT = "CREATE TABLE " + TABLE_NAME + " ( " //
+			+ COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "//
+			+ COL_OPERATION + " INTEGER NOT NULL, "//
+			+ COL_COURSE_ID + " INTEGER NOT NULL, "//
+			+ COL_PAYLOAD + " TEXT NOT NULL, "//
+			+ COL_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0"//
+			+ " );";
+
+	private static final String DROP_STATEMENT = "DROP TABLE IF EXISTS " + TABLE_NAME + ";";
+
+	public static final String[] ALL_COLUMNS = { COL_ID, COL_OPERATION, COL_COURSE_ID, COL_PAYLOAD, COL_ATTEMPTS, };
+
+	/**
+	 * @param operation
+	 * @param courseId
+	 * @param payload
+	 * @return the {@link ContentValues} of a new outbox entry.
+	 */
+	public static ContentValues from(int operation, long courseId, String payload) {
+
+		final ContentValues values = new ContentValues();
+
+		values.put(COL_OPERATION, operation);
+		values.put(COL_COURSE_ID, courseId);
+		values.put(COL_PAYLOAD, payload);
+
+		return values;
+	}
+
+	/**
+	 * Upgrades the schema of the outbox table step by step. If there is no
+	 * migration from the old schema, the table is recreated.
+	 * 
+	 * @param db
+	 * @param oldDatabaseVersion
+	 *            the old overall database version.
+	 * @param newDatabaseVersion
+	 *            the new overall database version.
+	 * @return true if the table was recreated and lost its data.
+	 */
+	static boolean upgrade(SQLiteDatabase db, int oldDatabaseVersion, int newDatabaseVersion) {
+		Logger.debug(TAG, "Upgrading Outbox table from version " + oldDatabaseVersion + " to " + newDatabaseVersion);
+
+		int tableSchemaVersion = CoasyDatabaseHelper.getTableSchemaVersion(oldDatabaseVersion, SCHEMA_MASK);
+		final int newTableSchemaVersion = CoasyDatabaseHelper.getTableSchemaVersion(newDatabaseVersion, SCHEMA_MASK);
+
+		if (tableSchemaVersion == NO_SCHEMA && tableSchemaVersion < newTableSchemaVersion) {
+
+			create(db);
+			tableSchemaVersion = INITIAL_SCHEMA;
+		}
+
+		if (tableSchemaVersion != newTableSchemaVersion) {
+
+			Logger.warn(TAG, "No migration from schema " + tableSchemaVersion + " to " + newTableSchemaVersion + ", recreating the Outbox table.");
+			reCreate(db);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Creates the outbox table.
+	 * 
+	 * @param db
+	 */
+	static void create(SQLiteDatabase db) {
+		Logger.debug(TAG, "Creating Outbox table");
+
+		db.execSQL(OutboxTable.CREATE_STATEMENT);
+	}
+
+	/**
+	 * Drops the outbox table.
+	 * 
+	 * @param db
+	 */
+	private static void drop(SQLiteDatabase db) {
+		Logger.debug(TAG, "Dropping Outbox table");
+
+		db.execSQL(OutboxTable.DROP_STATEMENT);
+	}
+
+	/**
+	 * Drops and creates the outbox table.
+	 * 
+	 * @param db
+	 */
+	static void reCreate(SQLiteDatabase db) {
+
+		drop(db);
+		create(db);
+	}
+}
@@ -30,13 +30,21 @@
  */
 package at.ameise.coasy.domain.persistence.database;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang3.ArrayUtils;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -45,7 +53,12 @@ import android.net.Uri;
 import android.text.TextUtils;
 
 /**
- * {@link ContentProvider} for all coasy data.
+ * {@link ContentProvider} for all coasy data.<br>
+ * <br>
+ * {@link #applyBatch(ArrayList)} and {@link #bulkInsert(Uri, ContentValues[])}
+ * run in a single transaction and notify their observers only once, after the
+ * transaction has been committed. Only the uris of the changed rows are
+ * notified, see {@link NotificationScope}.
  * 
  * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
  * 
@@ -55,16 +68,66 @@ public final class PerformanceDatabaseContentProvider extends ContentProvider {
 	// database
 	private CoasyDatabaseHelper database;
 
-	private static final String AUTHORITY = "at.ameise.coasy.contentprovider";
+	public static final String AUTHORITY = "at.ameise.coasy.contentprovider";
+
+	/**
+	 * The parent of all coasy uris, observers of it are notified on any
+	 * change.
+	 */
+	public static final Uri CONTENT_URI_BASE = Uri.parse("content://" + AUTHORITY);
+
+	/**
+	 * Set while the current thread applies a batch, the single operations
+	 * record their changes in it and do not notify their observers then.
+	 */
+	private final ThreadLocal<NotificationScope> mScope = new ThreadLocal<NotificationScope>();
+
+	// bits of the tables with a data version
+	private static final int DATA_COURSE = 0x01;
+	private static final int DATA_STUDENT = 0x02;
+	private static final int DATA_COURSE_STUDENT = 0x04;
+	private static final int DATA_GROUP_MEMBER = 0x08;
+	private static final int DATA_SYNC_STATE = 0x10;
+
+	/**
+	 * The data version of every table, at the index of its bit. A version is
+	 * raised after every committed write to its table.
+	 */
+	private static final AtomicLongArray sDataVersions = new AtomicLongArray(5);
+
+	/**
+	 * The data version of uris which are not backed by a table.
+	 */
+	static final long NO_DATA_VERSION = -1;
 
 	// used for the UriMacher ids
 	private static final int COURSES = 0x001;
 	private static final int COURSE_ID = 0x002;
 	private static final int COURSE_STUDENT = 0x003;
 	private static final int COURSE_STUDENTS = 0x004;
+	private static final int COURSE_UPSERT = 0x005;
+	private static final int COURSE_CANDIDATES = 0x006;
+	private static final int COURSE_AGGREGATES = 0x007;
 
 	private static final int STUDENTS = 0x010;
 	private static final int STUDENT_ID = 0x020;
+	private static final int STUDENT_UPSERT = 0x030;
+
+	private static final int COURSE_STUDENT_MAPPINGS = 0x100;
+
+	private static final int SYNC_STATES = 0x1000;
+
+	private static final int RECONCILE = 0x2000;
+
+	private static final int GROUP_MEMBERS = 0x4000;
+	private static final int GROUP_MEMBER_ID = 0x5000;
+	private static final int GROUP_MEMBER_UPSERT = 0x6000;
+
+	private static final int OUTBOX = 0x7000;
+	private static final int OUTBOX_ID = 0x8000;
+
+	private static final int SEARCH_STUDENTS = 0x9000;
+	private static final int SEARCH_COURSES = 0xa000;
 
 	private static final String BASE_PATH_COURSE = "course";
 	public static final Uri CONTENT_URI_COURSE = Uri.parse("content://" + AUTHORITY + "/" + BASE_PATH_COURSE);
@@ -77,12 +140,156 @@ public final class PerformanceDatabaseContentProvider extends ContentProvider {
 		return Uri.parse("content://" + AUTHORITY + "/" + BASE_PATH_COURSE + "/" + courseId + "/students");
 	}
 
+	/**
+	 * @param courseId
+	 * @return the uri of the members of the selected contact group which are
+	 *         not in the course.
+	 */
+	public static Uri getCONTENT_URI_COURSE_CANDIDATES(long courseId) {
+		return Uri.parse("content://" + AUTHORITY + "/" + BASE_PATH_COURSE + "/" + courseId + "/candidates");
+	}
+
+	private static final String PATH_AGGREGATES = "aggregates";
+	/**
+	 * An update recounts the students of the courses whose student count is
+	 * wrong and returns the number of repaired courses.
+	 */
+	public static final Uri CONTENT_URI_COURSE_AGGREGATES = Uri.parse("content://" + AUTHORITY + "/" + BASE_PATH_COURSE + "/" + PATH_AGGREGATES);
+
 	private static final String BASE_PATH_STUDENT = "student";
 	public static final Uri CONTENT_URI_STUDENT = Uri.parse("content://" + AUTHORITY + "/" + BASE_PATH_STUDENT);
 
+	private static final String PATH_UPSERT = "upsert";
+	/**
+	 * Inserts the course or updates it, if its content hash has changed.
+	 */
+	public static final Uri CONTENT_URI_COURSE_UPSERT = Uri.parse("content://" + AUTHORITY + "/" + BASE_PATH_COURSE + "/" + PATH_UPSERT);
+	/**
+	 * Inserts the student or updates it, if its content hash has changed.
+	 */
+	public static final Uri CONTENT_URI_STUDENT_UPSERT = Uri.parse("content://" + AUTHORITY + "/" + BASE_PATH_STUDENT + "/" + PATH_UPSERT);
+
+	private static final String BASE_PATH_COURSE_STUDENT = "coursestudent";
+	public static final Uri CONTENT_URI_COURSE_STUDENT = Uri.parse("content://" + AUTHORITY + "/" + BASE_PATH_COURSE_STUDENT);
+
+	private static final String BASE_PATH_SYNC_STATE = "syncstate";
+	public static final Uri CONTENT_URI_SYNC_STATE = Uri.parse("content://" + AUTHORITY + "/" + BASE_PATH_SYNC_STATE);
+
+	private static final String BASE_PATH_GROUP_MEMBER = "groupmember";
+	public static final Uri CONTENT_URI_GROUP_MEMBER = Uri.parse("content://" + AUTHORITY + "/" + BASE_PATH_GROUP_MEMBER);
+	/**
+	 * Inserts the group member or updates it, if its content hash has changed.
+	 */
+	public static final Uri CONTENT_URI_GROUP_MEMBER_UPSERT = Uri.parse("content://" + AUTHORITY + "/" + BASE_PATH_GROUP_MEMBER + "/" + PATH_UPSERT);
+
+	public static Uri getCONTENT_URI_GROUP_MEMBER(long contactId) {
+		return Uri.parse("content://" + AUTHORITY + "/" + BASE_PATH_GROUP_MEMBER + "/" + contactId);
+	}
+
+	private static final String BASE_PATH_OUTBOX = "outbox";
+	/**
+	 * The queued contacts writes. Nobody observes them, so changes are not
+	 * notified.
+	 */
+	public static final Uri CONTENT_URI_OUTBOX = Uri.parse("content://" + AUTHORITY + "/" + BASE_PATH_OUTBOX);
+
+	public static Uri getCONTENT_URI_OUTBOX(long entryId) {
+		return Uri.parse("content://" + AUTHORITY + "/" + BASE_PATH_OUTBOX + "/" + entryId);
+	}
+
+	private static final String BASE_PATH_SEARCH = "search";
+
+	/**
+	 * @param query
+	 *            the text the user typed, every word of it is matched as a
+	 *            prefix.
+	 * @return the uri of the students whose display name, contact name or
+	 *         address contain the words of the query.
+	 */
+	public static Uri getCONTENT_URI_SEARCH_STUDENTS(String query) {
+		return CONTENT_URI_BASE.buildUpon().appendPath(BASE_PATH_SEARCH).appendPath(BASE_PATH_STUDENT).appendPath(query).build();
+	}
+
+	/**
+	 * @param query
+	 *            the text the user typed, every word of it is matched as a
+	 *            prefix.
+	 * @return the uri of the courses whose title, description or address
+	 *         contain the words of the query.
+	 */
+	public static Uri getCONTENT_URI_SEARCH_COURSES(String query) {
+		return CONTENT_URI_BASE.buildUpon().appendPath(BASE_PATH_SEARCH).appendPath(BASE_PATH_COURSE).appendPath(query).build();
+	}
+
+	/**
+	 * The maximum number of rows of a page.
+	 */
+	public static final String PARAM_PAGE_SIZE = "pagesize";
+	/**
+	 * The display name of the last row of the previous page.
+	 */
+	public static final String PARAM_AFTER_DISPLAY_NAME = "afterdisplayname";
+	/**
+	 * The id of the last row of the previous page.
+	 */
+	public static final String PARAM_AFTER_ID = "afterid";
+
+	/**
+	 * Pages the students, the students of a course, the student search results
+	 * and the candidates of a course. The rows are ordered by display name and
+	 * id, a page starts after the row of the previous page and is found by the
+	 * display name index however deep the user scrolled.
+	 *
+	 * @param uri
+	 *            the uri of the rows, existing page parameters are replaced.
+	 * @param pageSize
+	 * @param afterDisplayName
+	 *            the display name of the last row of the previous page or null
+	 *            for the first page.
+	 * @param afterId
+	 *            the id of the last row of the previous page.
+	 * @return the uri of the page.
+	 */
+	public static Uri getPageUri(Uri uri, int pageSize, String afterDisplayName, long afterId) {
+
+		final Uri.Builder builder = uri.buildUpon().clearQuery().appendQueryParameter(PARAM_PAGE_SIZE, String.valueOf(pageSize));
+
+		if (afterDisplayName != null)
+			builder.appendQueryParameter(PARAM_AFTER_DISPLAY_NAME, afterDisplayName).appendQueryParameter(PARAM_AFTER_ID, String.valueOf(afterId));
+
+		return builder.build();
+	}
+
+	private static final String BASE_PATH_RECONCILE = "reconcile";
+
+	/**
+	 * Inserts stage the keys of the rows to keep, a delete removes all other
+	 * rows of the table and clears the staged keys. The keys are the id for
+	 * courses and students, the course and student id for course student
+	 * mappings. Stage and delete in the same transaction.
+	 * 
+	 * @param tableName
+	 *            one of {@link CourseTable#TABLE_NAME},
+	 *            {@link StudentTable#TABLE_NAME},
+	 *            {@link CourseStudentTable#TABLE_NAME} or
+	 *            {@link GroupMemberTable#TABLE_NAME}.
+	 * @return the uri to reconcile the table.
+	 */
+	public static Uri getCONTENT_URI_RECONCILE(String tableName) {
+		return Uri.parse("content://" + AUTHORITY + "/" + BASE_PATH_RECONCILE + "/" + tableName);
+	}
+
 	public static final String CONTENT_TYPE_COURSES = ContentResolver.CURSOR_DIR_BASE_TYPE + "/courses";
 	public static final String CONTENT_ITEM_TYPE_COURSE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/course";
 
+	/**
+	 * The students of a course, joined along the mappings.
+	 */
+	static final String COURSE_STUDENTS_TABLES = CourseStudentTable.TABLE_NAME + " INNER JOIN " + StudentTable.TABLE_NAME + " ON ("//
+			+ CourseStudentTable.TABLE_NAME + "." + CourseStudentTable.COL_STUDENT_ID//
+			+ " = "//
+			+ StudentTable.TABLE_NAME + "." + StudentTable.COL_ID + ")";
+
 	private static final UriMatcher sURIMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 	static {
 		/*
@@ -96,6 +303,17 @@ public final class PerformanceDatabaseContentProvider extends ContentProvider {
 		sURIMatcher.addURI(AUTHORITY, BASE_PATH_COURSE + "/#", COURSE_ID);
 		sURIMatcher.addURI(AUTHORITY, BASE_PATH_COURSE + "/#/student/#", COURSE_STUDENT);
 		sURIMatcher.addURI(AUTHORITY, BASE_PATH_COURSE + "/#/students", COURSE_STUDENTS);
+		sURIMatcher.addURI(AUTHORITY, BASE_PATH_COURSE + "/#/candidates", COURSE_CANDIDATES);
+
+		/*
+		 * Uri to insert or update a course
+		 */
+		sURIMatcher.addURI(AUTHORITY, BASE_PATH_COURSE + "/" + PATH_UPSERT, COURSE_UPSERT);
+
+		/*
+		 * Uri to check the aggregates of the courses
+		 */
+		sURIMatcher.addURI(AUTHORITY, BASE_PATH_COURSE + "/" + PATH_AGGREGATES, COURSE_AGGREGATES);
 
 		/*
 		 * Uri to work on all course student mappings
@@ -106,6 +324,45 @@ public final class PerformanceDatabaseContentProvider extends ContentProvider {
 		 * Uri to work on a specific student
 		 */
 		sURIMatcher.addURI(AUTHORITY, BASE_PATH_STUDENT + "/#", STUDENT_ID);
+
+		/*
+		 * Uri to insert or update a student
+		 */
+		sURIMatcher.addURI(AUTHORITY, BASE_PATH_STUDENT + "/" + PATH_UPSERT, STUDENT_UPSERT);
+
+		/*
+		 * Uri to work on all course student mappings
+		 */
+		sURIMatcher.addURI(AUTHORITY, BASE_PATH_COURSE_STUDENT, COURSE_STUDENT_MAPPINGS);
+
+		/*
+		 * Uri to work on the recorded sync state
+		 */
+		sURIMatcher.addURI(AUTHORITY, BASE_PATH_SYNC_STATE, SYNC_STATES);
+
+		/*
+		 * Uri to work on the members of the selected contact group
+		 */
+		sURIMatcher.addURI(AUTHORITY, BASE_PATH_GROUP_MEMBER, GROUP_MEMBERS);
+		sURIMatcher.addURI(AUTHORITY, BASE_PATH_GROUP_MEMBER + "/#", GROUP_MEMBER_ID);
+		sURIMatcher.addURI(AUTHORITY, BASE_PATH_GROUP_MEMBER + "/" + PATH_UPSERT, GROUP_MEMBER_UPSERT);
+
+		/*
+		 * Uri to work on the queued contacts writes
+		 */
+		sURIMatcher.addURI(AUTHORITY, BASE_PATH_OUTBOX, OUTBOX);
+		sURIMatcher.addURI(AUTHORITY, BASE_PATH_OUTBOX + "/#", OUTBOX_ID);
+
+		/*
+		 * Uri to search the students and the courses
+		 */
+		sURIMatcher.addURI(AUTHORITY, BASE_PATH_SEARCH + "/" + BASE_PATH_STUDENT + "/*", SEARCH_STUDENTS);
+		sURIMatcher.addURI(AUTHORITY, BASE_PATH_SEARCH + "/" + BASE_PATH_COURSE + "/*", SEARCH_COURSES);
+
+		/*
+		 * Uri to remove all rows of a table except for the staged ones
+		 */
+		sURIMatcher.addURI(AUTHORITY, BASE_PATH_RECONCILE + "/*", RECONCILE);
 	}
 
 	@Override
@@ -124,6 +381,7 @@ public final class PerformanceDatabaseContentProvider extends ContentProvider {
 
 		final SQLiteDatabase sqlDb = database.getWritableDatabase();
 		final int uriType = sURIMatcher.match(uri);
+		final NotificationScope scope = getScope();
 
 		int rowsDeleted = 0;
 
@@ -131,10 +389,13 @@ public final class PerformanceDatabaseContentProvider extends ContentProvider {
 
 		case COURSES:
 			rowsDeleted = sqlDb.delete(CourseTable.TABLE_NAME, selection, selectionArgs);
+			if (rowsDeleted > 0)
+				scope.changed(DATA_COURSE, CONTENT_URI_COURSE);
 			break;
 
 		case COURSE_ID:
 			String courseId = uri.getLastPathSegment();
+			String studentId;
 			if (TextUtils.isEmpty(selection)) {
 				rowsDeleted = sqlDb.delete(CourseTable.TABLE_NAME, //
 						CourseTable.COL_ID + " = " + courseId, null);
@@ -142,31 +403,92 @@ public final class PerformanceDatabaseContentProvider extends ContentProvider {
 				rowsDeleted = sqlDb.delete(CourseTable.TABLE_NAME, //
 						CourseTable.COL_ID + " = " + courseId + " AND " + selection, selectionArgs);
 			}
+			if (rowsDeleted > 0)
+				scope.changed(DATA_COURSE, uri);
 			break;
 
 		case COURSE_STUDENT:
 			List<String> segments = uri.getPathSegments();
 			courseId = segments.get(1);
-			String studentId = segments.get(3);
+			studentId = segments.get(3);
 			rowsDeleted = sqlDb.delete(CourseStudentTable.TABLE_NAME, //
 					CourseStudentTable.COL_COURSE_ID + " = " + courseId + " AND " + CourseStudentTable.COL_STUDENT_ID + " = " + studentId, null);
+			if (rowsDeleted > 0)
+				courseStudentsChanged(scope, Long.parseLong(courseId));
 			break;
 
 		case COURSE_STUDENTS:
 			courseId = uri.getPathSegments().get(1);
 			rowsDeleted = sqlDb.delete(CourseStudentTable.TABLE_NAME, //
 					CourseStudentTable.COL_COURSE_ID + " = " + courseId, null);
+			if (rowsDeleted > 0)
+				courseStudentsChanged(scope, Long.parseLong(courseId));
 			break;
 
 		case STUDENTS:
+			rowsDeleted = sqlDb.delete(StudentTable.TABLE_NAME, selection, selectionArgs);
+			if (rowsDeleted > 0)
+				scope.studentsChanged(DATA_STUDENT, CONTENT_URI_STUDENT);
+			break;
+
+		case STUDENT_ID:
+			studentId = uri.getLastPathSegment();
+			if (TextUtils.isEmpty(selection)) {
+				rowsDeleted = sqlDb.delete(StudentTable.TABLE_NAME, //
+						StudentTable.COL_ID + " = " + studentId, null);
+			} else {
+				rowsDeleted = sqlDb.delete(StudentTable.TABLE_NAME, //
+						StudentTable.COL_ID + " = " + studentId + " AND " + selection, selectionArgs);
+			}
+			if (rowsDeleted > 0)
+				scope.studentChanged(DATA_STUDENT, uri, Long.parseLong(studentId));
+			break;
+
+		case COURSE_STUDENT_MAPPINGS:
+			// the mappings are gone afterwards, resolve their courses first
+			final long[] courseIds = queryCourseIdsOfMappings(sqlDb, selection, selectionArgs);
 			rowsDeleted = sqlDb.delete(CourseStudentTable.TABLE_NAME, selection, selectionArgs);
+			for (long mappedCourseId : courseIds)
+				courseStudentsChanged(scope, mappedCourseId);
+			break;
+
+		case SYNC_STATES:
+			rowsDeleted = sqlDb.delete(SyncStateTable.TABLE_NAME, selection, selectionArgs);
+			if (rowsDeleted > 0)
+				scope.changed(DATA_SYNC_STATE, null);
+			break;
+
+		case GROUP_MEMBERS:
+			rowsDeleted = sqlDb.delete(GroupMemberTable.TABLE_NAME, selection, selectionArgs);
+			if (rowsDeleted > 0)
+				scope.groupMembersChanged(DATA_GROUP_MEMBER, CONTENT_URI_GROUP_MEMBER);
+			break;
+
+		case GROUP_MEMBER_ID:
+			rowsDeleted = sqlDb.delete(GroupMemberTable.TABLE_NAME, //
+					GroupMemberTable.COL_ID + " = " + uri.getLastPathSegment(), null);
+			if (rowsDeleted > 0)
+				scope.groupMembersChanged(DATA_GROUP_MEMBER, uri);
+			break;
+
+		case OUTBOX:
+			rowsDeleted = sqlDb.delete(OutboxTable.TABLE_NAME, selection, selectionArgs);
+			break;
+
+		case OUTBOX_ID:
+			rowsDeleted = sqlDb.delete(OutboxTable.TABLE_NAME, //
+					OutboxTable.COL_ID + " = " + uri.getLastPathSegment(), null);
+			break;
+
+		case RECONCILE:
+			rowsDeleted = reconcile(sqlDb, uri.getLastPathSegment(), scope);
 			break;
 
 		default:
 			throw new IllegalArgumentException("Unknown URI: " + uri);
 		}
 
-		getContext().getContentResolver().notifyChange(uri, null);
+		closeScope(scope);
 
 		return rowsDeleted;
 	}
@@ -176,6 +498,7 @@ public final class PerformanceDatabaseContentProvider extends ContentProvider {
 
 		final SQLiteDatabase sqlDB = database.getWritableDatabase();
 		final int uriType = sURIMatcher.match(uri);
+		final NotificationScope scope = getScope();
 		Uri returnUri = null;
 
 		long id = 0;
@@ -185,6 +508,8 @@ public final class PerformanceDatabaseContentProvider extends ContentProvider {
 		case COURSES:
 			id = sqlDB.insert(CourseTable.TABLE_NAME, null, values);
 			returnUri = Uri.parse(BASE_PATH_COURSE + "/" + id);
+			if (id != -1)
+				scope.changed(DATA_COURSE, Uri.withAppendedPath(CONTENT_URI_COURSE, String.valueOf(id)));
 			break;
 
 		case COURSE_STUDENT:
@@ -196,24 +521,79 @@ public final class PerformanceDatabaseContentProvider extends ContentProvider {
 				values.put(CourseStudentTable.COL_COURSE_ID, courseId);
 				values.put(CourseStudentTable.COL_STUDENT_ID, studentId);
 			}
-			id = sqlDB.insert(CourseStudentTable.TABLE_NAME, null, values);
+			id = sqlDB.insertWithOnConflict(CourseStudentTable.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
 			returnUri = Uri.parse(BASE_PATH_COURSE + "/" + id);
+			if (id != -1)
+				courseStudentsChanged(scope, Long.parseLong(segments.get(1)));
 			break;
 
 		case STUDENT_ID:
 			id = sqlDB.insert(StudentTable.TABLE_NAME, null, values);
 			returnUri = Uri.parse(BASE_PATH_STUDENT + "/" + id);
+			if (id != -1)
+				scope.studentChanged(DATA_STUDENT, uri, Long.parseLong(uri.getLastPathSegment()));
+			break;
+
+		case COURSE_STUDENT_MAPPINGS:
+			id = sqlDB.insertWithOnConflict(CourseStudentTable.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+			returnUri = Uri.parse(BASE_PATH_COURSE_STUDENT + "/" + id);
+			if (id != -1)
+				courseStudentsChanged(scope, values.getAsLong(CourseStudentTable.COL_COURSE_ID));
+			break;
+
+		case SYNC_STATES:
+			id = sqlDB.insertWithOnConflict(SyncStateTable.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+			returnUri = Uri.parse(BASE_PATH_SYNC_STATE + "/" + id);
+			scope.changed(DATA_SYNC_STATE, null);
+			break;
+
+		case OUTBOX:
+			id = sqlDB.insert(OutboxTable.TABLE_NAME, null, values);
+			returnUri = Uri.parse(BASE_PATH_OUTBOX + "/" + id);
+			break;
+
+		case RECONCILE:
+			// staging does not change any data, so there is nothing to notify
+			stage(sqlDB, uri.getLastPathSegment(), values);
+			return uri;
+
+		case COURSE_UPSERT:
+			id = values.getAsLong(CourseTable.COL_ID);
+			returnUri = Uri.parse(BASE_PATH_COURSE + "/" + id);
+			if (upsert(sqlDB, CourseTable.TABLE_NAME, CourseTable.COL_ID, CourseTable.COL_CONTENT_HASH, values))
+				scope.changed(DATA_COURSE, Uri.withAppendedPath(CONTENT_URI_COURSE, String.valueOf(id)));
+			break;
+
+		case STUDENT_UPSERT:
+			id = values.getAsLong(StudentTable.COL_ID);
+			returnUri = Uri.parse(BASE_PATH_STUDENT + "/" + id);
+			if (upsert(sqlDB, StudentTable.TABLE_NAME, StudentTable.COL_ID, StudentTable.COL_CONTENT_HASH, values))
+				scope.studentChanged(DATA_STUDENT, Uri.withAppendedPath(CONTENT_URI_STUDENT, String.valueOf(id)), id);
+			break;
+
+		case GROUP_MEMBER_UPSERT:
+			id = values.getAsLong(GroupMemberTable.COL_ID);
+			returnUri = Uri.parse(BASE_PATH_GROUP_MEMBER + "/" + id);
+			if (upsert(sqlDB, GroupMemberTable.TABLE_NAME, GroupMemberTable.COL_ID, GroupMemberTable.COL_CONTENT_HASH, values))
+				scope.groupMembersChanged(DATA_GROUP_MEMBER, getCONTENT_URI_GROUP_MEMBER(id));
 			break;
 
 		case COURSE_ID:
 		case COURSE_STUDENTS:
+		case COURSE_CANDIDATES:
+		case COURSE_AGGREGATES:
 		case STUDENTS:
+		case GROUP_MEMBERS:
+		case GROUP_MEMBER_ID:
+		case OUTBOX_ID:
+		case SEARCH_STUDENTS:
+		case SEARCH_COURSES:
 			throw new IllegalArgumentException("URI (" + uri + ") not implemented, because it makes no sense!");
 		default:
 			throw new IllegalArgumentException("Unknown URI: " + uri);
 		}
 
-		getContext().getContentResolver().notifyChange(uri, null);
+		closeScope(scope);
 
 		return returnUri;
 	}
@@ -223,6 +603,7 @@ public final class PerformanceDatabaseContentProvider extends ContentProvider {
 
 		final SQLiteDatabase sqlDB = database.getWritableDatabase();
 		final int uriType = sURIMatcher.match(uri);
+		final NotificationScope scope = getScope();
 
 		int rowsUpdated = 0;
 
@@ -230,6 +611,8 @@ public final class PerformanceDatabaseContentProvider extends ContentProvider {
 
 		case COURSES:
 			rowsUpdated = sqlDB.update(CourseTable.TABLE_NAME, values, selection, selectionArgs);
+			if (rowsUpdated > 0)
+				scope.changed(DATA_COURSE, CONTENT_URI_COURSE);
 			break;
 
 		case COURSE_ID:
@@ -239,27 +622,507 @@ public final class PerformanceDatabaseContentProvider extends ContentProvider {
 			} else {
 				rowsUpdated = sqlDB.update(CourseTable.TABLE_NAME, values, CourseTable.COL_ID + " = " + id + " AND " + selection, selectionArgs);
 			}
+			if (rowsUpdated > 0)
+				scope.changed(DATA_COURSE, uri);
+			break;
+
+		case STUDENT_ID:
+			final String studentId = uri.getLastPathSegment();
+			if (TextUtils.isEmpty(selection)) {
+				rowsUpdated = sqlDB.update(StudentTable.TABLE_NAME, values, StudentTable.COL_ID + " = " + studentId, null);
+			} else {
+				rowsUpdated = sqlDB.update(StudentTable.TABLE_NAME, values, StudentTable.COL_ID + " = " + studentId + " AND " + selection, selectionArgs);
+			}
+			if (rowsUpdated > 0)
+				scope.studentChanged(DATA_STUDENT, uri, Long.parseLong(studentId));
+			break;
+
+		case COURSE_AGGREGATES:
+			rowsUpdated = CourseTable.checkAggregates(sqlDB);
+			if (rowsUpdated > 0)
+				scope.changed(DATA_COURSE, CONTENT_URI_COURSE);
+			break;
+
+		case OUTBOX_ID:
+			rowsUpdated = sqlDB.update(OutboxTable.TABLE_NAME, values, OutboxTable.COL_ID + " = " + uri.getLastPathSegment(), null);
 			break;
 
 		case COURSE_STUDENT:
 		case COURSE_STUDENTS:
 		case STUDENTS:
+		case COURSE_STUDENT_MAPPINGS:
+		case SYNC_STATES:
+		case COURSE_UPSERT:
+		case STUDENT_UPSERT:
+		case COURSE_CANDIDATES:
+		case GROUP_MEMBERS:
+		case GROUP_MEMBER_ID:
+		case GROUP_MEMBER_UPSERT:
+		case OUTBOX:
+		case SEARCH_STUDENTS:
+		case SEARCH_COURSES:
+		case RECONCILE:
 			throw new IllegalArgumentException("URI (" + uri + ") not implemented, because it makes no sense!");
 		default:
 			throw new IllegalArgumentException("Unknown URI: " + uri);
 		}
 
-		getContext().getContentResolver().notifyChange(uri, null);
+		closeScope(scope);
 
 		return rowsUpdated;
 	}
 
+	@Override
+	public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+
+		final SQLiteDatabase sqlDB = database.getWritableDatabase();
+		final boolean outermost = mScope.get() == null;
+		final NotificationScope scope = getScope();
+		ContentProviderResult[] results;
+
+		// readers keep working on their own connections in WAL mode
+		sqlDB.beginTransactionNonExclusive();
+		if (outermost)
+			mScope.set(scope);
+		try {
+
+			results = super.applyBatch(operations);
+			sqlDB.setTransactionSuccessful();
+
+		} finally {
+
+			sqlDB.endTransaction();
+			if (outermost)
+				mScope.remove();
+		}
+
+		if (outermost)
+			closeScope(scope);
+
+		return results;
+	}
+
+	@Override
+	public int bulkInsert(Uri uri, ContentValues[] values) {
+
+		final String table;
+		final int conflictAlgorithm;
+
+		switch (sURIMatcher.match(uri)) {
+
+		case COURSES:
+			table = CourseTable.TABLE_NAME;
+			conflictAlgorithm = SQLiteDatabase.CONFLICT_NONE;
+			break;
+
+		case STUDENTS:
+			table = StudentTable.TABLE_NAME;
+			conflictAlgorithm = SQLiteDatabase.CONFLICT_NONE;
+			break;
+
+		case COURSE_STUDENT_MAPPINGS:
+			table = CourseStudentTable.TABLE_NAME;
+			conflictAlgorithm = SQLiteDatabase.CONFLICT_IGNORE;
+			break;
+
+		case SYNC_STATES:
+			table = SyncStateTable.TABLE_NAME;
+			conflictAlgorithm = SQLiteDatabase.CONFLICT_REPLACE;
+			break;
+
+		default:
+			throw new IllegalArgumentException("URI (" + uri + ") not supported for bulk inserts!");
+		}
+
+		final SQLiteDatabase sqlDB = database.getWritableDatabase();
+		final NotificationScope scope = getScope();
+		int rowsInserted = 0;
+
+		sqlDB.beginTransactionNonExclusive();
+		try {
+
+			for (ContentValues value : values) {
+
+				if (sqlDB.insertWithOnConflict(table, null, value, conflictAlgorithm) != -1) {
+
+					rowsInserted++;
+
+					if (CourseStudentTable.TABLE_NAME.equals(table))
+						courseStudentsChanged(scope, value.getAsLong(CourseStudentTable.COL_COURSE_ID));
+				}
+			}
+
+			sqlDB.setTransactionSuccessful();
+
+		} finally {
+
+			sqlDB.endTransaction();
+		}
+
+		if (CourseTable.TABLE_NAME.equals(table))
+			scope.changed(DATA_COURSE, CONTENT_URI_COURSE);
+		else if (StudentTable.TABLE_NAME.equals(table))
+			scope.studentsChanged(DATA_STUDENT, CONTENT_URI_STUDENT);
+		else if (SyncStateTable.TABLE_NAME.equals(table))
+			scope.changed(DATA_SYNC_STATE, null);
+
+		closeScope(scope);
+
+		return rowsInserted;
+	}
+
+	/**
+	 * Updates the row with the id of the values if its content hash differs,
+	 * inserts it if it does not exist yet. Unlike INSERT OR REPLACE, an
+	 * unchanged row is not rewritten.
+	 * 
+	 * @param sqlDB
+	 * @param table
+	 * @param idColumn
+	 * @param contentHashColumn
+	 * @param values
+	 *            must contain the id and the content hash.
+	 * @return true if the row was inserted or updated, false if it was
+	 *         unchanged.
+	 */
+	private static boolean upsert(SQLiteDatabase sqlDB, String table, String idColumn, String contentHashColumn, ContentValues values) {
+
+		final int rowsUpdated = sqlDB.update(table, values, idColumn + " = ? AND " + contentHashColumn + " IS NOT ?",//
+				new String[] { values.getAsString(idColumn), values.getAsString(contentHashColumn), });
+
+		if (rowsUpdated > 0)
+			return true;
+
+		return sqlDB.insertWithOnConflict(table, null, values, SQLiteDatabase.CONFLICT_IGNORE) != -1;
+	}
+
+	/**
+	 * @param table
+	 * @return the columns which identify a row of the table during
+	 *         reconciliation.
+	 */
+	private static String[] getReconcileKeyColumns(String table) {
+
+		if (CourseTable.TABLE_NAME.equals(table))
+			return new String[] { CourseTable.COL_ID, };
+
+		if (StudentTable.TABLE_NAME.equals(table))
+			return new String[] { StudentTable.COL_ID, };
+
+		if (CourseStudentTable.TABLE_NAME.equals(table))
+			return new String[] { CourseStudentTable.COL_COURSE_ID, CourseStudentTable.COL_STUDENT_ID, };
+
+		if (GroupMemberTable.TABLE_NAME.equals(table))
+			return new String[] { GroupMemberTable.COL_ID, };
+
+		throw new IllegalArgumentException("Table " + table + " can not be reconciled!");
+	}
+
+	/**
+	 * @param table
+	 * @return the name of the temporary table holding the staged keys of the
+	 *         table.
+	 */
+	private static String getStagingTable(String table) {
+
+		return "reconcile_" + table;
+	}
+
+	/**
+	 * Creates the temporary table holding the staged keys of the table, if it
+	 * does not exist yet. Temporary tables only live as long as the database
+	 * connection, all writes use the same connection though.
+	 * 
+	 * @param sqlDB
+	 * @param table
+	 */
+	static void createStagingTable(SQLiteDatabase sqlDB, String table) {
+
+		final String[] keyColumns = getReconcileKeyColumns(table);
+
+		sqlDB.execSQL("CREATE TEMP TABLE IF NOT EXISTS " + getStagingTable(table) + " ( "//
+				+ TextUtils.join(" INTEGER NOT NULL, ", keyColumns) + " INTEGER NOT NULL, "//
+				+ "PRIMARY KEY (" + TextUtils.join(", ", keyColumns) + ")"//
+				+ " );");
+	}
+
+	/**
+	 * Stages the key of a row which is kept by the next reconciliation of the
+	 * table.
+	 * 
+	 * @param sqlDB
+	 * @param table
+	 * @param values
+	 *            containing the key columns.
+	 */
+	private static void stage(SQLiteDatabase sqlDB, String table, ContentValues values) {
+
+		createStagingTable(sqlDB, table);
+
+		sqlDB.insertWithOnConflict(getStagingTable(table), null, values, SQLiteDatabase.CONFLICT_IGNORE);
+	}
+
+	/**
+	 * @param table
+	 * @return the selection of the rows of the table whose key has not been
+	 *         staged. The table is scanned, the staged keys are searched.
+	 */
+	static String selectNotStaged(String table) {
+
+		final StringBuilder join = new StringBuilder();
+		for (String keyColumn : getReconcileKeyColumns(table)) {
+
+			if (join.length() > 0)
+				join.append(" AND ");
+
+			join.append("s.").append(keyColumn).append(" = ").append(table).append(".").append(keyColumn);
+		}
+
+		return "NOT EXISTS (SELECT 1 FROM temp." + getStagingTable(table) + " s WHERE " + join + ")";
+	}
+
+	/**
+	 * Deletes all rows of the table whose key has not been staged, using an
+	 * anti-join, and clears the staged keys afterwards. If nothing has been
+	 * staged, all rows are deleted.
+	 * 
+	 * @param sqlDB
+	 * @param table
+	 * @param scope
+	 *            records the changes of the table.
+	 * @return the number of deleted rows.
+	 */
+	private static int reconcile(SQLiteDatabase sqlDB, String table, NotificationScope scope) {
+
+		final String stagingTable = getStagingTable(table);
+
+		createStagingTable(sqlDB, table);
+
+		final String notStaged = selectNotStaged(table);
+
+		// the mappings are gone afterwards, resolve their courses first
+		final long[] courseIds = CourseStudentTable.TABLE_NAME.equals(table) ? queryCourseIdsOfMappings(sqlDB, notStaged, null) : null;
+
+		final int rowsDeleted = sqlDB.delete(table, notStaged, null);
+		sqlDB.delete("temp." + stagingTable, null, null);
+
+		if (rowsDeleted == 0)
+			return rowsDeleted;
+
+		// observers are interested in the table, not in the staging
+		if (CourseTable.TABLE_NAME.equals(table))
+			scope.changed(DATA_COURSE, CONTENT_URI_COURSE);
+		else if (StudentTable.TABLE_NAME.equals(table))
+			scope.studentsChanged(DATA_STUDENT, CONTENT_URI_STUDENT);
+		else if (GroupMemberTable.TABLE_NAME.equals(table))
+			scope.groupMembersChanged(DATA_GROUP_MEMBER, CONTENT_URI_GROUP_MEMBER);
+		else
+			for (long courseId : courseIds)
+				courseStudentsChanged(scope, courseId);
+
+		return rowsDeleted;
+	}
+
+	/**
+	 * @return the scope of the batch the current thread applies or a new one
+	 *         for a single operation.
+	 */
+	private NotificationScope getScope() {
+
+		final NotificationScope scope = mScope.get();
+
+		return scope != null ? scope : new NotificationScope();
+	}
+
+	/**
+	 * Raises the data versions of the changed tables and notifies the
+	 * observers of the changed uris, unless the scope belongs to a batch which
+	 * is still applied.
+	 * 
+	 * @param scope
+	 */
+	private void closeScope(NotificationScope scope) {
+
+		if (scope == mScope.get())
+			return;
+
+		raiseDataVersions(scope.getChangedTables());
+
+		final SQLiteDatabase sqlDB = database.getReadableDatabase();
+
+		if (scope.haveStudentsChanged()) {
+
+			final Set<Long> studentIds = scope.getChangedStudentIds();
+
+			for (long courseId : studentIds != null ? queryCourseIdsOfStudents(sqlDB, studentIds) : queryCourseIds(sqlDB))
+				scope.addUri(getCONTENT_URI_COURSE_STUDENTS(courseId));
+		}
+
+		if (scope.haveGroupMembersChanged()) {
+
+			for (long courseId : queryCourseIds(sqlDB))
+				scope.addUri(getCONTENT_URI_COURSE_CANDIDATES(courseId));
+		}
+
+		for (Uri uri : scope.getUrisToNotify())
+			getContext().getContentResolver().notifyChange(uri, null);
+	}
+
+	/**
+	 * Records a change of the students of the course, which changes the
+	 * candidates of the course too.
+	 * 
+	 * @param scope
+	 * @param courseId
+	 */
+	private static void courseStudentsChanged(NotificationScope scope, long courseId) {
+
+		scope.changed(DATA_COURSE_STUDENT, getCONTENT_URI_COURSE_STUDENTS(courseId));
+		scope.changed(DATA_COURSE_STUDENT, getCONTENT_URI_COURSE_CANDIDATES(courseId));
+	}
+
+	/**
+	 * @param sqlDB
+	 * @return the ids of all courses.
+	 */
+	private static long[] queryCourseIds(SQLiteDatabase sqlDB) {
+
+		return queryIds(sqlDB.query(CourseTable.TABLE_NAME, new String[] { CourseTable.COL_ID, }, null, null, null, null, null));
+	}
+
+	/**
+	 * @param sqlDB
+	 * @param selection
+	 * @param selectionArgs
+	 * @return the ids of the courses of the selected course student mappings.
+	 */
+	private static long[] queryCourseIdsOfMappings(SQLiteDatabase sqlDB, String selection, String[] selectionArgs) {
+
+		return queryIds(sqlDB.query(true, CourseStudentTable.TABLE_NAME, new String[] { CourseStudentTable.COL_COURSE_ID, }, selection, selectionArgs,
+				null, null, null, null));
+	}
+
+	/**
+	 * @param sqlDB
+	 * @param studentIds
+	 * @return the ids of the courses the students are in.
+	 */
+	private static long[] queryCourseIdsOfStudents(SQLiteDatabase sqlDB, Set<Long> studentIds) {
+
+		return queryCourseIdsOfMappings(sqlDB, CourseStudentTable.COL_STUDENT_ID + " IN (" + TextUtils.join(", ", studentIds) + ")", null);
+	}
+
+	/**
+	 * @param cursor
+	 *            on a single id column, which is closed.
+	 * @return the ids.
+	 */
+	private static long[] queryIds(Cursor cursor) {
+
+		try {
+
+			final long[] ids = new long[cursor.getCount()];
+
+			for (int i = 0; cursor.moveToNext(); i++)
+				ids[i] = cursor.getLong(0);
+
+			return ids;
+
+		} finally {
+
+			cursor.close();
+		}
+	}
+
+	/**
+	 * @param uri
+	 * @return the bits of the tables whose data is read or written through
+	 *         the uri.
+	 */
+	private static int getDataTables(Uri uri) {
+
+		switch (sURIMatcher.match(uri)) {
+
+		case COURSE_UPSERT:
+		case COURSE_AGGREGATES:
+			return DATA_COURSE;
+
+		case COURSES:
+		case COURSE_ID:
+		case SEARCH_COURSES:
+			// the aggregates of the courses change with their students
+			return DATA_COURSE | DATA_COURSE_STUDENT;
+
+		case COURSE_STUDENT:
+		case COURSE_STUDENT_MAPPINGS:
+			return DATA_COURSE_STUDENT;
+
+		case COURSE_STUDENTS:
+			return DATA_COURSE_STUDENT | DATA_STUDENT;
+
+		case COURSE_CANDIDATES:
+			return DATA_COURSE_STUDENT | DATA_GROUP_MEMBER;
+
+		case STUDENTS:
+		case STUDENT_ID:
+		case STUDENT_UPSERT:
+		case SEARCH_STUDENTS:
+			return DATA_STUDENT;
+
+		case GROUP_MEMBERS:
+		case GROUP_MEMBER_ID:
+		case GROUP_MEMBER_UPSERT:
+			return DATA_GROUP_MEMBER;
+
+		case SYNC_STATES:
+			return DATA_SYNC_STATE;
+
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * @param tables
+	 *            bits of the tables whose data versions are raised.
+	 */
+	private static void raiseDataVersions(int tables) {
+
+		for (int i = 0; i < sDataVersions.length(); i++)
+			if ((tables & (1 << i)) != 0)
+				sDataVersions.incrementAndGet(i);
+	}
+
+	/**
+	 * The data version of an uri changes after every committed write to any
+	 * table read through it. It is only meaningful within this process.
+	 * 
+	 * @param uri
+	 * @return the current data version of the uri or
+	 *         {@link PerformanceDatabaseContentProvider#NO_DATA_VERSION}.
+	 */
+	static long getDataVersion(Uri uri) {
+
+		final int tables = getDataTables(uri);
+		if (tables == 0)
+			return NO_DATA_VERSION;
+
+		long version = 0;
+
+		for (int i = 0; i < sDataVersions.length(); i++)
+			if ((tables & (1 << i)) != 0)
+				version += sDataVersions.get(i);
+
+		return version;
+	}
+
 	@Override
 	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
 
-		final SQLiteDatabase db = database.getWritableDatabase();
+		final SQLiteDatabase db = database.getReadableDatabase();
 		final int uriType = sURIMatcher.match(uri);
 		final SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+		Uri notificationUri = uri;
 
 		switch (uriType) {
 
@@ -276,7 +1139,7 @@ public final class PerformanceDatabaseContentProvider extends ContentProvider {
 
 		case COURSE_STUDENT:
 			checkCourseStudentColumns(projection);
-			queryBuilder.setTables(CourseTable.TABLE_NAME);
+			queryBuilder.setTables(CourseStudentTable.TABLE_NAME);
 			List<String> segments = uri.getPathSegments();
 			String courseId = segments.get(1);
 			String studentId = segments.get(3);
@@ -285,12 +1148,12 @@ public final class PerformanceDatabaseContentProvider extends ContentProvider {
 
 		case COURSE_STUDENTS:
 			checkCourseStudentColumns(projection);
-			queryBuilder.setTables(CourseStudentTable.TABLE_NAME + " INNER JOIN " + StudentTable.TABLE_NAME + " ON ("//
-					+ CourseStudentTable.TABLE_NAME + "." + CourseStudentTable.COL_STUDENT_ID//
-					+ " = "//
-					+ StudentTable.TABLE_NAME + "." + StudentTable.COL_ID + ")");
+			queryBuilder.setTables(COURSE_STUDENTS_TABLES);
 			courseId = uri.getPathSegments().get(1);
 			queryBuilder.appendWhere(CourseStudentTable.COL_COURSE_ID + " = " + courseId);
+			// the mapping has an _id too, it would shadow the id of the student
+			if (projection == null)
+				projection = new String[] { StudentTable.TABLE_NAME + ".*" };
 			break;
 
 		case STUDENTS:
@@ -298,11 +1161,128 @@ public final class PerformanceDatabaseContentProvider extends ContentProvider {
 			queryBuilder.setTables(StudentTable.TABLE_NAME);
 			break;
 
+		case SYNC_STATES:
+			queryBuilder.setTables(SyncStateTable.TABLE_NAME);
+			break;
+
+		case GROUP_MEMBERS:
+			checkGroupMemberColumns(projection);
+			queryBuilder.setTables(GroupMemberTable.TABLE_NAME);
+			break;
+
+		case OUTBOX:
+			queryBuilder.setTables(OutboxTable.TABLE_NAME);
+			break;
+
+		case SEARCH_STUDENTS:
+			checkCourseStudentColumns(projection);
+			queryBuilder.setTables(StudentTable.TABLE_NAME);
+			queryBuilder.appendWhere(SearchTable.selectMatches(SearchTable.STUDENT_TABLE_NAME, uri.getLastPathSegment()));
+			// the results change with the students
+			notificationUri = CONTENT_URI_STUDENT;
+			break;
+
+		case SEARCH_COURSES:
+			checkCourseColumns(projection);
+			queryBuilder.setTables(CourseTable.TABLE_NAME);
+			queryBuilder.appendWhere(SearchTable.selectMatches(SearchTable.COURSE_TABLE_NAME, uri.getLastPathSegment()));
+			// the results change with the courses
+			notificationUri = CONTENT_URI_COURSE;
+			break;
+
+		case COURSE_CANDIDATES:
+			checkGroupMemberColumns(projection);
+			queryBuilder.setTables(GroupMemberTable.TABLE_NAME);
+			courseId = uri.getPathSegments().get(1);
+			queryBuilder.appendWhere(selectCandidates(courseId));
+			break;
+
 		default:
 			throw new IllegalArgumentException("Unknown URI: " + uri);
 		}
 
-		return queryBuilder.query(db, projection, selection, selectionArgs, null, null, sortOrder);
+		String limit = null;
+		final String pageSize = uri.getQueryParameter(PARAM_PAGE_SIZE);
+		if (pageSize != null) {
+
+			final String table = getPagedTable(uriType, uri);
+			final String afterDisplayName = uri.getQueryParameter(PARAM_AFTER_DISPLAY_NAME);
+
+			if (afterDisplayName != null) {
+
+				final String keyset = selectKeyset(table);
+				selection = TextUtils.isEmpty(selection) ? keyset : "(" + selection + ") AND " + keyset;
+				selectionArgs = ArrayUtils.addAll(selectionArgs, afterDisplayName, afterDisplayName, uri.getQueryParameter(PARAM_AFTER_ID));
+			}
+			sortOrder = getPageOrder(table);
+			limit = String.valueOf(Integer.parseInt(pageSize));
+		}
+
+		final Cursor cursor = queryBuilder.query(db, projection, selection, selectionArgs, null, null, sortOrder, limit);
+
+		// reload loaders on changes of the uri or of its ancestors
+		cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+
+		return cursor;
+	}
+
+	/**
+	 * @param courseId
+	 * @return the selection of the group members which are not in the course.
+	 *         The anti-join is covered by the unique (courseid, studentid)
+	 *         index.
+	 */
+	static String selectCandidates(String courseId) {
+
+		return "NOT EXISTS (SELECT 1 FROM " + CourseStudentTable.TABLE_NAME + " cs WHERE cs." + CourseStudentTable.COL_COURSE_ID + " = " + courseId
+				+ " AND cs." + CourseStudentTable.COL_STUDENT_ID + " = " + GroupMemberTable.TABLE_NAME + "." + GroupMemberTable.COL_ID + ")";
+	}
+
+	/**
+	 * @param table
+	 *            the paged table.
+	 * @return the selection of the rows after the last row of the previous
+	 *         page, taking its display name and id as arguments. The range on
+	 *         the display name keeps the index usable.
+	 */
+	static String selectKeyset(String table) {
+
+		final String displayName = table + "." + StudentTable.COL_DISPLAY_NAME;
+
+		return displayName + " >= ? AND (" + displayName + " > ? OR " + table + "." + StudentTable.COL_ID + " > ?)";
+	}
+
+	/**
+	 * @param table
+	 *            the paged table.
+	 * @return the order of the pages of the table.
+	 */
+	static String getPageOrder(String table) {
+
+		return table + "." + StudentTable.COL_DISPLAY_NAME + " ASC, " + table + "." + StudentTable.COL_ID + " ASC";
+	}
+
+	/**
+	 * @param uriType
+	 * @param uri
+	 * @return the table whose display name and id order the pages of the uri.
+	 *         Students and group members name these columns alike.
+	 */
+	private static String getPagedTable(int uriType, Uri uri) {
+
+		switch (uriType) {
+
+		case STUDENTS:
+		case SEARCH_STUDENTS:
+		case COURSE_STUDENTS:
+			return StudentTable.TABLE_NAME;
+
+		case COURSE_CANDIDATES:
+			return GroupMemberTable.TABLE_NAME;
+
+		default:
+			throw new IllegalArgumentException("Paging not supported for URI: " + uri);
+		}
 	}
 
 	/**
@@ -339,4 +1319,21 @@ public final class PerformanceDatabaseContentProvider extends ContentProvider {
 		}
 	}
 
+	/**
+	 * Checks if the projection only uses the available columns.
+	 * 
+	 * @param projection
+	 */
+	private void checkGroupMemberColumns(String[] projection) {
+
+		if (projection != null) {
+			HashSet<String> requestedColumns = new HashSet<String>(Arrays.asList(projection));
+			HashSet<String> availableColumns = new HashSet<String>(Arrays.asList(GroupMemberTable.ALL_COLUMNS));
+			// check if all columns which are requested are available
+			if (!availableColumns.containsAll(requestedColumns)) {
+				throw new IllegalArgumentException("Unknown columns in projection");
+			}
+		}
+	}
+
 }
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.persistence.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import at.ameise.coasy.exception.CoasyError;
+import at.ameise.coasy.util.Logger;
+
+/**
+ * Checks the query plans of every query route and of the reconciliation of
+ * the {@link PerformanceDatabaseContentProvider} once, against an empty
+ * in-memory database with the current schema. A statement which scans a
+ * table, with or without an index, where it is supposed to search it fails
+ * the check, so a schema change or a query which loses its index is noticed
+ * at once instead of slowing down the app. Only the routes which read a whole
+ * table by design may scan it.<br>
+ * <br>
+ * NOTE: A debug harness, the provider itself never explains its statements.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+public final class QueryPlanChecker {
+
+	private static final String TAG = "QueryPlanChecker";
+
+	private static final String SCAN = "SCAN ";
+	private static final String TABLE = "TABLE ";
+
+	private static final String PAGE_SIZE = "100";
+	private static final String ID = "1";
+	private static final String[] KEYSET_ARGS = new String[] { "m", "m", ID, };
+
+	private QueryPlanChecker() {
+	}
+
+	/**
+	 * Builds the schema in an in-memory database and checks the plans of all
+	 * query routes.
+	 * 
+	 * @param context
+	 * @throws CoasyError
+	 *             if a statement scans a table it should search, after all
+	 *             statements were checked and every failure was logged.
+	 */
+	public static void checkQueryPlans(Context context) {
+
+		final SQLiteDatabase db = SQLiteDatabase.create(null);
+		final List<String> failures = new ArrayList<String>();
+
+		try {
+
+			CoasyDatabaseHelper.getInstance(context).onCreate(db);
+
+			// the lookups, the pages and the searches must not scan
+			check(db, buildQuery(CourseTable.TABLE_NAME, CourseTable.COL_ID + " = " + ID, null), null, null, failures);
+			check(db, buildQuery(CourseStudentTable.TABLE_NAME, CourseStudentTable.COL_COURSE_ID + " = " + ID + " AND " + CourseStudentTable.COL_STUDENT_ID
+					+ " = " + ID, null), null, null, failures);
+			check(db, buildPageQuery(PerformanceDatabaseContentProvider.COURSE_STUDENTS_TABLES, StudentTable.TABLE_NAME, //
+					CourseStudentTable.COL_COURSE_ID + " = " + ID), KEYSET_ARGS, null, failures);
+			check(db, buildPageQuery(StudentTable.TABLE_NAME, StudentTable.TABLE_NAME, null), KEYSET_ARGS, null, failures);
+			check(db, buildPageQuery(StudentTable.TABLE_NAME, StudentTable.TABLE_NAME, //
+					SearchTable.selectMatches(SearchTable.STUDENT_TABLE_NAME, "m")), KEYSET_ARGS, null, failures);
+			check(db, buildQuery(CourseTable.TABLE_NAME, SearchTable.selectMatches(SearchTable.COURSE_TABLE_NAME, "m"), null), null, null, failures);
+			check(db, buildPageQuery(GroupMemberTable.TABLE_NAME, GroupMemberTable.TABLE_NAME, //
+					PerformanceDatabaseContentProvider.selectCandidates(ID)), KEYSET_ARGS, null, failures);
+			check(db, buildQuery(SyncStateTable.TABLE_NAME, SyncStateTable.COL_KIND + " = " + SyncStateTable.KIND_CONTACT, null), null, null, failures);
+			check(db, buildQuery(GroupMemberTable.TABLE_NAME, GroupMemberTable.COL_ID + " IN (" + ID + ", 2)", null), null, null, failures);
+
+			// the lists of all rows read the whole table
+			check(db, buildQuery(CourseTable.TABLE_NAME, null, CourseTable.SORT_ORDER_TITLE_ASC), null, CourseTable.TABLE_NAME, failures);
+			check(db, buildQuery(StudentTable.TABLE_NAME, null, null), null, StudentTable.TABLE_NAME, failures);
+			check(db, buildQuery(OutboxTable.TABLE_NAME, null, OutboxTable.COL_ID + " asc"), null, OutboxTable.TABLE_NAME, failures);
+
+			// the unpaged anti-join looks at every group member
+			check(db, buildQuery(GroupMemberTable.TABLE_NAME, PerformanceDatabaseContentProvider.selectCandidates(ID), null), null,
+					GroupMemberTable.TABLE_NAME, failures);
+
+			// the reconciled table is scanned, the staged keys have to be searched
+			for (String table : new String[] { CourseTable.TABLE_NAME, StudentTable.TABLE_NAME, CourseStudentTable.TABLE_NAME, GroupMemberTable.TABLE_NAME, }) {
+
+				PerformanceDatabaseContentProvider.createStagingTable(db, table);
+				check(db, "DELETE FROM " + table + " WHERE " + PerformanceDatabaseContentProvider.selectNotStaged(table), null, table, failures);
+			}
+
+		} finally {
+
+			db.close();
+		}
+
+		if (failures.isEmpty())
+			return;
+
+		for (String failure : failures)
+			Logger.error(TAG, failure);
+
+		throw new CoasyError(failures.size() + " statements scan a table they should search, see the log.");
+	}
+
+	/**
+	 * @param table
+	 * @param where
+	 *            the selection of the uri, or null.
+	 * @param orderBy
+	 *            the sort order of the callers, or null.
+	 * @return the query of all columns.
+	 */
+	private static String buildQuery(String table, String where, String orderBy) {
+
+		return SQLiteQueryBuilder.buildQueryString(false, table, null, where, null, null, orderBy, null);
+	}
+
+	/**
+	 * @param tables
+	 * @param pagedTable
+	 *            the table whose display name and id order the pages.
+	 * @param where
+	 *            the selection of the uri, or null.
+	 * @return a page after the first one.
+	 */
+	private static String buildPageQuery(String tables, String pagedTable, String where) {
+
+		final String keyset = PerformanceDatabaseContentProvider.selectKeyset(pagedTable);
+
+		return SQLiteQueryBuilder.buildQueryString(false, tables, new String[] { pagedTable + ".*", }, //
+				where == null ? keyset : "(" + where + ") AND " + keyset, null, null, PerformanceDatabaseContentProvider.getPageOrder(pagedTable), PAGE_SIZE);
+	}
+
+	/**
+	 * @param db
+	 * @param sql
+	 *            the statement to check.
+	 * @param selectionArgs
+	 *            the arguments of the statement.
+	 * @param scannedTable
+	 *            the table the statement has to scan, i.e. the outer table of
+	 *            an anti-join, or null.
+	 * @param failures
+	 *            receives a message for every other table the statement
+	 *            scans.
+	 */
+	private static void check(SQLiteDatabase db, String sql, String[] selectionArgs, String scannedTable, List<String> failures) {
+
+		final Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+		try {
+
+			final int detailIndex = plan.getColumnIndexOrThrow("detail");
+			while (plan.moveToNext()) {
+
+				final String detail = plan.getString(detailIndex);
+				final String table = getScannedTable(detail);
+
+				if (table != null && !table.equals(scannedTable))
+					failures.add("Full scan of " + table + " (" + detail + ") in: " + sql);
+			}
+
+		} finally {
+
+			plan.close();
+		}
+	}
+
+	/**
+	 * @param detail
+	 *            a row of a query plan, i.e. "SCAN TABLE student (~1000000
+	 *            rows)" or "SCAN student" since SQLite 3.24.
+	 * @return the table the row scans, with or without an index, null if it
+	 *         searches the table, scans a virtual table or a subquery.
+	 */
+	static String getScannedTable(String detail) {
+
+		if (!detail.startsWith(SCAN) || detail.contains("VIRTUAL TABLE"))
+			return null;
+
+		String table = detail.substring(SCAN.length());
+		if (table.startsWith(TABLE))
+			table = table.substring(TABLE.length());
+
+		if (table.startsWith("SUBQUERY") || table.startsWith("CONSTANT") || table.startsWith("("))
+			return null;
+
+		final int end = table.indexOf(' ');
+
+		return end < 0 ? table : table.substring(0, end);
+	}
+}
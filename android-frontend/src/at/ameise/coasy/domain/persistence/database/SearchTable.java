@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.persistence.database;
+
+import java.util.Locale;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+import at.ameise.coasy.util.Logger;
+
+/**
+ * Contains definitions for the full-text search tables. There is an FTS4
+ * table for the students and one for the courses, holding the searchable
+ * columns of every row with the id of the row as docid. Triggers on the
+ * {@link StudentTable} and {@link CourseTable} keep them in sync.<br>
+ * <br>
+ * NOTE: This class and its methods should only be visible to the database
+ * package! Mind the visibility of constants!
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+public final class SearchTable {
+
+	private static final String TAG = "SearchTable";
+
+	/**
+	 * These tables were introduced after the initial release, so their
+	 * initial schema already has to raise the database version. They own the
+	 * bits 0xf000000 of the database version.
+	 */
+	private static final int INITIAL_SCHEMA = 0x1000000;
+
+	static final int SCHEMA_VERSION = INITIAL_SCHEMA;
+
+	/**
+	 * The docid of a row is the id of the indexed row.
+	 */
+	public static final String COL_DOC_ID = "docid";
+
+	public static final String STUDENT_TABLE_NAME = "studentsearch";
+	public static final String COURSE_TABLE_NAME = "coursesearch";
+
+	/**
+	 * The indexed columns of the {@link StudentTable}, which are the columns
+	 * of the {@link SearchTable#STUDENT_TABLE_NAME} as well.
+	 */
+	private static final String[] STUDENT_COLUMNS = { StudentTable.COL_DISPLAY_NAME, StudentTable.COL_CONTACT_NAME, StudentTable.COL_ADDRESS, };
+	/**
+	 * The indexed columns of the {@link CourseTable}, which are the columns of
+	 * the {@link SearchTable#COURSE_TABLE_NAME} as well.
+	 */
+	private static final String[] COURSE_COLUMNS = { CourseTable.COL_TITLE, CourseTable.COL_DESCRIPTION, CourseTable.COL_ADDRESS, };
+
+	/**
+	 * Turns the text the user typed into an FTS match expression, which
+	 * matches the rows containing a word starting with every word of the
+	 * text. Operators and quotes of the FTS query syntax are removed.
+	 * 
+	 * @param query
+	 * @return the match expression, empty if the query contains no words.
+	 */
+	static String toMatchExpression(String query) {
+
+		// lower case, so words like OR are not taken as operators; the tokenizer folds the case anyway
+		final String[] words = query.toLowerCase(Locale.US).replaceAll("[^\\p{L}\\p{Nd}]+", " ").trim().split(" ");
+		final StringBuilder expression = new StringBuilder(query.length() + 2 * words.length);
+
+		for (String word : words) {
+
+			if (word.length() == 0)
+				continue;
+
+			if (expression.length() > 0)
+				expression.append(' ');
+
+			expression.append(word).append('*');
+		}
+
+		return expression.toString();
+	}
+
+	/**
+	 * @param searchTable
+	 *            {@link SearchTable#STUDENT_TABLE_NAME} or
+	 *            {@link SearchTable#COURSE_TABLE_NAME}.
+	 * @param query
+	 *            the text the user typed.
+	 * @return a selection on the indexed table, which selects the rows
+	 *         matching the query.
+	 */
+	static String selectMatches(String searchTable, String query) {
+
+		return "_id IN (SELECT " + COL_DOC_ID + " FROM " + searchTable + " WHERE " + searchTable + " MATCH "
+				+ DatabaseUtils.sqlEscapeString(toMatchExpression(query)) + ")";
+	}
+
+	/**
+	 * The search tables hold derived data only, so they are rebuilt from the
+	 * indexed tables on every upgrade. This also restores the triggers, if an
+	 * indexed table was recreated by its upgrade.
+	 * 
+	 * @param db
+	 * @param oldDatabaseVersion
+	 *            the old overall database version.
+	 * @param newDatabaseVersion
+	 *            the new overall database version.
+	 */
+	static void upgrade(SQLiteDatabase db, int oldDatabaseVersion, int newDatabaseVersion) {
+		Logger.debug(TAG, "Rebuilding the Search tables for the upgrade from version " + oldDatabaseVersion + " to " + newDatabaseVersion);
+
+		reCreate(db);
+	}
+
+	/**
+	 * Creates the search tables and their triggers and indexes the existing
+	 * rows.
+	 * 
+	 * @param db
+	 */
+	static void create(SQLiteDatabase db) {
+		Logger.debug(TAG, "Creating Search tables");
+
+		create(db, STUDENT_TABLE_NAME, StudentTable.TABLE_NAME, STUDENT_COLUMNS);
+		create(db, COURSE_TABLE_NAME, CourseTable.TABLE_NAME, COURSE_COLUMNS);
+	}
+
+	/**
+	 * Drops the search tables and their triggers.
+	 * 
+	 * @param db
+	 */
+	private static void drop(SQLiteDatabase db) {
+		Logger.debug(TAG, "Dropping Search tables");
+
+		drop(db, STUDENT_TABLE_NAME);
+		drop(db, COURSE_TABLE_NAME);
+	}
+
+	/**
+	 * Drops and creates the search tables.
+	 * 
+	 * @param db
+	 */
+	static void reCreate(SQLiteDatabase db) {
+
+		drop(db);
+		create(db);
+	}
+
+	/**
+	 * Creates the search table of the indexed table, the triggers which keep
+	 * it in sync and indexes the existing rows.
+	 * 
+	 * @param db
+	 * @param searchTable
+	 * @param table
+	 *            the indexed table.
+	 * @param columns
+	 *            the indexed columns.
+	 */
+	private static void create(SQLiteDatabase db, String searchTable, String table, String[] columns) {
+
+		final String columnList = TextUtils.join(", ", columns);
+		final String insertNew = "INSERT INTO " + searchTable + " (" + COL_DOC_ID + ", " + columnList + ") VALUES (new._id, new."
+				+ TextUtils.join(", new.", columns) + ");";
+		final String deleteOld = "DELETE FROM " + searchTable + " WHERE " + COL_DOC_ID + " = old._id;";
+
+		db.execSQL("CREATE VIRTUAL TABLE " + searchTable + " USING fts4(" + columnList + ");");
+
+		db.execSQL("CREATE TRIGGER " + searchTable + "_insert AFTER INSERT ON " + table + " BEGIN "//
+				+ insertNew//
+				+ " END;");
+		db.execSQL("CREATE TRIGGER " + searchTable + "_update AFTER UPDATE OF " + columnList + " ON " + table + " BEGIN "//
+				+ deleteOld + " "//
+				+ insertNew//
+				+ " END;");
+		db.execSQL("CREATE TRIGGER " + searchTable + "_delete AFTER DELETE ON " + table + " BEGIN "//
+				+ deleteOld//
+				+ " END;");
+
+		db.execSQL("INSERT INTO " + searchTable + " (" + COL_DOC_ID + ", " + columnList + ") SELECT _id, " + columnList + " FROM " + table + ";");
+	}
+
+	/**
+	 * Drops the search table and its triggers.
+	 * 
+	 * @param db
+	 * @param searchTable
+	 */
+	private static void drop(SQLiteDatabase db, String searchTable) {
+
+		db.execSQL("DROP TRIGGER IF EXISTS " + searchTable + "_insert;");
+		db.execSQL("DROP TRIGGER IF EXISTS " + searchTable + "_update;");
+		db.execSQL("DROP TRIGGER IF EXISTS " + searchTable + "_delete;");
+		db.execSQL("DROP TABLE IF EXISTS " + searchTable + ";");
+	}
+}
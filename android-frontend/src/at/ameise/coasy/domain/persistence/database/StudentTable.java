@@ -39,8 +39,9 @@ import android.database.sqlite.SQLiteDatabase;
 import android.provider.ContactsContract;
 import at.ameise.coasy.domain.Course;
 import at.ameise.coasy.domain.Student;
-import at.ameise.coasy.exception.DatabaseError;
-import at.ameise.coasy.util.ReflectionUtil;
+import at.ameise.coasy.util.HashUtil;
+import at.ameise.coasy.util.Logger;
+import at.ameise.coasy.util.RowMapper;
 
 /**
  * Contains definitions for the student table.<br>
@@ -53,10 +54,20 @@ import at.ameise.coasy.util.ReflectionUtil;
  */
 public final class StudentTable {
 
+	private static final String TAG = "StudentTable";
+
 	private static final int INITIAL_SCHEMA = 0x000000;
-	private static final int SCHEMA_MASK = 0x01100;
+	/**
+	 * Added {@link StudentTable#COL_CONTENT_HASH}.
+	 */
+	private static final int CONTENT_HASH_SCHEMA = 0x00100;
+	/**
+	 * Added the display name index.
+	 */
+	private static final int DISPLAY_NAME_INDEX_SCHEMA = 0x00200;
+	private static final int SCHEMA_MASK = 0x00f00;
 
-	static final int SCHEMA_VERSION = INITIAL_SCHEMA;
+	static final int SCHEMA_VERSION = DISPLAY_NAME_INDEX_SCHEMA;
 
 	/**
 	 * id of the corresponding contact.
@@ -68,6 +79,11 @@ public final class StudentTable {
 	public static final String COL_EMAIL = "email";
 	public static final String COL_PHONE = "phone";
 	public static final String COL_ADDRESS = "address";
+	/**
+	 * hash of all other columns except for the id. Used to skip rewriting
+	 * unchanged rows.
+	 */
+	public static final String COL_CONTENT_HASH = "contenthash";
 
 	public static final String SORT_ORDER_DISPLAY_NAME_DESC = COL_DISPLAY_NAME + " desc";
 	public static final String SORT_ORDER_DISPLAY_NAME_ASC = COL_DISPLAY_NAME + " asc";
@@ -81,12 +97,19 @@ public final class StudentTable {
 			+ COL_CONTACT_NAME + " TEXT, "//
 			+ COL_EMAIL + " TEXT, "//
 			+ COL_PHONE + " TEXT, "//
-			+ COL_ADDRESS + " TEXT"//
+			+ COL_ADDRESS + " TEXT, "//
+			+ COL_CONTENT_HASH + " INTEGER"//
 			+ " );";
 
+	/**
+	 * Covers the sort order and the pages of the students lists.
+	 */
+	private static final String CREATE_DISPLAY_NAME_INDEX_STATEMENT = "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_displayname ON " + TABLE_NAME
+			+ " (" + COL_DISPLAY_NAME + ");";
+
 	private static final String DROP_STATEMENT = "DROP TABLE IF EXISTS " + TABLE_NAME + ";";
 
-	public static final String[] ALL_COLUMNS = { COL_ID, COL_DISPLAY_NAME, COL_DAY_OF_BIRTH, COL_CONTACT_NAME, COL_EMAIL, COL_PHONE, COL_ADDRESS };
+	public static final String[] ALL_COLUMNS = { COL_ID, COL_DISPLAY_NAME, COL_DAY_OF_BIRTH, COL_CONTACT_NAME, COL_EMAIL, COL_PHONE, COL_ADDRESS, COL_CONTENT_HASH, };
 
 	/**
 	 * @param course
@@ -103,34 +126,49 @@ public final class StudentTable {
 		values.put(COL_EMAIL, "student.getEmail()");
 		values.put(COL_PHONE, "student.getPhone()");
 		values.put(COL_ADDRESS, student.getAddress());
+		values.put(COL_CONTENT_HASH, HashUtil.getFnv1a64From(values.get(COL_DISPLAY_NAME), values.get(COL_DAY_OF_BIRTH), values.get(COL_CONTACT_NAME),
+				values.get(COL_EMAIL), values.get(COL_PHONE), values.get(COL_ADDRESS)));
 
 		return values;
 	}
 
 	/**
-	 * Upgrades the schema of the course table if necessary.
+	 * Upgrades the schema of the student table step by step. If there is no
+	 * migration from the old schema, the table is recreated.
 	 * 
 	 * @param db
 	 * @param oldDatabaseVersion
 	 *            the old overall database version.
 	 * @param newDatabaseVersion
 	 *            the new overall database version.
+	 * @return true if the table was recreated and lost its data.
 	 */
-	static void upgrade(SQLiteDatabase db, int oldDatabaseVersion, int newDatabaseVersion) {
+	static boolean upgrade(SQLiteDatabase db, int oldDatabaseVersion, int newDatabaseVersion) {
+		Logger.debug(TAG, "Upgrading Student table from version " + oldDatabaseVersion + " to " + newDatabaseVersion);
 
-		final int oldTableSchemaVersion = oldDatabaseVersion & SCHEMA_MASK;
-		final int newTableSchemaVersion = newDatabaseVersion & SCHEMA_MASK;
+		int tableSchemaVersion = CoasyDatabaseHelper.getTableSchemaVersion(oldDatabaseVersion, SCHEMA_MASK);
+		final int newTableSchemaVersion = CoasyDatabaseHelper.getTableSchemaVersion(newDatabaseVersion, SCHEMA_MASK);
 
-		/*
-		 * TODO add if blocks like this if(oldTableSchemaVersion ==
-		 * INITIAL_SCHEMA) upgradeFromInitialSchema(newTableSchemaVersion); //do
-		 * the actual upgrade else throw new NotImplementedError(
-		 * "The schema has changed but there was now upgrade routine implemented"
-		 * )
-		 */
+		if (tableSchemaVersion == INITIAL_SCHEMA && tableSchemaVersion < newTableSchemaVersion) {
 
-		drop(db);
-		create(db);
+			db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COL_CONTENT_HASH + " INTEGER;");
+			tableSchemaVersion = CONTENT_HASH_SCHEMA;
+		}
+
+		if (tableSchemaVersion == CONTENT_HASH_SCHEMA && tableSchemaVersion < newTableSchemaVersion) {
+
+			db.execSQL(CREATE_DISPLAY_NAME_INDEX_STATEMENT);
+			tableSchemaVersion = DISPLAY_NAME_INDEX_SCHEMA;
+		}
+
+		if (tableSchemaVersion != newTableSchemaVersion) {
+
+			Logger.warn(TAG, "No migration from schema " + tableSchemaVersion + " to " + newTableSchemaVersion + ", recreating the Student table.");
+			reCreate(db);
+			return true;
+		}
+
+		return false;
 	}
 
 	/**
@@ -141,6 +179,7 @@ public final class StudentTable {
 	static void create(SQLiteDatabase db) {
 
 		db.execSQL(StudentTable.CREATE_STATEMENT);
+		db.execSQL(StudentTable.CREATE_DISPLAY_NAME_INDEX_STATEMENT);
 	}
 
 	/**
@@ -176,30 +215,32 @@ public final class StudentTable {
 	 */
 	public static Student fromContactsCursor(Cursor c) {
 
-		Student student = new Student(c.getString(c.getColumnIndexOrThrow(ContactsContract.Contacts.DISPLAY_NAME_PRIMARY)),//
-				null,//
-				null,//
-				null,//
-				null,//
-				null);
-		try {
+		return newContactsRowMapper().map(c);
+	}
 
-			ReflectionUtil.setFieldValue(student, "id", c.getLong(c.getColumnIndexOrThrow(ContactsContract.Contacts._ID)));
+	/**
+	 * @return a new mapper for cursors on the {@link ContactsContract.Contacts}.
+	 */
+	public static RowMapper<Student> newContactsRowMapper() {
 
-		} catch (NoSuchFieldException e) {
+		return new RowMapper<Student>() {
 
-			throw new DatabaseError("Failed to set the id field of student!", e);
+			private int mIdIndex;
+			private int mDisplayNameIndex;
 
-		} catch (IllegalAccessException e) {
+			@Override
+			protected void resolveColumnIndexes(Cursor c) {
 
-			throw new DatabaseError("Failed to set the id field of student!", e);
+				mIdIndex = c.getColumnIndexOrThrow(ContactsContract.Contacts._ID);
+				mDisplayNameIndex = c.getColumnIndexOrThrow(ContactsContract.Contacts.DISPLAY_NAME_PRIMARY);
+			}
 
-		} catch (IllegalArgumentException e) {
+			@Override
+			protected Student mapRow(Cursor c) {
 
-			throw new DatabaseError("Failed to set the id field of student!", e);
-		}
-
-		return student;
+				return Student.restore(c.getLong(mIdIndex), c.getString(mDisplayNameIndex), null, null, null, null, null);
+			}
+		};
 	}
 
 	/**
@@ -209,33 +250,44 @@ public final class StudentTable {
 	 */
 	public static Student fromStudentsCursor(Cursor c) {
 
-		Student student = new Student(//
-				c.getString(c.getColumnIndexOrThrow(COL_DISPLAY_NAME)),//
-				new Date(c.getLong(c.getColumnIndexOrThrow(COL_DAY_OF_BIRTH))),//
-				c.getString(c.getColumnIndexOrThrow(COL_CONTACT_NAME)),//
-				new HashMap<String, String>(),// c.getString(c.getColumnIndexOrThrow(COL_DISPLAY_NAME),//
-				new HashMap<String, String>(),// c.getString(c.getColumnIndexOrThrow(COL_DISPLAY_NAME),//
-				c.getString(c.getColumnIndexOrThrow(COL_ADDRESS))//
-		);
-
-		try {
-
-			ReflectionUtil.setFieldValue(student, "id", c.getLong(c.getColumnIndexOrThrow(COL_ID)));
-
-		} catch (NoSuchFieldException e) {
-
-			throw new DatabaseError("Failed to set the id field of course!", e);
-
-		} catch (IllegalAccessException e) {
-
-			throw new DatabaseError("Failed to set the id field of course!", e);
-
-		} catch (IllegalArgumentException e) {
-
-			throw new DatabaseError("Failed to set the id field of course!", e);
-		}
+		return newStudentsRowMapper().map(c);
+	}
 
-		return student;
+	/**
+	 * @return a new mapper for cursors on the {@link StudentTable}.
+	 */
+	public static RowMapper<Student> newStudentsRowMapper() {
+
+		return new RowMapper<Student>() {
+
+			private int mIdIndex;
+			private int mDisplayNameIndex;
+			private int mDayOfBirthIndex;
+			private int mContactNameIndex;
+			private int mAddressIndex;
+
+			@Override
+			protected void resolveColumnIndexes(Cursor c) {
+
+				mIdIndex = c.getColumnIndexOrThrow(COL_ID);
+				mDisplayNameIndex = c.getColumnIndexOrThrow(COL_DISPLAY_NAME);
+				mDayOfBirthIndex = c.getColumnIndexOrThrow(COL_DAY_OF_BIRTH);
+				mContactNameIndex = c.getColumnIndexOrThrow(COL_CONTACT_NAME);
+				mAddressIndex = c.getColumnIndexOrThrow(COL_ADDRESS);
+			}
+
+			@Override
+			protected Student mapRow(Cursor c) {
+
+				return Student.restore(c.getLong(mIdIndex),//
+						c.getString(mDisplayNameIndex),//
+						new Date(c.getLong(mDayOfBirthIndex)),//
+						c.getString(mContactNameIndex),//
+						new HashMap<String, String>(),//
+						new HashMap<String, String>(),//
+						c.getString(mAddressIndex));
+			}
+		};
 	}
 
 	/**
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.persistence.database;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.ContactsContract;
+import at.ameise.coasy.util.Logger;
+
+/**
+ * Contains definitions for the sync state table. It holds the last seen
+ * version of every contact group and contact which was mirrored into the
+ * performance database, so a refresh only needs to touch the ones which changed
+ * since then.<br>
+ * <br>
+ * NOTE: This class and its methods should only be visible to the database
+ * package! Mind the visibility of constants!
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+public final class SyncStateTable {
+
+	private static final String TAG = "SyncStateTable";
+
+	/**
+	 * This table was introduced after the initial release, so its initial
+	 * schema already has to raise the database version.
+	 */
+	private static final int NO_SCHEMA = 0x000000;
+	private static final int INITIAL_SCHEMA = 0x100000;
+	private static final int SCHEMA_MASK = 0xf00000;
+
+	static final int SCHEMA_VERSION = INITIAL_SCHEMA;
+
+	/**
+	 * {@link SyncStateTable#COL_KIND} of a {@link ContactsContract.Groups} row.
+	 * The version is the {@link ContactsContract.Groups#VERSION}.
+	 */
+	public static final int KIND_GROUP = 1;
+	/**
+	 * {@link SyncStateTable#COL_KIND} of a {@link ContactsContract.Contacts}
+	 * row. The version is derived from the
+	 * {@link ContactsContract.RawContacts#VERSION}s of its raw contacts.
+	 */
+	public static final int KIND_CONTACT = 2;
+	/**
+	 * {@link SyncStateTable#COL_KIND} of the contact group selected in the
+	 * user settings, whose members are mirrored in the
+	 * {@link GroupMemberTable}. The version is not used.
+	 */
+	public static final int KIND_SELECTED_GROUP = 3;
+
+	public static final String COL_KIND = "kind";
+	/**
+	 * id of the corresponding contact group or contact.
+	 */
+	public static final String COL_SYNC_ID = "syncid";
+	public static final String COL_VERSION = "version";
+
+	public static final String TABLE_NAME = "syncstate";
+
+	private static final String CREATE_STATEMENT = "CREATE TABLE " + TABLE_NAME + " ( " //
+			+ COL_KIND + " INTEGER NOT NULL, "//
+			+ COL_SYNC_ID + " INTEGER NOT NULL, "//
+			+ COL_VERSION + " INTEGER NOT NULL, "//
+			+ "PRIMARY KEY (" + COL_KIND + ", " + COL_SYNC_ID + ")"//
+			+ " );";
+
+	private static final String DROP_STATEMENT = "DROP TABLE IF EXISTS " + TABLE_NAME + ";";
+
+	public static final String[] ALL_COLUMNS = { COL_KIND, COL_SYNC_ID, COL_VERSION, };
+
+	/**
+	 * @param kind
+	 * @param syncId
+	 * @param version
+	 * @return the {@link ContentValues} of a sync state row.
+	 */
+	public static ContentValues from(int kind, long syncId, long version) {
+
+		final ContentValues values = new ContentValues();
+
+		values.put(COL_KIND, kind);
+		values.put(COL_SYNC_ID, syncId);
+		values.put(COL_VERSION, version);
+
+		return values;
+	}
+
+	/**
+	 * Upgrades the schema of the sync state table step by step. If there is no
+	 * migration from the old schema, the table is recreated.
+	 * 
+	 * @param db
+	 * @param oldDatabaseVersion
+	 *            the old overall database version.
+	 * @param newDatabaseVersion
+	 *            the new overall database version.
+	 * @return true if the table was recreated and lost its data.
+	 */
+	static boolean upgrade(SQLiteDatabase db, int oldDatabaseVersion, int newDatabaseVersion) {
+		Logger.debug(TAG, "Upgrading SyncState table from version " + oldDatabaseVersion + " to " + newDatabaseVersion);
+
+		int tableSchemaVersion = CoasyDatabaseHelper.getTableSchemaVersion(oldDatabaseVersion, SCHEMA_MASK);
+		final int newTableSchemaVersion = CoasyDatabaseHelper.getTableSchemaVersion(newDatabaseVersion, SCHEMA_MASK);
+
+		if (tableSchemaVersion == NO_SCHEMA && tableSchemaVersion < newTableSchemaVersion) {
+
+			create(db);
+			tableSchemaVersion = INITIAL_SCHEMA;
+		}
+
+		if (tableSchemaVersion != newTableSchemaVersion) {
+
+			Logger.warn(TAG, "No migration from schema " + tableSchemaVersion + " to " + newTableSchemaVersion + ", recreating the SyncState table.");
+			reCreate(db);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Creates the sync state table.
+	 * 
+	 * @param db
+	 */
+	static void create(SQLiteDatabase db) {
+		Logger.debug(TAG, "Creating SyncState table");
+
+		db.execSQL(SyncStateTable.CREATE_STATEMENT);
+	}
+
+	/**
+	 * Drops the sync state table.
+	 * 
+	 * @param db
+	 */
+	private static void drop(SQLiteDatabase db) {
+		Logger.debug(TAG, "Dropping SyncState table");
+
+		db.execSQL(SyncStateTable.DROP_STATEMENT);
+	}
+
+	/**
+	 * Drops and creates the sync state table.
+	 * 
+	 * @param db
+	 */
+	static void reCreate(SQLiteDatabase db) {
+
+		drop(db);
+		create(db);
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.domain.persistence.database;
+
+import android.app.LoaderManager;
+import android.app.LoaderManager.LoaderCallbacks;
+import android.content.Context;
+import android.content.CursorLoader;
+import android.content.Loader;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+/**
+ * A {@link CursorLoader} on a {@link PerformanceDatabaseContentProvider} uri,
+ * which records the data version of the uri it loaded at. Restarting it with
+ * {@link VersionedCursorLoader#restartIfChanged(LoaderManager, int, Bundle, LoaderCallbacks)}
+ * does nothing, as long as the data has not changed since.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+public final class VersionedCursorLoader extends CursorLoader {
+
+	private volatile long mLoadedVersion = PerformanceDatabaseContentProvider.NO_DATA_VERSION;
+
+	/**
+	 * See
+	 * {@link CursorLoader#CursorLoader(Context, Uri, String[], String, String[], String)}
+	 * 
+	 * @param context
+	 * @param uri
+	 * @param projection
+	 * @param selection
+	 * @param selectionArgs
+	 * @param sortOrder
+	 */
+	public VersionedCursorLoader(Context context, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		super(context, uri, projection, selection, selectionArgs, sortOrder);
+	}
+
+	@Override
+	public Cursor loadInBackground() {
+
+		// read the version before the data, a write in between causes a reload
+		final long version = PerformanceDatabaseContentProvider.getDataVersion(getUri());
+
+		final Cursor cursor = super.loadInBackground();
+
+		mLoadedVersion = cursor != null ? version : PerformanceDatabaseContentProvider.NO_DATA_VERSION;
+
+		return cursor;
+	}
+
+	/**
+	 * @return true if the loaded data is still the current one.
+	 */
+	public boolean isUpToDate() {
+
+		final long loadedVersion = mLoadedVersion;
+
+		return loadedVersion != PerformanceDatabaseContentProvider.NO_DATA_VERSION
+				&& loadedVersion == PerformanceDatabaseContentProvider.getDataVersion(getUri());
+	}
+
+	/**
+	 * Restarts the loader with the id, unless it is a
+	 * {@link VersionedCursorLoader} which is up to date. See
+	 * {@link LoaderManager#restartLoader(int, Bundle, LoaderCallbacks)}
+	 * 
+	 * @param loaderManager
+	 * @param id
+	 * @param args
+	 * @param callbacks
+	 */
+	public static void restartIfChanged(LoaderManager loaderManager, int id, Bundle args, LoaderCallbacks<Cursor> callbacks) {
+
+		final Loader<Cursor> loader = loaderManager.getLoader(id);
+
+		if (loader instanceof VersionedCursorLoader && ((VersionedCursorLoader) loader).isUpToDate())
+			return;
+
+		loaderManager.restartLoader(id, args, callbacks);
+	}
+}
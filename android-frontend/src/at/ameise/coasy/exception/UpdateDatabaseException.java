@@ -51,7 +51,7 @@ public final class UpdateDatabaseException extends AbstractDatabaseException {
 	 * @param detailMessage
 	 * @param throwable
 	 */
-	private UpdateDatabaseException(String detailMessage, Throwable throwable) {
+	public UpdateDatabaseException(String detailMessage, Throwable throwable) {
 		super(detailMessage, throwable);
 	}
 
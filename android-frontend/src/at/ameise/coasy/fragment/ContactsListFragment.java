@@ -33,35 +33,46 @@ package at.ameise.coasy.fragment;
 import android.app.FragmentTransaction;
 import android.app.ListFragment;
 import android.app.LoaderManager;
+import android.content.CursorLoader;
 import android.content.Loader;
 import android.database.Cursor;
+import android.os.AsyncTask;
 import android.os.Bundle;
-import android.provider.ContactsContract;
+import android.view.ActionMode;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
+import android.widget.AbsListView.MultiChoiceModeListener;
 import android.widget.Button;
 import android.widget.ListView;
-import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
 import android.widget.Toast;
 import at.ameise.coasy.R;
 import at.ameise.coasy.domain.Course;
 import at.ameise.coasy.domain.persistence.IPersistenceManager;
 import at.ameise.coasy.domain.persistence.ProductionPersistenceManager;
+import at.ameise.coasy.domain.persistence.database.GroupMemberTable;
 import at.ameise.coasy.domain.persistence.database.ILoader;
+import at.ameise.coasy.domain.persistence.database.VersionedCursorLoader;
 import at.ameise.coasy.domain.persistence.database.StudentTable;
 import at.ameise.coasy.exception.CoasyError;
 import at.ameise.coasy.util.Logger;
+import at.ameise.coasy.util.PagingCursorAdapter;
 
 /**
- * A list of all contacts to add to a course.
+ * A list of all contacts to add to a course.<br>
+ * <br>
+ * When adding or removing, several contacts can be selected with a long click
+ * and are then added or removed at once.
  * 
  * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
  * 
  */
-public class ContactsListFragment extends ListFragment implements LoaderManager.LoaderCallbacks<Cursor>, OnClickListener {
+public class ContactsListFragment extends ListFragment implements LoaderManager.LoaderCallbacks<Cursor>, OnClickListener,
+		MultiChoiceModeListener {
 
 	public static final String TAG = "ContactsListF";
 
@@ -138,7 +149,7 @@ public class ContactsListFragment extends ListFragment implements LoaderManager.
 		final String[] from;
 		final int[] to;
 
-		if (getArguments().containsKey(ARG_REMOVE)) {
+		if (!isAddMode()) {
 
 			from = new String[] { StudentTable.COL_DISPLAY_NAME, };
 			to = new int[] { R.id.listitem_contacts_tvTitle, };
@@ -150,7 +161,7 @@ public class ContactsListFragment extends ListFragment implements LoaderManager.
 
 		} else {
 
-			from = new String[] { ContactsContract.Contacts.DISPLAY_NAME_PRIMARY, };
+			from = new String[] { GroupMemberTable.COL_DISPLAY_NAME, };
 			to = new int[] { R.id.listitem_contacts_tvTitle, };
 
 			if (getLoaderManager().getLoader(ILoader.NOT_IN_COURSE_CONTACTS_LOADER_ID) != null)
@@ -159,7 +170,8 @@ public class ContactsListFragment extends ListFragment implements LoaderManager.
 				getLoaderManager().initLoader(ILoader.NOT_IN_COURSE_CONTACTS_LOADER_ID, null, this);
 		}
 
-		setListAdapter(new SimpleCursorAdapter(getActivity(), R.layout.fragment_contacts_list_item, null, from, to, 0));
+		// the display name is the first column in both modes
+		setListAdapter(new PagingCursorAdapter(getActivity(), R.layout.fragment_contacts_list_item, from, to, from[0]));
 
 		return rootView;
 	}
@@ -173,7 +185,7 @@ public class ContactsListFragment extends ListFragment implements LoaderManager.
 
 		bDone.setOnClickListener(this);
 
-		if (getArguments().containsKey(ARG_REMOVE)) {
+		if (!isAddMode()) {
 
 			tvEmptyList.setText(R.string.fragment_contacts_students_emptyList);
 
@@ -181,13 +193,44 @@ public class ContactsListFragment extends ListFragment implements LoaderManager.
 
 			tvEmptyList.setText(R.string.fragment_contacts_contacts_emptyList);
 		}
+
+		if (isAddMode() || isRemoveMode()) {
+
+			getListView().setChoiceMode(ListView.CHOICE_MODE_MULTIPLE_MODAL);
+			getListView().setMultiChoiceModeListener(this);
+		}
 	}
 
 	@Override
 	public void onResume() {
 		super.onResume();
 
-		restartLoader();
+		if (!isAddMode()) {
+
+			VersionedCursorLoader.restartIfChanged(getLoaderManager(), ILoader.IN_COURSE_CONTACTS_LOADER_ID, null, this);
+
+		} else {
+
+			VersionedCursorLoader.restartIfChanged(getLoaderManager(), ILoader.NOT_IN_COURSE_CONTACTS_LOADER_ID, null, this);
+		}
+	}
+
+	/**
+	 * @return true if the fragment lists the contacts which can be added to
+	 *         the course.
+	 */
+	private boolean isAddMode() {
+
+		return !getArguments().containsKey(ARG_REMOVE);
+	}
+
+	/**
+	 * @return true if the fragment lists the students of the course to remove
+	 *         them.
+	 */
+	private boolean isRemoveMode() {
+
+		return getArguments().getBoolean(ARG_REMOVE);
 	}
 
 	/**
@@ -196,7 +239,7 @@ public class ContactsListFragment extends ListFragment implements LoaderManager.
 	 */
 	private void restartLoader() {
 
-		if (getArguments().containsKey(ARG_REMOVE)) {
+		if (!isAddMode()) {
 
 			getLoaderManager().restartLoader(ILoader.IN_COURSE_CONTACTS_LOADER_ID, null, this);
 
@@ -227,23 +270,23 @@ public class ContactsListFragment extends ListFragment implements LoaderManager.
 	@Override
 	public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
 
-		((SimpleCursorAdapter) getListAdapter()).swapCursor(data);
+		((PagingCursorAdapter) getListAdapter()).swapFirstPage(((CursorLoader) loader).getUri(), data);
 	}
 
 	@Override
 	public void onLoaderReset(Loader<Cursor> loader) {
 
-		((SimpleCursorAdapter) getListAdapter()).swapCursor(null);
+		((PagingCursorAdapter) getListAdapter()).swapFirstPage(null, null);
 	}
 
 	@Override
 	public void onListItemClick(ListView l, View v, int position, long contactId) {
 		super.onListItemClick(l, v, position, contactId);
 
-		if (getArguments().containsKey(ARG_REMOVE)) {
+		if (!isAddMode()) {
 			// we want to show or remove contacts
 
-			if (getArguments().getBoolean(ARG_REMOVE)) {
+			if (isRemoveMode()) {
 				// we want to remove
 				boolean success = pm.removeStudentFromCourse(contactId, getArguments().getLong(ARG_COURSE_ID));
 				if (success) {
@@ -269,6 +312,60 @@ public class ContactsListFragment extends ListFragment implements LoaderManager.
 		}
 	}
 
+	@Override
+	public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+
+		mode.getMenuInflater().inflate(R.menu.contacts_list_selection, menu);
+
+		if (isRemoveMode())
+			menu.removeItem(R.id.action_add_selected);
+		else
+			menu.removeItem(R.id.action_remove_selected);
+
+		return true;
+	}
+
+	@Override
+	public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+
+		return false;
+	}
+
+	@Override
+	public void onItemCheckedStateChanged(ActionMode mode, int position, long contactId, boolean checked) {
+
+		mode.setTitle(getString(R.string.fragment_contacts_selected, getListView().getCheckedItemCount()));
+	}
+
+	@Override
+	public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+
+		final long[] contactIds = getListView().getCheckedItemIds();
+		final long courseId = getArguments().getLong(ARG_COURSE_ID);
+
+		switch (item.getItemId()) {
+
+		case R.id.action_add_selected:
+			new ChangeStudentsTask(true, courseId, contactIds).execute();
+			break;
+
+		case R.id.action_remove_selected:
+			new ChangeStudentsTask(false, courseId, contactIds).execute();
+			break;
+
+		default:
+			return false;
+		}
+
+		mode.finish();
+
+		return true;
+	}
+
+	@Override
+	public void onDestroyActionMode(ActionMode mode) {
+	}
+
 	@Override
 	public void onClick(View view) {
 
@@ -282,4 +379,46 @@ public class ContactsListFragment extends ListFragment implements LoaderManager.
 			break;
 		}
 	}
+
+	/**
+	 * Adds the selected contacts to or removes them from the course in the
+	 * background and reloads the list afterwards.
+	 */
+	private final class ChangeStudentsTask extends AsyncTask<Void, Void, Boolean> {
+
+		private final boolean mAdd;
+		private final long mCourseId;
+		private final long[] mContactIds;
+
+		/**
+		 * @param add
+		 *            true to add the contacts, false to remove them.
+		 * @param courseId
+		 * @param contactIds
+		 */
+		ChangeStudentsTask(boolean add, long courseId, long[] contactIds) {
+			mAdd = add;
+			mCourseId = courseId;
+			mContactIds = contactIds;
+		}
+
+		@Override
+		protected Boolean doInBackground(Void... params) {
+
+			return mAdd ? pm.addStudentsToCourse(mCourseId, mContactIds) : pm.removeStudentsFromCourse(mCourseId, mContactIds);
+		}
+
+		@Override
+		protected void onPostExecute(Boolean success) {
+
+			if (!isAdded())
+				return;
+
+			if (!success)
+				Toast.makeText(getActivity(), mAdd ? "Failed to add students to course." : "Failed to remove students from course.", Toast.LENGTH_SHORT)
+						.show();
+
+			restartLoader();
+		}
+	}
 }
@@ -55,6 +55,7 @@ import at.ameise.coasy.domain.persistence.IPersistenceManager;
 import at.ameise.coasy.domain.persistence.ProductionPersistenceManager;
 import at.ameise.coasy.domain.persistence.database.CourseTable;
 import at.ameise.coasy.domain.persistence.database.ILoader;
+import at.ameise.coasy.domain.persistence.database.VersionedCursorLoader;
 import at.ameise.coasy.util.Logger;
 
 /**
@@ -140,7 +141,7 @@ public class CourseDetailsFragment extends Fragment implements LoaderManager.Loa
 	public void onResume() {
 		super.onResume();
 		
-		getLoaderManager().restartLoader(ILoader.COURSE_DETAIL_LOADER_ID, null, this);
+		VersionedCursorLoader.restartIfChanged(getLoaderManager(), ILoader.COURSE_DETAIL_LOADER_ID, null, this);
 	}
 
 	@Override
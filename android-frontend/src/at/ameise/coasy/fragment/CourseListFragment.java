@@ -40,13 +40,16 @@ import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.os.Bundle;
+import android.text.Editable;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.SimpleCursorAdapter;
+import android.widget.TextView;
 import android.widget.Toast;
 import at.ameise.coasy.R;
 import at.ameise.coasy.activity.CourseDetailsActivity;
@@ -57,8 +60,11 @@ import at.ameise.coasy.domain.persistence.IPersistenceManager;
 import at.ameise.coasy.domain.persistence.ProductionPersistenceManager;
 import at.ameise.coasy.domain.persistence.database.CourseTable;
 import at.ameise.coasy.domain.persistence.database.ILoader;
+import at.ameise.coasy.domain.persistence.database.VersionedCursorLoader;
 import at.ameise.coasy.exception.UpdateContactsException;
 import at.ameise.coasy.util.SettingsUtil;
+import at.ameise.coasy.util.StartupTiming;
+import at.ameise.coasy.util.TimeoutTextWatcher;
 
 import com.google.android.gms.auth.GoogleAuthUtil;
 import com.google.android.gms.common.AccountPicker;
@@ -77,8 +83,24 @@ public class CourseListFragment extends ListFragment implements LoaderManager.Lo
 	 */
 	private static final String ARG_SECTION_NUMBER = "section_number";
 
+	/**
+	 * The loader argument holding the search query.
+	 */
+	private static final String ARG_QUERY = "query";
+
+	/**
+	 * Typing is coalesced for this long before the list is searched.
+	 */
+	private static final long SEARCH_DELAY_MILLIS = 150;
+
 	private IPersistenceManager pm;
 	private Button bNewCourse;
+	private EditText etSearch;
+
+	/**
+	 * The arguments of the current search, null if the list was not searched.
+	 */
+	private Bundle mSearchArgs = null;
 	
 	/**
 	 * Returns a new instance of this fragment for the given section number.
@@ -137,7 +159,7 @@ public class CourseListFragment extends ListFragment implements LoaderManager.Lo
 		}
 		initLoader();
 		
-		getLoaderManager().restartLoader(ILoader.COURSES_LOADER_ID, null, this);
+		VersionedCursorLoader.restartIfChanged(getLoaderManager(), ILoader.COURSES_LOADER_ID, mSearchArgs, this);
 	}
 
 	@Override
@@ -164,12 +186,29 @@ public class CourseListFragment extends ListFragment implements LoaderManager.Lo
 	 */
 	private void initLoader() {
 		
-		String[] from = new String[] { CourseTable.COL_TITLE, CourseTable.COL_DESCRIPTION, };
-		int[] to = new int[] { R.id.listitem_course_tv_title, R.id.listitem_course_tv_description, };
+		String[] from = new String[] { CourseTable.COL_TITLE, CourseTable.COL_DESCRIPTION, CourseTable.COL_STUDENT_COUNT, };
+		int[] to = new int[] { R.id.listitem_course_tv_title, R.id.listitem_course_tv_description, R.id.listitem_course_tv_studentCount, };
+
+		getLoaderManager().initLoader(ILoader.COURSES_LOADER_ID, mSearchArgs, this);
+
+		// keep the adapter, the loader delivers its cursor again
+		if (getListAdapter() == null) {
+
+			final SimpleCursorAdapter adapter = new SimpleCursorAdapter(getActivity(), R.layout.fragment_course_list_item, null, from, to, 0);
+			adapter.setViewBinder(new SimpleCursorAdapter.ViewBinder() {
+				@Override
+				public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
 
-		getLoaderManager().initLoader(ILoader.COURSES_LOADER_ID, null, this);
+					if (view.getId() != R.id.listitem_course_tv_studentCount)
+						return false;
 
-		setListAdapter(new SimpleCursorAdapter(getActivity(), R.layout.fragment_course_list_item, null, from, to, 0));
+					// the count is read from the course row, no join needed
+					((TextView) view).setText(getString(R.string.fragment_course_studentCount, cursor.getInt(columnIndex)));
+					return true;
+				}
+			});
+			setListAdapter(adapter);
+		}
 	}
 
 	@Override
@@ -177,8 +216,24 @@ public class CourseListFragment extends ListFragment implements LoaderManager.Lo
 		super.onViewCreated(view, savedInstanceState);
 		
 		bNewCourse = (Button) view.findViewById(R.id.fragment_course_bNewCourse);
+		etSearch = (EditText) view.findViewById(R.id.fragment_course_etSearch);
 		
 		bNewCourse.setOnClickListener(this);
+		etSearch.addTextChangedListener(new TimeoutTextWatcher(SEARCH_DELAY_MILLIS) {
+			@Override
+			public void afterTextChangedTimeout(Editable s) {
+				if (getActivity() != null)// this is in case of device sleep
+					search(s.toString());
+			}
+
+			@Override
+			public void onTextChangedTimeout(CharSequence s, int start, int before, int count) {
+			}
+
+			@Override
+			public void beforeTextChangedTimeout(CharSequence s, int start, int count, int after) {
+			}
+		});
 	}
 
 	@Override
@@ -214,12 +269,27 @@ public class CourseListFragment extends ListFragment implements LoaderManager.Lo
 
 	@Override
 	public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-		return pm.allCoursesCursorLoader();
+		return pm.searchCoursesCursorLoader(args != null ? args.getString(ARG_QUERY) : null);
+	}
+
+	/**
+	 * Restarts the loader with the query, the list shows the courses matching
+	 * it.
+	 * 
+	 * @param query
+	 */
+	private void search(String query) {
+
+		mSearchArgs = new Bundle();
+		mSearchArgs.putString(ARG_QUERY, query);
+
+		getLoaderManager().restartLoader(ILoader.COURSES_LOADER_ID, mSearchArgs, this);
 	}
 
 	@Override
 	public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
 		((SimpleCursorAdapter) getListAdapter()).swapCursor(data);
+		StartupTiming.mark(StartupTiming.STAGE_FIRST_COURSE_LIST);
 	}
 
 	@Override
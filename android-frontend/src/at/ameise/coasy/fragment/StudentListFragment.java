@@ -33,6 +33,7 @@ package at.ameise.coasy.fragment;
 import android.app.Activity;
 import android.app.ListFragment;
 import android.app.LoaderManager;
+import android.content.CursorLoader;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
@@ -40,13 +41,14 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.provider.ContactsContract;
+import android.text.Editable;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.ListView;
-import android.widget.SimpleCursorAdapter;
 import android.widget.Toast;
 import at.ameise.coasy.R;
 import at.ameise.coasy.activity.MainActivity;
@@ -54,10 +56,13 @@ import at.ameise.coasy.activity.UserSettingsActivity;
 import at.ameise.coasy.domain.persistence.IPersistenceManager;
 import at.ameise.coasy.domain.persistence.ProductionPersistenceManager;
 import at.ameise.coasy.domain.persistence.database.ILoader;
+import at.ameise.coasy.domain.persistence.database.VersionedCursorLoader;
 import at.ameise.coasy.domain.persistence.database.StudentTable;
 import at.ameise.coasy.exception.CoasyError;
 import at.ameise.coasy.util.Logger;
+import at.ameise.coasy.util.PagingCursorAdapter;
 import at.ameise.coasy.util.SettingsUtil;
+import at.ameise.coasy.util.TimeoutTextWatcher;
 
 import com.google.android.gms.auth.GoogleAuthUtil;
 import com.google.android.gms.common.AccountPicker;
@@ -80,9 +85,25 @@ public class StudentListFragment extends ListFragment implements LoaderManager.L
 
 	private static final int REQUEST_CODE_CREATE_CONTACT = 100;
 
+	/**
+	 * The loader argument holding the search query.
+	 */
+	private static final String ARG_QUERY = "query";
+
+	/**
+	 * Typing is coalesced for this long before the list is searched.
+	 */
+	private static final long SEARCH_DELAY_MILLIS = 150;
+
 	private IPersistenceManager pm;
 
 	private Button bCreateStudent;
+	private EditText etSearch;
+
+	/**
+	 * The arguments of the current search, null if the list was not searched.
+	 */
+	private Bundle mSearchArgs = null;
 
 	/**
 	 * Returns a new instance of this fragment for the given section number.
@@ -112,7 +133,7 @@ public class StudentListFragment extends ListFragment implements LoaderManager.L
 	public void onActivityCreated(Bundle savedInstanceState) {
 		super.onActivityCreated(savedInstanceState);
 
-		getLoaderManager().initLoader(ILoader.STUDENTS_LOADER_ID, null, this);
+		getLoaderManager().initLoader(ILoader.STUDENTS_LOADER_ID, mSearchArgs, this);
 	}
 
 	@Override
@@ -123,7 +144,7 @@ public class StudentListFragment extends ListFragment implements LoaderManager.L
 		final String[] from = new String[] { StudentTable.COL_DISPLAY_NAME, };
 		final int[] to = new int[] { R.id.listitem_student_tv_displayname, };
 
-		setListAdapter(new SimpleCursorAdapter(getActivity(), R.layout.fragment_students_list_item, null, from, to, 0));
+		setListAdapter(new PagingCursorAdapter(getActivity(), R.layout.fragment_students_list_item, from, to, StudentTable.COL_DISPLAY_NAME));
 
 		return rootView;
 	}
@@ -133,8 +154,24 @@ public class StudentListFragment extends ListFragment implements LoaderManager.L
 		super.onViewCreated(view, savedInstanceState);
 
 		bCreateStudent = (Button) view.findViewById(R.id.fragment_students_bCreateStudent);
+		etSearch = (EditText) view.findViewById(R.id.fragment_students_etSearch);
 
 		bCreateStudent.setOnClickListener(this);
+		etSearch.addTextChangedListener(new TimeoutTextWatcher(SEARCH_DELAY_MILLIS) {
+			@Override
+			public void afterTextChangedTimeout(Editable s) {
+				if (getActivity() != null)// this is in case of device sleep
+					search(s.toString());
+			}
+
+			@Override
+			public void onTextChangedTimeout(CharSequence s, int start, int before, int count) {
+			}
+
+			@Override
+			public void beforeTextChangedTimeout(CharSequence s, int start, int count, int after) {
+			}
+		});
 	}
 
 	@Override
@@ -152,7 +189,21 @@ public class StudentListFragment extends ListFragment implements LoaderManager.L
 
 	@Override
 	public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-		return pm.allStudentsCursorLoader();
+		return pm.searchStudentsCursorLoader(args != null ? args.getString(ARG_QUERY) : null);
+	}
+
+	/**
+	 * Restarts the loader with the query, the list shows the students matching
+	 * it.
+	 * 
+	 * @param query
+	 */
+	private void search(String query) {
+
+		mSearchArgs = new Bundle();
+		mSearchArgs.putString(ARG_QUERY, query);
+
+		getLoaderManager().restartLoader(ILoader.STUDENTS_LOADER_ID, mSearchArgs, this);
 	}
 
 	@Override
@@ -174,17 +225,17 @@ public class StudentListFragment extends ListFragment implements LoaderManager.L
 			}
 		}
 		
-		getLoaderManager().restartLoader(ILoader.STUDENTS_LOADER_ID, null, this);
+		VersionedCursorLoader.restartIfChanged(getLoaderManager(), ILoader.STUDENTS_LOADER_ID, mSearchArgs, this);
 	}
 
 	@Override
 	public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-		((SimpleCursorAdapter) getListAdapter()).swapCursor(data);
+		((PagingCursorAdapter) getListAdapter()).swapFirstPage(((CursorLoader) loader).getUri(), data);
 	}
 
 	@Override
 	public void onLoaderReset(Loader<Cursor> loader) {
-		((SimpleCursorAdapter) getListAdapter()).swapCursor(null);
+		((PagingCursorAdapter) getListAdapter()).swapFirstPage(null, null);
 	}
 
 	@Override
@@ -44,9 +44,45 @@ import at.ameise.coasy.exception.CoasyError;
  */
 public final class HashUtil {
 
+	private static final long FNV_64_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_64_PRIME = 0x100000001b3L;
+
 	private HashUtil() {
 	}
 
+	/**
+	 * Calculates the 64 bit FNV-1a hash of the string representations of the
+	 * values. Null values and empty strings lead to different hashes.
+	 * 
+	 * @param values
+	 * @return the hash of the values.
+	 */
+	public static final long getFnv1a64From(Object... values) {
+
+		long hash = FNV_64_OFFSET_BASIS;
+
+		for (Object value : values) {
+
+			if (value != null) {
+
+				final String string = value.toString();
+
+				for (int i = 0; i < string.length(); i++) {
+
+					final char c = string.charAt(i);
+
+					hash = (hash ^ (c >>> 8)) * FNV_64_PRIME;
+					hash = (hash ^ (c & 0xff)) * FNV_64_PRIME;
+				}
+			}
+
+			// terminate every value, so the values can not be shifted
+			hash = (hash ^ (value == null ? 0x100 : 0x101)) * FNV_64_PRIME;
+		}
+
+		return hash;
+	}
+
 	/**
 	 * @param string
 	 * @return the md5 sum of string.
@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.util;
+
+import java.util.ArrayList;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.provider.BaseColumns;
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.SimpleCursorAdapter;
+import android.widget.TextView;
+import at.ameise.coasy.domain.persistence.database.PerformanceDatabaseContentProvider;
+
+/**
+ * A {@link SimpleCursorAdapter} on the pages of a list ordered by display name
+ * and id, see
+ * {@link PerformanceDatabaseContentProvider#getPageUri(Uri, int, String, long)}
+ * .<br>
+ * <br>
+ * The first page comes from a loader, the following pages are loaded in the
+ * background while the user scrolls towards the end of the list. Only the
+ * pages around the shown rows are kept open, see
+ * {@link PagingCursorAdapter#WINDOW_PAGES}. For every page, the display name
+ * and the id of the row before it are remembered, so a page which left the
+ * window is queried again by its keyset once the user scrolls back. Rows
+ * whose page is still loading are shown empty.<br>
+ * <br>
+ * NOTE: Every page but the last one holds exactly one page size of rows, so
+ * the positions are stable as long as the data does not change. A change
+ * reloads the first page, see
+ * {@link PagingCursorAdapter#swapFirstPage(Uri, Cursor)}.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+public class PagingCursorAdapter extends SimpleCursorAdapter {
+
+	private static final String TAG = "PagingCursorAdapter";
+
+	/**
+	 * The next page is loaded as soon as one of the last rows is shown.
+	 */
+	private static final int PREFETCH_ROWS = 20;
+
+	/**
+	 * The number of pages kept open on each side of the shown page.
+	 */
+	private static final int WINDOW_PAGES = 1;
+
+	private final Context mViewContext;
+	private final ContentResolver mResolver;
+	private final int[] mToViews;
+	private final String mDisplayNameColumn;
+
+	/**
+	 * The open pages by page index. The first page is owned by the loader and
+	 * always open, the others are closed by this adapter.
+	 */
+	private final SparseArray<Cursor> mPages = new SparseArray<Cursor>();
+
+	/**
+	 * The display name and the id of the row before every known page, null
+	 * for the first page.
+	 */
+	private final ArrayList<String> mPageDisplayNames = new ArrayList<String>();
+	private final ArrayList<Long> mPageIds = new ArrayList<Long>();
+
+	/**
+	 * The uri of the first page.
+	 */
+	private Uri mUri = null;
+	private int mPageSize;
+
+	/**
+	 * The number of rows of the last known page.
+	 */
+	private int mLastPageCount;
+
+	/**
+	 * True if the last known page is the last page.
+	 */
+	private boolean mComplete = true;
+
+	/**
+	 * The position of the last row which was shown.
+	 */
+	private int mShownPosition;
+
+	/**
+	 * The number of rows which were shown before the first page was reloaded.
+	 * The following pages are found again until the list has as many rows.
+	 */
+	private int mRestoreCount;
+
+	private PageTask mTask = null;
+
+	/**
+	 * @param context
+	 * @param layout
+	 *            see {@link SimpleCursorAdapter}.
+	 * @param from
+	 *            see {@link SimpleCursorAdapter}.
+	 * @param to
+	 *            see {@link SimpleCursorAdapter}.
+	 * @param displayNameColumn
+	 *            the column the pages are ordered by.
+	 */
+	public PagingCursorAdapter(Context context, int layout, String[] from, int[] to, String displayNameColumn) {
+		super(context, layout, null, from, to, 0);
+
+		mViewContext = context;
+		mResolver = context.getApplicationContext().getContentResolver();
+		mToViews = to;
+		mDisplayNameColumn = displayNameColumn;
+	}
+
+	/**
+	 * Replaces all pages by the first page. If the uri did not change, the
+	 * pages which were shown before are found again so the list keeps its
+	 * position.
+	 * 
+	 * @param uri
+	 *            the uri of the first page, null if the loader was reset.
+	 * @param firstPage
+	 *            the cursor of the loader, null if the loader was reset.
+	 */
+	public void swapFirstPage(Uri uri, Cursor firstPage) {
+
+		mRestoreCount = uri != null && uri.equals(mUri) ? getCount() : 0;
+		if (mRestoreCount == 0)
+			mShownPosition = 0;
+
+		closePages();
+
+		mUri = uri;
+
+		if (firstPage == null) {
+
+			mComplete = true;
+			swapCursor(null);
+			return;
+		}
+
+		final String pageSize = uri.getQueryParameter(PerformanceDatabaseContentProvider.PARAM_PAGE_SIZE);
+		mPageSize = pageSize != null ? Integer.parseInt(pageSize) : Integer.MAX_VALUE;
+
+		mPages.put(0, firstPage);
+		mPageDisplayNames.add(null);
+		mPageIds.add(null);
+		mLastPageCount = firstPage.getCount();
+		mComplete = mLastPageCount < mPageSize;
+
+		// the columns of the first page bind the rows of all pages
+		swapCursor(firstPage);
+
+		loadPages();
+	}
+
+	@Override
+	public int getCount() {
+
+		if (getCursor() == null)
+			return 0;
+
+		return (mPageDisplayNames.size() - 1) * mPageSize + mLastPageCount;
+	}
+
+	@Override
+	public Object getItem(int position) {
+
+		return moveToPosition(position);
+	}
+
+	@Override
+	public long getItemId(int position) {
+
+		final Cursor page = moveToPosition(position);
+
+		return page != null ? page.getLong(page.getColumnIndexOrThrow(BaseColumns._ID)) : AdapterView.INVALID_ROW_ID;
+	}
+
+	@Override
+	public View getView(int position, View convertView, ViewGroup parent) {
+
+		mShownPosition = position;
+		loadPages();
+
+		final Cursor page = moveToPosition(position);
+		final View view = convertView != null ? convertView : newView(mViewContext, page, parent);
+
+		if (page != null) {
+
+			bindView(view, mViewContext, page);
+
+		} else {
+
+			for (int id : mToViews)
+				setViewText((TextView) view.findViewById(id), "");
+		}
+
+		return view;
+	}
+
+	/**
+	 * @param position
+	 * @return the open page of the position, moved to the row, or null if the
+	 *         page is not open.
+	 */
+	private Cursor moveToPosition(int position) {
+
+		final int index = position / mPageSize;
+		final Cursor page = mPages.get(index);
+
+		return page != null && page.moveToPosition(position - index * mPageSize) ? page : null;
+	}
+
+	/**
+	 * Starts loading the next missing page, unless a page is already loading.
+	 * The pages around the shown row come first, then the page after the last
+	 * known page, if the user nears the end or the list is restored.
+	 */
+	private void loadPages() {
+
+		if (mTask != null || mUri == null)
+			return;
+
+		final int shownPage = mShownPosition / mPageSize;
+		final int knownPages = mPageDisplayNames.size();
+
+		for (int index = Math.max(shownPage - WINDOW_PAGES, 0); index <= Math.min(shownPage + WINDOW_PAGES, knownPages - 1); index++) {
+
+			if (mPages.get(index) == null) {
+
+				load(index, mPageDisplayNames.get(index), mPageIds.get(index));
+				return;
+			}
+		}
+
+		if (mComplete || (mShownPosition < getCount() - PREFETCH_ROWS && getCount() >= mRestoreCount))
+			return;
+
+		final Cursor lastPage = mPages.get(knownPages - 1);
+		if (lastPage == null) {
+
+			load(knownPages - 1, mPageDisplayNames.get(knownPages - 1), mPageIds.get(knownPages - 1));
+			return;
+		}
+
+		if (!lastPage.moveToLast()) {
+
+			mComplete = true;
+			return;
+		}
+
+		load(knownPages, lastPage.getString(lastPage.getColumnIndexOrThrow(mDisplayNameColumn)),
+				lastPage.getLong(lastPage.getColumnIndexOrThrow(BaseColumns._ID)));
+	}
+
+	/**
+	 * @param index
+	 *            the index of the page.
+	 * @param afterDisplayName
+	 *            the display name of the row before the page.
+	 * @param afterId
+	 *            the id of the row before the page.
+	 */
+	private void load(int index, String afterDisplayName, long afterId) {
+
+		mTask = new PageTask(index, afterDisplayName, afterId);
+		mTask.execute(PerformanceDatabaseContentProvider.getPageUri(mUri, mPageSize, afterDisplayName, afterId));
+	}
+
+	/**
+	 * Adds the loaded page and closes the pages which left the window. The last
+	 * known page stays open, the page after it starts after its last row.
+	 * 
+	 * @param index
+	 * @param afterDisplayName
+	 * @param afterId
+	 * @param page
+	 */
+	private void addPage(int index, String afterDisplayName, long afterId, Cursor page) {
+
+		if (index == mPageDisplayNames.size()) {
+
+			mPageDisplayNames.add(afterDisplayName);
+			mPageIds.add(afterId);
+			mLastPageCount = page.getCount();
+			mComplete = mLastPageCount < mPageSize;
+		}
+
+		mPages.put(index, page);
+
+		final int shownPage = mShownPosition / mPageSize;
+		final int lastPage = mPageDisplayNames.size() - 1;
+
+		for (int i = mPages.size() - 1; i >= 0; i--) {
+
+			final int openIndex = mPages.keyAt(i);
+
+			if (openIndex != 0 && openIndex != lastPage && Math.abs(openIndex - shownPage) > WINDOW_PAGES) {
+
+				mPages.valueAt(i).close();
+				mPages.removeAt(i);
+			}
+		}
+
+		notifyDataSetChanged();
+
+		loadPages();
+	}
+
+	/**
+	 * Cancels loading and closes all pages but the first one.
+	 */
+	private void closePages() {
+
+		if (mTask != null) {
+
+			mTask.cancel(false);
+			mTask = null;
+		}
+
+		for (int i = 0; i < mPages.size(); i++)
+			if (mPages.keyAt(i) != 0)
+				mPages.valueAt(i).close();
+
+		mPages.clear();
+		mPageDisplayNames.clear();
+		mPageIds.clear();
+	}
+
+	/**
+	 * Queries a page and fills its window off the ui thread.
+	 */
+	private final class PageTask extends AsyncTask<Uri, Void, Cursor> {
+
+		private final int mIndex;
+		private final String mAfterDisplayName;
+		private final long mAfterId;
+
+		/**
+		 * @param index
+		 *            the index of the page.
+		 * @param afterDisplayName
+		 *            the display name of the row before the page.
+		 * @param afterId
+		 *            the id of the row before the page.
+		 */
+		PageTask(int index, String afterDisplayName, long afterId) {
+			mIndex = index;
+			mAfterDisplayName = afterDisplayName;
+			mAfterId = afterId;
+		}
+
+		@Override
+		protected Cursor doInBackground(Uri... params) {
+
+			final Cursor page = mResolver.query(params[0], null, null, null, null);
+			if (page != null)
+				page.getCount();
+
+			return page;
+		}
+
+		@Override
+		protected void onPostExecute(Cursor page) {
+
+			mTask = null;
+
+			if (page == null) {
+
+				Logger.warn(TAG, "Failed to load page " + mIndex + " of " + mUri);
+				mComplete = true;
+				return;
+			}
+
+			addPage(mIndex, mAfterDisplayName, mAfterId, page);
+		}
+
+		@Override
+		protected void onCancelled(Cursor page) {
+
+			if (page != null)
+				page.close();
+		}
+	}
+}
@@ -30,53 +30,51 @@
  */
 package at.ameise.coasy.util;
 
-import java.lang.reflect.Field;
+import android.database.Cursor;
 
 /**
- * Utility methods using reflection. <br>
+ * Maps the current row of a {@link Cursor} to an object. The column indexes
+ * are resolved once per cursor, not for every row.<br>
  * <br>
- * NOTE: Use with caution!
+ * NOTE: A mapper keeps the indexes of the last cursor it mapped, it must not
+ * be shared between threads.
  * 
  * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
  * 
+ * @param <T>
+ *            the type of the mapped objects.
  */
-public class ReflectionUtil {
+public abstract class RowMapper<T> {
 
-	private ReflectionUtil() {
-	}
+	private Cursor mResolvedCursor = null;
 
 	/**
-	 * @param object
-	 *            object to get the value from.
-	 * @param fieldName
-	 *            name of the filed.
-	 * @return the value of the field.
-	 * @throws NoSuchFieldException
-	 * @throws IllegalAccessException
-	 * @throws IllegalArgumentException
+	 * @param cursor
+	 *            cursor positioned on a row.
+	 * @return the object of the current row.
 	 */
-	public static Object getFieldValue(Object object, String fieldName) throws NoSuchFieldException, IllegalAccessException, IllegalArgumentException {
+	public final T map(Cursor cursor) {
+
+		if (cursor != mResolvedCursor) {
+
+			resolveColumnIndexes(cursor);
+			mResolvedCursor = cursor;
+		}
 
-		Field field = object.getClass().getDeclaredField(fieldName);
-		field.setAccessible(true);
-		return field.get(object);
+		return mapRow(cursor);
 	}
 
 	/**
-	 * Sets the value to the object's field with name fieldName.
+	 * Called once for every cursor, before its first row is mapped.
 	 * 
-	 * @param object
-	 * @param fieldName
-	 * @param value
-	 * @throws NoSuchFieldException 
-	 * @throws IllegalArgumentException 
-	 * @throws IllegalAccessException 
+	 * @param cursor
 	 */
-	public static void setFieldValue(Object object, String fieldName, Object value) throws NoSuchFieldException, IllegalAccessException, IllegalArgumentException {
-		
-		Field field = object.getClass().getDeclaredField(fieldName);
-		field.setAccessible(true);
-		field.set(object, value);
-	}
+	protected abstract void resolveColumnIndexes(Cursor cursor);
 
+	/**
+	 * @param cursor
+	 *            cursor positioned on a row.
+	 * @return the object of the current row.
+	 */
+	protected abstract T mapRow(Cursor cursor);
 }
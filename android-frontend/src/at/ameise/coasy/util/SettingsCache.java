@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.util;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.accounts.OnAccountsUpdateListener;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.preference.PreferenceManager;
+import at.ameise.coasy.R;
+
+/**
+ * Holds an immutable {@link Snapshot} of the settings in memory, so the
+ * {@link AccountManager} and the {@link SharedPreferences} are not consulted
+ * on every call of {@link SettingsUtil}.<br>
+ * <br>
+ * The snapshot is invalidated by any change of the preferences or of the
+ * accounts on the device and reloaded on the next access.<br>
+ * <br>
+ * All methods are thread safe.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+final class SettingsCache {
+
+	/**
+	 * The settings at one point in time.
+	 * 
+	 * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+	 * 
+	 */
+	static final class Snapshot {
+
+		/**
+		 * The selected google account or null.
+		 */
+		final Account selectedAccount;
+
+		/**
+		 * True, if a contact group was selected.
+		 */
+		final boolean groupSelected;
+
+		/**
+		 * The selected contact group, only valid if
+		 * {@link Snapshot#groupSelected}.
+		 */
+		final long selectedGroup;
+
+		private Snapshot(Account selectedAccount, boolean groupSelected, long selectedGroup) {
+
+			this.selectedAccount = selectedAccount;
+			this.groupSelected = groupSelected;
+			this.selectedGroup = selectedGroup;
+		}
+
+		@Override
+		public String toString() {
+			return "Snapshot(selectedAccount=" + selectedAccount + ", selectedGroup=" + (groupSelected ? String.valueOf(selectedGroup) : "none") + ")";
+		}
+	}
+
+	private static SettingsCache instance = null;
+
+	/**
+	 * @param context
+	 *            internally, the {@link Context#getApplicationContext()} is
+	 *            used.
+	 * @return a singleton instance of the {@link SettingsCache}.
+	 */
+	static synchronized SettingsCache getInstance(Context context) {
+
+		if (instance == null)
+			instance = new SettingsCache(context.getApplicationContext());
+
+		return instance;
+	}
+
+	private final Context mContext;
+	private final SharedPreferences mPreferences;
+	private final String mAccountNameKey;
+	private final String mContactGroupKey;
+
+	/**
+	 * The preferences keep only a weak reference to their listeners.
+	 */
+	private final OnSharedPreferenceChangeListener mPreferenceListener = new OnSharedPreferenceChangeListener() {
+		@Override
+		public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+			invalidate();
+		}
+	};
+
+	private final OnAccountsUpdateListener mAccountsListener = new OnAccountsUpdateListener() {
+		@Override
+		public void onAccountsUpdated(Account[] accounts) {
+			invalidate();
+		}
+	};
+
+	private Snapshot mSnapshot = null;
+
+	/**
+	 * Raised on every invalidation. A loaded snapshot is only kept if no
+	 * invalidation happened while it was loaded.
+	 */
+	private int mGeneration = 0;
+
+	private SettingsCache(Context context) {
+		mContext = context;
+
+		mPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+		mAccountNameKey = mContext.getString(R.string.accountName_key);
+		mContactGroupKey = mContext.getString(R.string.contactGroup_key);
+
+		mPreferences.registerOnSharedPreferenceChangeListener(mPreferenceListener);
+		// notifies on the main thread
+		AccountManager.get(mContext).addOnAccountsUpdatedListener(mAccountsListener, null, false);
+	}
+
+	/**
+	 * @return the current settings.
+	 */
+	Snapshot get() {
+
+		final int generation;
+
+		synchronized (this) {
+
+			if (mSnapshot != null)
+				return mSnapshot;
+
+			generation = mGeneration;
+		}
+
+		final Snapshot snapshot = load();
+
+		synchronized (this) {
+
+			if (generation == mGeneration)
+				mSnapshot = snapshot;
+		}
+
+		return snapshot;
+	}
+
+	/**
+	 * Discards the current snapshot.
+	 */
+	synchronized void invalidate() {
+
+		mSnapshot = null;
+		mGeneration++;
+	}
+
+	/**
+	 * @return the settings read from the preferences and the accounts.
+	 */
+	private Snapshot load() {
+
+		final String selectedAccountName = mPreferences.getString(mAccountNameKey, "");
+
+		Account selectedAccount = null;
+		for (Account account : AccountManager.get(mContext).getAccountsByType(SettingsUtil.ACCOUNT_TYPE_GOOGLE)) {
+
+			if (account.name.equals(selectedAccountName)) {
+
+				selectedAccount = account;
+				break;
+			}
+		}
+
+		final boolean groupSelected = mPreferences.contains(mContactGroupKey);
+
+		final Snapshot snapshot = new Snapshot(selectedAccount, groupSelected, groupSelected ? mPreferences.getLong(mContactGroupKey, -1) : -1);
+
+		Logger.debug(IUtilTags.TAG_ACCOUTN_UTIL, "Loaded settings: " + snapshot);
+
+		return snapshot;
+	}
+}
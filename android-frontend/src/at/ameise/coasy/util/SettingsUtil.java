@@ -33,7 +33,6 @@ package at.ameise.coasy.util;
 import lombok.AllArgsConstructor;
 import lombok.ToString;
 import android.accounts.Account;
-import android.accounts.AccountManager;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -42,6 +41,7 @@ import android.preference.PreferenceManager;
 import android.provider.ContactsContract;
 import at.ameise.coasy.ICoasySettings;
 import at.ameise.coasy.R;
+import at.ameise.coasy.domain.json.JsonCodec;
 import at.ameise.coasy.domain.persistence.ContactsContractHelper;
 import at.ameise.coasy.domain.persistence.database.CoasyDatabaseHelper;
 import at.ameise.coasy.exception.UpdateContactsException;
@@ -112,8 +112,8 @@ public final class SettingsUtil {
 	 */
 	public static final void saveAsPreferences(Context context, Cursor coasySettingsGroupCursor) {
 
-		final String settingsJsonEsc = coasySettingsGroupCursor.getString(coasySettingsGroupCursor.getColumnIndex(ContactsContract.Groups.NOTES));
-		final CoasySettings settings = CoasyDatabaseHelper.fromEscapedJson(settingsJsonEsc, CoasySettings.class);
+		final String settingsJson = coasySettingsGroupCursor.getString(coasySettingsGroupCursor.getColumnIndex(ContactsContract.Groups.NOTES));
+		final CoasySettings settings = JsonCodec.SETTINGS.decode(settingsJson);
 		
 		setGoogleAccountPreferences(context, settings.selectedAccount);
 		setContactGroupPreferences(context, settings.selectedGroup);
@@ -131,7 +131,7 @@ public final class SettingsUtil {
 		final ContentValues values = new ContentValues();
 		final CoasySettings settings = new CoasySettings(getSelectedGoogleAccount(context).name, getSelectedGroup(context));
 		
-		values.put(ContactsContract.Groups.NOTES, CoasyDatabaseHelper.toEscapedJson(settings));
+		values.put(ContactsContract.Groups.NOTES, JsonCodec.SETTINGS.encode(settings));
 		
 		Cursor coasySettingsGroup = getCoasySettingsGroup(context);
 		if (coasySettingsGroup.moveToFirst()) {
@@ -173,21 +173,6 @@ public final class SettingsUtil {
 		coasySettingsGroup.close();
 	}
 
-	/**
-	 * @param context
-	 * @param name
-	 * @return the google account with the specified name or null.
-	 */
-	private static final Account getAccount(Context context, String name) {
-
-		AccountManager am = (AccountManager) context.getSystemService(Context.ACCOUNT_SERVICE);
-		for (Account a : am.getAccountsByType(ACCOUNT_TYPE_GOOGLE))
-			if (a.name.equals("" + name))
-				return a;
-
-		return null;
-	}
-
 	/**
 	 * Use {@link SettingsUtil#isAccountSelected(Context)} to check if account
 	 * was set first!
@@ -197,31 +182,20 @@ public final class SettingsUtil {
 	 */
 	public static final Account getSelectedGoogleAccount(Context context) {
 
-		SharedPreferences userSettings = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
-
-		String selectedAccountName = userSettings.getString(context.getString(R.string.accountName_key), "");
-
-		Account selectedAccount = getAccount(context, selectedAccountName);
-
-		Logger.debug(IUtilTags.TAG_ACCOUTN_UTIL, "Selected google account: " + (selectedAccount != null ? selectedAccount.toString() : null));
-
-		return selectedAccount;
+		return SettingsCache.getInstance(context).get().selectedAccount;
 	}
 
 	/**
 	 * @param context
 	 * @return the id of the contact group selected in the user settings or the
-	 *         first group. See
+	 *         first group, if none was selected. See
 	 *         {@link ContactContractUtil#getFirstGroupId(Context)}
 	 */
 	public static final long getSelectedGroup(Context context) {
 
-		SharedPreferences userSettings = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
-
-		long selectedGroup = userSettings.getLong(context.getString(R.string.contactGroup_key), ContactContractUtil.getFirstGroupId(context));
-		Logger.debug(IUtilTags.TAG_ACCOUTN_UTIL, "Selected group=" + selectedGroup);
+		final SettingsCache.Snapshot settings = SettingsCache.getInstance(context).get();
 
-		return selectedGroup;
+		return settings.groupSelected ? settings.selectedGroup : ContactContractUtil.getFirstGroupId(context);
 	}
 
 	/**
@@ -276,7 +250,9 @@ public final class SettingsUtil {
 
 		SharedPreferences userSettings = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
 
-		userSettings.edit().putString(context.getString(R.string.accountName_key), accountName).commit();
+		userSettings.edit().putString(context.getString(R.string.accountName_key), accountName).apply();
+		// the listeners are notified asynchronously
+		SettingsCache.getInstance(context).invalidate();
 	}
 
 	/**
@@ -289,7 +265,9 @@ public final class SettingsUtil {
 		
 		SharedPreferences userSettings = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
 
-		userSettings.edit().putLong(context.getString(R.string.contactGroup_key), contactGroupId).commit();
+		userSettings.edit().putLong(context.getString(R.string.contactGroup_key), contactGroupId).apply();
+		// the listeners are notified asynchronously
+		SettingsCache.getInstance(context).invalidate();
 	}
 
 }
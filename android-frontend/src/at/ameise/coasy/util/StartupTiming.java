@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2014, Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * 
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * 
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package at.ameise.coasy.util;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import android.os.SystemClock;
+
+/**
+ * Measures the duration of the startup stages. Every stage is logged once
+ * with the time since the start of the application and since the previous
+ * stage.
+ * 
+ * @author Mario Gastegger <mario DOT gastegger AT gmail DOT com>
+ * 
+ */
+public final class StartupTiming {
+
+	private static final String TAG = "StartupTiming";
+
+	/**
+	 * The database has been opened.
+	 */
+	public static final String STAGE_DATABASE_OPENED = "database opened";
+	/**
+	 * The main activity has been created.
+	 */
+	public static final String STAGE_MAIN_SHOWN = "main activity shown";
+	/**
+	 * The course list has been populated for the first time.
+	 */
+	public static final String STAGE_FIRST_COURSE_LIST = "first course list";
+	/**
+	 * The first refresh from the contacts has finished.
+	 */
+	public static final String STAGE_REFRESH_FINISHED = "refresh finished";
+
+	private static long startTime = -1;
+	private static long lastMarkTime = -1;
+	private static final Set<String> markedStages = new HashSet<String>();
+
+	private StartupTiming() {
+	}
+
+	/**
+	 * Starts the measurement. Must be called when the application is
+	 * created.
+	 */
+	public static synchronized void start() {
+
+		startTime = SystemClock.elapsedRealtime();
+		lastMarkTime = startTime;
+		markedStages.clear();
+	}
+
+	/**
+	 * Logs the time the stage was reached. Only the first time a stage is
+	 * reached is logged.
+	 * 
+	 * @param stage
+	 */
+	public static synchronized void mark(String stage) {
+
+		if (startTime < 0 || !markedStages.add(stage))
+			return;
+
+		final long now = SystemClock.elapsedRealtime();
+
+		Logger.info(TAG, "Reached '" + stage + "' after " + (now - startTime) + "ms (+" + (now - lastMarkTime) + "ms).");
+
+		lastMarkTime = now;
+	}
+}